@@ -114,6 +114,9 @@ public class AppController implements Initializable {
     @FXML
     private MenuItem deleteWallet;
 
+    @FXML
+    private MenuItem restoreWalletBackup;
+
     @FXML
     private MenuItem closeTab;
 
@@ -202,6 +205,9 @@ public class AppController implements Initializable {
     private CheckMenuItem preventSleep;
     private static final BooleanProperty preventSleepProperty = new SimpleBooleanProperty();
 
+    @FXML
+    private CheckMenuItem compactWatchOnlyWallets;
+
     @FXML
     private Menu restart;
 
@@ -398,6 +404,7 @@ public class AppController implements Initializable {
         showLoadingLog.selectedProperty().bindBidirectional(showLoadingLogProperty);
         preventSleepProperty.set(Config.get().isPreventSleep());
         preventSleep.selectedProperty().bindBidirectional(preventSleepProperty);
+        compactWatchOnlyWallets.setSelected(Config.get().isCompactWatchOnlyWallets());
 
         MenuItem homeItem = new MenuItem("Home Folder...");
         homeItem.setOnAction(this::restartInHome);
@@ -420,6 +427,7 @@ public class AppController implements Initializable {
         exportWallet.setDisable(true);
         renameWallet.disableProperty().bind(exportWallet.disableProperty());
         deleteWallet.disableProperty().bind(exportWallet.disableProperty());
+        restoreWalletBackup.disableProperty().bind(exportWallet.disableProperty());
         closeTab.setDisable(true);
         lockWallet.setDisable(true);
         showWalletSummary.disableProperty().bind(exportWallet.disableProperty());
@@ -935,6 +943,10 @@ public class AppController implements Initializable {
         deleteWallet(getSelectedWalletForm());
     }
 
+    public void restoreWalletBackup(ActionEvent event) {
+        restoreWalletBackup(getSelectedWalletForm());
+    }
+
     public void closeTab(ActionEvent event) {
         tabs.getTabs().remove(tabs.getSelectionModel().getSelectedItem());
     }
@@ -1011,6 +1023,13 @@ public class AppController implements Initializable {
         AppServices.get().setPreventSleep(item.isSelected());
     }
 
+    public void compactWatchOnlyWallets(ActionEvent event) {
+        CheckMenuItem item = (CheckMenuItem)event.getSource();
+        Config.get().setCompactWatchOnlyWallets(item.isSelected());
+        AppServices.showAlertDialog("Wallet Storage", "Watch-only wallets without additional accounts will be " +
+                (item.isSelected() ? "converted to the compact binary format" : "converted back to the default format") + " when they are next opened.", Alert.AlertType.INFORMATION, ButtonType.OK);
+    }
+
     public void restartInHome(ActionEvent event) {
         Args args = getRestartArgs();
         File initialDir = null;
@@ -2322,6 +2341,38 @@ public class AppController implements Initializable {
         }
     }
 
+    private void restoreWalletBackup(WalletForm selectedWalletForm) {
+        Storage storage = selectedWalletForm.getStorage();
+        List<String> backups = storage.getStoredBackups();
+        if(backups.isEmpty()) {
+            showErrorDialog("No backups", "There are no backups of " + selectedWalletForm.getWallet().getMasterName() + " to restore.");
+            return;
+        }
+
+        ChoiceDialog<String> backupChoiceDialog = new ChoiceDialog<>(backups.getFirst(), backups);
+        backupChoiceDialog.initOwner(rootStack.getScene().getWindow());
+        backupChoiceDialog.setTitle("Restore Wallet Backup");
+        backupChoiceDialog.setHeaderText("Choose a backup of " + selectedWalletForm.getWallet().getMasterName() + " to restore as a new wallet file");
+        backupChoiceDialog.getDialogPane().setGraphic(new DialogImage(DialogImage.Type.SPARROW));
+        AppServices.setStageIcon(backupChoiceDialog.getDialogPane().getScene().getWindow());
+        Optional<String> optBackup = backupChoiceDialog.showAndWait();
+        if(optBackup.isPresent()) {
+            File walletFile = Storage.getWalletFile(optBackup.get());
+            if(walletFile.exists()) {
+                showErrorDialog("Error restoring backup", "Wallet file " + walletFile.getAbsolutePath() + " already exists.");
+                return;
+            }
+
+            Storage.RestoreBackupService restoreBackupService = new Storage.RestoreBackupService(optBackup.get(), walletFile);
+            restoreBackupService.setOnSucceeded(event -> openWalletFile(walletFile, true));
+            restoreBackupService.setOnFailed(event -> {
+                log.error("Error restoring backup", event.getSource().getException());
+                showErrorDialog("Error restoring backup", event.getSource().getException().getMessage());
+            });
+            restoreBackupService.start();
+        }
+    }
+
     private void deleteWallet(WalletForm selectedWalletForm) {
         Optional<ButtonType> optButtonType = AppServices.showWarningDialog("Delete " + selectedWalletForm.getWallet().getMasterName() + "?", "The wallet file and any backups will be deleted. Are you sure?", ButtonType.NO, ButtonType.YES);
         if(optButtonType.isPresent() && optButtonType.get() == ButtonType.YES) {
@@ -125,6 +125,7 @@ public class SparrowDesktop extends Application {
         AppServices.get().stop();
         Config.get().setAppWidth(mainStage.getWidth());
         Config.get().setAppHeight(mainStage.getHeight());
+        Config.get().flushNow();
         mainStage.close();
         SparrowWallet.Instance instance = SparrowWallet.getSparrowInstance();
         if(instance != null) {
@@ -16,6 +16,7 @@ import com.sparrowwallet.sparrow.glyphfont.FontAwesome5;
 import com.sparrowwallet.sparrow.io.*;
 import com.sparrowwallet.sparrow.io.bbqr.BBQR;
 import com.sparrowwallet.sparrow.io.bbqr.BBQRType;
+import javafx.beans.value.ChangeListener;
 import javafx.concurrent.Service;
 import javafx.concurrent.Task;
 import javafx.geometry.Pos;
@@ -220,9 +221,17 @@ public class FileWalletExportPane extends TitledDescriptionPane {
             return new Task<>() {
                 @Override
                 protected Void call() throws Exception {
+                    ChangeListener<Number> progressListener = (observable, oldValue, newValue) -> updateProgress(newValue.doubleValue(), 1.0);
+                    if(exporter instanceof WalletTransactions walletTransactions) {
+                        walletTransactions.progressProperty().addListener(progressListener);
+                    }
+
                     try(OutputStream outputStream = new FileOutputStream(file)) {
                         exporter.exportWallet(wallet, outputStream, password);
                     } finally {
+                        if(exporter instanceof WalletTransactions walletTransactions) {
+                            walletTransactions.progressProperty().removeListener(progressListener);
+                        }
                         if(password != null) {
                             wallet.clearPrivate();
                         }
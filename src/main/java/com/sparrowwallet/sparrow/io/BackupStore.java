@@ -0,0 +1,425 @@
+package com.sparrowwallet.sparrow.io;
+
+import com.sparrowwallet.drongo.IOUtils;
+import com.sparrowwallet.drongo.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * A deduplicating store for wallet backups.
+ * Files are split into variable length chunks at content-defined boundaries, so that a change to one part of a file only affects the chunks around it.
+ * Each chunk is stored once under its SHA-256 hash, and each backup is a manifest listing the chunks needed to reassemble the file.
+ */
+public class BackupStore {
+    private static final Logger log = LoggerFactory.getLogger(BackupStore.class);
+
+    public static final String STORE_DIR = "store";
+    private static final String CHUNKS_DIR = "chunks";
+    private static final String MANIFESTS_DIR = "manifests";
+    private static final String MANIFEST_EXTENSION = ".manifest";
+    private static final String TEMP_EXTENSION = ".tmp";
+    private static final String MANIFEST_HEADER = "sparrow-backup 1";
+
+    static final int MIN_CHUNK_SIZE = 16 * 1024;
+    static final int MAX_CHUNK_SIZE = 256 * 1024;
+    //A boundary is found on average every 64KiB after the minimum chunk size, using the high bits of the hash which depend on the last 64 bytes
+    private static final long BOUNDARY_MASK = -1L << (Long.SIZE - 16);
+    private static final long[] GEAR = createGear();
+
+    //Garbage collection must not run while a backup is referencing existing chunks, or while chunks are being read
+    private static final Object LOCK = new Object();
+
+    private final File storeDir;
+
+    public BackupStore(File storeDir) {
+        this.storeDir = storeDir;
+    }
+
+    /**
+     * Stores a new backup, writing only the chunks not already present in the store
+     *
+     * @param name the name of the backup, replacing any existing backup of the same name
+     * @param writer writes the file contents to be backed up
+     */
+    public Manifest backup(String name, BackupWriter writer) throws IOException {
+        synchronized(LOCK) {
+            ChunkingOutputStream chunkingOutputStream = new ChunkingOutputStream();
+            writer.write(chunkingOutputStream);
+            chunkingOutputStream.finish();
+
+            Manifest manifest = new Manifest(name, Instant.now(), chunkingOutputStream.size, Utils.bytesToHex(chunkingOutputStream.fileDigest.digest()), chunkingOutputStream.chunks);
+            writeManifest(manifest);
+
+            if(log.isDebugEnabled()) {
+                log.debug("Backed up " + name + " in " + manifest.chunks().size() + " chunks, " + chunkingOutputStream.newChunks + " new (" + chunkingOutputStream.newBytes + " of " + manifest.size() + " bytes written)");
+            }
+
+            return manifest;
+        }
+    }
+
+    /**
+     * Reassembles a backup, verifying each chunk and the complete file against their hashes
+     */
+    public void restore(String name, OutputStream outputStream) throws IOException {
+        synchronized(LOCK) {
+            Manifest manifest = readManifest(getManifestFile(name));
+            MessageDigest fileDigest = getDigest();
+            for(ChunkRef chunkRef : manifest.chunks()) {
+                byte[] chunk = readChunk(chunkRef);
+                fileDigest.update(chunk);
+                outputStream.write(chunk);
+            }
+
+            if(!Utils.bytesToHex(fileDigest.digest()).equals(manifest.sha256())) {
+                throw new IOException("Restored backup " + name + " does not match its recorded hash");
+            }
+        }
+    }
+
+    /**
+     * Verifies a single backup by reading each of its chunks and checking them and the complete file against their hashes, without writing the file
+     */
+    public boolean verify(String name) {
+        try {
+            restore(name, OutputStream.nullOutputStream());
+            return true;
+        } catch(IOException e) {
+            log.warn("Backup " + name + " could not be verified", e);
+            return false;
+        }
+    }
+
+    /**
+     * @return the names of the backups in the store matching the filter, newest first
+     */
+    public List<String> getBackups(Predicate<String> nameFilter) {
+        return getManifests(nameFilter).stream().map(Manifest::name).toList();
+    }
+
+    /**
+     * Verifies that every chunk referenced by every backup is present and matches its hash.
+     * Each chunk is read once, even when shared between backups.
+     *
+     * @return the names of the backups that could not be fully verified
+     */
+    public Set<String> verify() {
+        synchronized(LOCK) {
+            Set<String> damaged = new LinkedHashSet<>();
+            Map<ChunkRef, Boolean> verifiedChunks = new HashMap<>();
+            for(File manifestFile : getManifestFiles()) {
+                String name = getName(manifestFile);
+                try {
+                    Manifest manifest = readManifest(manifestFile);
+                    for(ChunkRef chunkRef : manifest.chunks()) {
+                        if(!verifiedChunks.computeIfAbsent(chunkRef, this::isValid)) {
+                            log.warn("Backup " + name + " references missing or damaged chunk " + chunkRef.hash());
+                            damaged.add(name);
+                        }
+                    }
+                } catch(IOException e) {
+                    log.warn("Could not read backup manifest " + manifestFile.getName(), e);
+                    damaged.add(name);
+                }
+            }
+
+            return damaged;
+        }
+    }
+
+    /**
+     * Deletes the backups matching the filter that are not retained by the policy, and any chunks no longer referenced
+     */
+    public void prune(Predicate<String> nameFilter, RetentionPolicy retentionPolicy) {
+        synchronized(LOCK) {
+            List<Manifest> manifests = getManifests(nameFilter);
+            Set<String> retained = retentionPolicy.getRetained(manifests);
+            List<String> expired = manifests.stream().map(Manifest::name).filter(name -> !retained.contains(name)).toList();
+            if(!expired.isEmpty()) {
+                expired.forEach(name -> getManifestFile(name).delete());
+                collectGarbage();
+            }
+        }
+    }
+
+    /**
+     * Deletes all backups matching the filter, and any chunks no longer referenced
+     */
+    public void delete(Predicate<String> nameFilter) {
+        synchronized(LOCK) {
+            for(File manifestFile : getManifestFiles()) {
+                if(nameFilter.test(getName(manifestFile))) {
+                    manifestFile.delete();
+                }
+            }
+
+            collectGarbage();
+        }
+    }
+
+    private void collectGarbage() {
+        Set<String> referenced = new HashSet<>();
+        for(File manifestFile : getManifestFiles()) {
+            try {
+                readManifest(manifestFile).chunks().forEach(chunkRef -> referenced.add(chunkRef.hash()));
+            } catch(IOException e) {
+                //Without a complete set of references no chunk can be safely deleted
+                log.warn("Could not read backup manifest " + manifestFile.getName() + ", skipping chunk cleanup", e);
+                return;
+            }
+        }
+
+        File[] prefixDirs = getChunksDir().listFiles(File::isDirectory);
+        for(File prefixDir : prefixDirs == null ? new File[0] : prefixDirs) {
+            File[] chunkFiles = prefixDir.listFiles();
+            for(File chunkFile : chunkFiles == null ? new File[0] : chunkFiles) {
+                if(!referenced.contains(chunkFile.getName())) {
+                    IOUtils.secureDelete(chunkFile);
+                }
+            }
+        }
+    }
+
+    private List<Manifest> getManifests(Predicate<String> nameFilter) {
+        List<Manifest> manifests = new ArrayList<>();
+        for(File manifestFile : getManifestFiles()) {
+            if(nameFilter.test(getName(manifestFile))) {
+                try {
+                    manifests.add(readManifest(manifestFile));
+                } catch(IOException e) {
+                    log.warn("Could not read backup manifest " + manifestFile.getName(), e);
+                }
+            }
+        }
+
+        manifests.sort(Comparator.comparing(Manifest::created).reversed());
+        return manifests;
+    }
+
+    private List<File> getManifestFiles() {
+        File[] manifestFiles = getManifestsDir().listFiles((dir, name) -> name.endsWith(MANIFEST_EXTENSION));
+        return manifestFiles == null ? Collections.emptyList() : Arrays.asList(manifestFiles);
+    }
+
+    private String getName(File manifestFile) {
+        return manifestFile.getName().substring(0, manifestFile.getName().length() - MANIFEST_EXTENSION.length());
+    }
+
+    private void writeManifest(Manifest manifest) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        builder.append(MANIFEST_HEADER).append('\n');
+        builder.append("created ").append(manifest.created().toEpochMilli()).append('\n');
+        builder.append("size ").append(manifest.size()).append('\n');
+        builder.append("sha256 ").append(manifest.sha256()).append('\n');
+        for(ChunkRef chunkRef : manifest.chunks()) {
+            builder.append("chunk ").append(chunkRef.hash()).append(' ').append(chunkRef.length()).append('\n');
+        }
+
+        byte[] data = builder.toString().getBytes(StandardCharsets.UTF_8);
+        writeAtomically(getManifestFile(manifest.name()), data, 0, data.length);
+    }
+
+    private Manifest readManifest(File manifestFile) throws IOException {
+        List<String> lines = Files.readAllLines(manifestFile.toPath(), StandardCharsets.UTF_8);
+        if(lines.size() < 4 || !lines.get(0).equals(MANIFEST_HEADER)) {
+            throw new IOException("Invalid backup manifest " + manifestFile.getName());
+        }
+
+        try {
+            Instant created = Instant.ofEpochMilli(Long.parseLong(getValue(lines.get(1), "created")));
+            long size = Long.parseLong(getValue(lines.get(2), "size"));
+            String sha256 = getValue(lines.get(3), "sha256");
+            List<ChunkRef> chunks = new ArrayList<>(lines.size() - 4);
+            for(String line : lines.subList(4, lines.size())) {
+                String[] parts = getValue(line, "chunk").split(" ");
+                chunks.add(new ChunkRef(parts[0], Integer.parseInt(parts[1])));
+            }
+
+            return new Manifest(getName(manifestFile), created, size, sha256, chunks);
+        } catch(RuntimeException e) {
+            throw new IOException("Invalid backup manifest " + manifestFile.getName(), e);
+        }
+    }
+
+    private String getValue(String line, String key) {
+        if(!line.startsWith(key + " ")) {
+            throw new IllegalArgumentException("Expected " + key + " but found " + line);
+        }
+
+        return line.substring(key.length() + 1);
+    }
+
+    private byte[] readChunk(ChunkRef chunkRef) throws IOException {
+        byte[] chunk = Files.readAllBytes(getChunkFile(chunkRef.hash()).toPath());
+        if(chunk.length != chunkRef.length() || !Utils.bytesToHex(getDigest().digest(chunk)).equals(chunkRef.hash())) {
+            throw new IOException("Backup chunk " + chunkRef.hash() + " is damaged");
+        }
+
+        return chunk;
+    }
+
+    private boolean isValid(ChunkRef chunkRef) {
+        try {
+            readChunk(chunkRef);
+            return true;
+        } catch(IOException e) {
+            return false;
+        }
+    }
+
+    private void writeAtomically(File file, byte[] data, int offset, int length) throws IOException {
+        File parent = file.getParentFile();
+        if(!parent.exists() && !Storage.createOwnerOnlyDirectory(parent)) {
+            throw new IOException("Could not create folder " + parent);
+        }
+
+        File tempFile = new File(parent, file.getName() + TEMP_EXTENSION);
+        Files.deleteIfExists(tempFile.toPath());
+        Storage.createOwnerOnlyFile(tempFile);
+        try(FileOutputStream outputStream = new FileOutputStream(tempFile)) {
+            outputStream.write(data, offset, length);
+        }
+
+        try {
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch(AtomicMoveNotSupportedException e) {
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private File getManifestFile(String name) {
+        return new File(getManifestsDir(), name + MANIFEST_EXTENSION);
+    }
+
+    private File getChunkFile(String hash) {
+        return new File(new File(getChunksDir(), hash.substring(0, 2)), hash);
+    }
+
+    private File getManifestsDir() {
+        return new File(storeDir, MANIFESTS_DIR);
+    }
+
+    private File getChunksDir() {
+        return new File(storeDir, CHUNKS_DIR);
+    }
+
+    private static MessageDigest getDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch(NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long[] createGear() {
+        //The table must never change, as chunk boundaries in existing backups depend on it
+        Random random = new Random(0x5350415252L);
+        long[] gear = new long[256];
+        for(int i = 0; i < gear.length; i++) {
+            gear[i] = random.nextLong();
+        }
+
+        return gear;
+    }
+
+    /**
+     * Splits written data into chunks using a gear rolling hash, storing each completed chunk if not already present
+     */
+    private class ChunkingOutputStream extends OutputStream {
+        private final byte[] buffer = new byte[MAX_CHUNK_SIZE];
+        private final MessageDigest fileDigest = getDigest();
+        private final List<ChunkRef> chunks = new ArrayList<>();
+        private int position;
+        private long hash;
+        private long size;
+        private int newChunks;
+        private long newBytes;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte)b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            for(int i = off; i < off + len; i++) {
+                buffer[position++] = b[i];
+                hash = (hash << 1) + GEAR[b[i] & 0xff];
+                if(position == MAX_CHUNK_SIZE || (position >= MIN_CHUNK_SIZE && (hash & BOUNDARY_MASK) == 0)) {
+                    writeChunk();
+                }
+            }
+        }
+
+        private void writeChunk() throws IOException {
+            fileDigest.update(buffer, 0, position);
+            MessageDigest chunkDigest = getDigest();
+            chunkDigest.update(buffer, 0, position);
+            ChunkRef chunkRef = new ChunkRef(Utils.bytesToHex(chunkDigest.digest()), position);
+
+            //An existing chunk of the wrong length cannot match its hash, so it is replaced rather than shared
+            File chunkFile = getChunkFile(chunkRef.hash());
+            if(chunkFile.length() != chunkRef.length()) {
+                writeAtomically(chunkFile, buffer, 0, position);
+                newChunks++;
+                newBytes += position;
+            }
+
+            chunks.add(chunkRef);
+            size += position;
+            position = 0;
+            hash = 0;
+        }
+
+        private void finish() throws IOException {
+            if(position > 0) {
+                writeChunk();
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface BackupWriter {
+        void write(OutputStream outputStream) throws IOException;
+    }
+
+    public record ChunkRef(String hash, int length) {}
+
+    public record Manifest(String name, Instant created, long size, String sha256, List<ChunkRef> chunks) {}
+
+    /**
+     * Retains the most recent backups, and the most recent backup on each day for a number of days
+     */
+    public record RetentionPolicy(int keepLast, int keepDailyDays) {
+        public static final RetentionPolicy DEFAULT = new RetentionPolicy(20, 90);
+
+        Set<String> getRetained(List<Manifest> newestFirst) {
+            Set<String> retained = new HashSet<>();
+            newestFirst.stream().limit(keepLast).forEach(manifest -> retained.add(manifest.name()));
+
+            LocalDate earliest = LocalDate.now().minusDays(keepDailyDays);
+            Set<LocalDate> days = new HashSet<>();
+            for(Manifest manifest : newestFirst) {
+                LocalDate day = LocalDate.ofInstant(manifest.created(), ZoneId.systemDefault());
+                if(day.isAfter(earliest) && days.add(day)) {
+                    retained.add(manifest.name());
+                }
+            }
+
+            return retained;
+        }
+    }
+}
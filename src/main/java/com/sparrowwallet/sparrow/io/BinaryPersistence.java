@@ -0,0 +1,895 @@
+package com.sparrowwallet.sparrow.io;
+
+import com.google.gson.ExclusionStrategy;
+import com.google.gson.FieldAttributes;
+import com.google.gson.Gson;
+import com.sparrowwallet.drongo.crypto.Argon2KeyDeriver;
+import com.sparrowwallet.drongo.crypto.AsymmetricKeyDeriver;
+import com.sparrowwallet.drongo.crypto.ECKey;
+import com.sparrowwallet.drongo.protocol.Sha256Hash;
+import com.sparrowwallet.drongo.wallet.*;
+import com.sparrowwallet.sparrow.io.db.LazyBlockTransaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.zip.CRC32;
+
+import static com.sparrowwallet.drongo.crypto.Argon2KeyDeriver.SPRW1_PARAMETERS;
+
+/**
+ * Stores watch-only wallets in a compact binary file that is read through a file channel and appended to on update.
+ *
+ * The file starts with a fixed length header holding the magic, format version, flags and key derivation salt, followed by a sequence of segments.
+ * Each segment has a type, a length and a CRC32 of its payload, and the payload is encrypted in authenticated pages when the wallet has a password.
+ * The wallet settings are held as JSON in a meta segment, and the transaction history as records keyed by id, being the txid for transactions
+ * and the derivation path for nodes, with each node record holding the transaction outputs of that node. A tables segment holds all the records
+ * when the file is written, and each update appends a delta segment with only the records that have been added, changed or removed since.
+ * Raw transactions are held in raw segments, which are only appended with transactions not already in the file. A commit segment lists the
+ * current segment offsets, and the last valid commit in the file defines the wallet state.
+ *
+ * Updates append only the segments that have changed followed by a new commit. The file is rewritten once superseded records, removed raw
+ * transactions and older segments dominate it, or once enough delta segments have accumulated that applying them slows reading the wallet.
+ */
+public class BinaryPersistence implements Persistence {
+    private static final Logger log = LoggerFactory.getLogger(BinaryPersistence.class);
+
+    public static final String HEADER_MAGIC = "SPRB";
+    public static final int VERSION = 1;
+    public static final int HEADER_LENGTH = 64;
+
+    private static final int FLAG_ENCRYPTED = 1;
+
+    private static final byte SEGMENT_META = 1;
+    private static final byte SEGMENT_RAW = 2;
+    private static final byte SEGMENT_TABLES = 3;
+    private static final byte SEGMENT_COMMIT = 4;
+    private static final byte SEGMENT_DELTA = 5;
+    //Type, payload length and trailing CRC32
+    private static final int SEGMENT_OVERHEAD = 1 + Integer.BYTES + Integer.BYTES;
+
+    private static final long NULL_LONG = Long.MIN_VALUE;
+    private static final byte[] NULL_HASH = new byte[32];
+
+    //Buffer used to verify segment checksums without holding superseded segments in memory
+    private static final int CHECKSUM_BUFFER_LENGTH = 64 * 1024;
+
+    //Rewrite the file when it is larger than this multiple of the live data, or has this many delta segments
+    private static final int COMPACT_RATIO = 2;
+    private static final int MAX_DELTA_SEGMENTS = 100;
+
+    private static final Gson gson = JsonPersistence.getGson(new ExclusionStrategy() {
+        @Override
+        public boolean shouldSkipField(FieldAttributes field) {
+            return field.getDeclaringClass() == Wallet.class && (field.getName().equals("purposeNodes") || field.getName().equals("transactions"));
+        }
+
+        @Override
+        public boolean shouldSkipClass(Class<?> clazz) {
+            return false;
+        }
+    });
+
+    private AsymmetricKeyDeriver keyDeriver;
+
+    //State of the file as last read or written, which allows updates to be appended
+    private FileState fileState;
+
+    @Override
+    public WalletAndKey loadWallet(Storage storage) throws IOException, StorageException {
+        Wallet wallet = readWallet(storage.getWalletFile(), null);
+        return new WalletAndKey(wallet, null, null, Collections.emptyMap());
+    }
+
+    @Override
+    public WalletAndKey loadWallet(Storage storage, CharSequence password) throws IOException, StorageException {
+        return loadWallet(storage, password, null);
+    }
+
+    @Override
+    public WalletAndKey loadWallet(Storage storage, CharSequence password, ECKey alreadyDerivedKey) throws IOException, StorageException {
+        ECKey encryptionKey = alreadyDerivedKey;
+        if(encryptionKey == null) {
+            readHeader(storage.getWalletFile());
+            encryptionKey = getEncryptionKey(password);
+        }
+
+        Wallet wallet = readWallet(storage.getWalletFile(), encryptionKey);
+        return new WalletAndKey(wallet, encryptionKey, keyDeriver, Collections.emptyMap());
+    }
+
+    @Override
+    public File storeWallet(Storage storage, Wallet wallet) throws IOException, StorageException {
+        return writeWallet(storage, wallet, null);
+    }
+
+    @Override
+    public File storeWallet(Storage storage, Wallet wallet, ECKey encryptionPubKey) throws IOException, StorageException {
+        return writeWallet(storage, wallet, encryptionPubKey);
+    }
+
+    @Override
+    public void updateWallet(Storage storage, Wallet wallet) throws IOException, StorageException {
+        appendWallet(storage, wallet, null);
+    }
+
+    @Override
+    public void updateWallet(Storage storage, Wallet wallet, ECKey encryptionPubKey) throws IOException, StorageException {
+        appendWallet(storage, wallet, encryptionPubKey);
+    }
+
+    private void checkSupported(Wallet wallet) throws StorageException {
+        if(!wallet.isMasterWallet() || !wallet.getChildWallets().isEmpty()) {
+            throw new StorageException("Binary wallet files do not support child wallets");
+        }
+
+        if(wallet.getKeystores().stream().anyMatch(Keystore::hasPrivateKey)) {
+            throw new StorageException("Binary wallet files are only supported for watch-only wallets");
+        }
+    }
+
+    private synchronized File writeWallet(Storage storage, Wallet wallet, ECKey encryptionPubKey) throws IOException, StorageException {
+        checkSupported(wallet);
+
+        File walletFile = storage.getWalletFile();
+        if(encryptionPubKey != null && keyDeriver == null) {
+            keyDeriver = new Argon2KeyDeriver(getRandomSalt());
+        }
+
+        File tempFile = new File(walletFile.getParentFile(), walletFile.getName() + ".tmp");
+        Files.deleteIfExists(tempFile.toPath());
+        Storage.createOwnerOnlyFile(tempFile);
+
+        FileState state = new FileState(encryptionPubKey);
+        try(FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.WRITE)) {
+            writeFully(channel, getHeader(encryptionPubKey != null));
+            writeSegments(channel, state, wallet, true);
+            channel.force(false);
+        }
+
+        try {
+            Files.move(tempFile.toPath(), walletFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch(AtomicMoveNotSupportedException e) {
+            Files.move(tempFile.toPath(), walletFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        fileState = state;
+        return walletFile;
+    }
+
+    private synchronized void appendWallet(Storage storage, Wallet wallet, ECKey encryptionPubKey) throws IOException, StorageException {
+        File walletFile = storage.getWalletFile();
+        if(fileState == null || !walletFile.exists() || !Objects.equals(fileState.encryptionPubKey, encryptionPubKey)) {
+            writeWallet(storage, wallet, encryptionPubKey);
+            return;
+        }
+
+        checkSupported(wallet);
+
+        try(FileChannel channel = FileChannel.open(walletFile.toPath(), StandardOpenOption.WRITE)) {
+            //Discard anything after the last commit, such as a partially written update
+            channel.truncate(fileState.length);
+            channel.position(fileState.length);
+            if(writeSegments(channel, fileState, wallet, false)) {
+                channel.force(false);
+            }
+        } catch(IOException e) {
+            //The state may reference segments that were not committed, so the next update rewrites the file
+            fileState = null;
+            throw e;
+        }
+
+        if(fileState.length > (long)COMPACT_RATIO * fileState.liveLength || fileState.deltaOffsets.size() >= MAX_DELTA_SEGMENTS) {
+            log.debug("Rewriting " + walletFile.getName() + " with " + fileState.liveLength + " of " + fileState.length + " bytes in use and " + fileState.deltaOffsets.size() + " delta segments");
+            writeWallet(storage, wallet, encryptionPubKey);
+        }
+    }
+
+    /**
+     * Write the segments that differ from those already in the file, followed by a commit.
+     * A full write holds all records in a tables segment, while an update only writes the records that have changed in a delta segment.
+     *
+     * @return whether any segments were written
+     */
+    private boolean writeSegments(FileChannel channel, FileState state, Wallet wallet, boolean full) throws IOException {
+        boolean written = false;
+
+        byte[] meta = gson.toJson(wallet).getBytes(StandardCharsets.UTF_8);
+        Sha256Hash metaHash = Sha256Hash.of(meta);
+        if(full || !metaHash.equals(state.metaHash)) {
+            state.metaOffset = channel.position();
+            state.metaLength = writeSegment(channel, SEGMENT_META, meta, state.encryptionPubKey);
+            state.metaHash = metaHash;
+            written = true;
+        }
+
+        Map<Sha256Hash, BlockTransaction> transactions = wallet.getTransactions();
+        List<BlockTransaction> newTransactions = transactions.values().stream().filter(blkTx -> !state.rawTxLengths.containsKey(blkTx.getHash())).toList();
+        if(!newTransactions.isEmpty()) {
+            state.rawOffsets.add(channel.position());
+            writeSegment(channel, SEGMENT_RAW, getRawTransactions(newTransactions, state.rawTxLengths), state.encryptionPubKey);
+            written = true;
+        }
+
+        Map<Sha256Hash, byte[]> txRecords = getTransactionRecords(wallet);
+        Map<String, byte[]> nodeRecords = getNodeRecords(wallet);
+        Map<Sha256Hash, Sha256Hash> txRecordHashes = getRecordHashes(txRecords);
+        Map<String, Sha256Hash> nodeRecordHashes = getRecordHashes(nodeRecords);
+        if(full) {
+            state.tablesOffset = channel.position();
+            writeSegment(channel, SEGMENT_TABLES, getRecords(txRecords, nodeRecords, Collections.emptySet(), Collections.emptySet()), state.encryptionPubKey);
+            state.deltaOffsets.clear();
+            written = true;
+        } else {
+            Map<Sha256Hash, byte[]> changedTxRecords = getChangedRecords(txRecords, txRecordHashes, state.txRecordHashes);
+            Map<String, byte[]> changedNodeRecords = getChangedRecords(nodeRecords, nodeRecordHashes, state.nodeRecordHashes);
+            Set<Sha256Hash> removedTxids = new HashSet<>(state.txRecordHashes.keySet());
+            removedTxids.removeAll(txRecords.keySet());
+            Set<String> removedPaths = new HashSet<>(state.nodeRecordHashes.keySet());
+            removedPaths.removeAll(nodeRecords.keySet());
+
+            if(!changedTxRecords.isEmpty() || !changedNodeRecords.isEmpty() || !removedTxids.isEmpty() || !removedPaths.isEmpty()) {
+                state.deltaOffsets.add(channel.position());
+                writeSegment(channel, SEGMENT_DELTA, getRecords(changedTxRecords, changedNodeRecords, removedTxids, removedPaths), state.encryptionPubKey);
+                written = true;
+            }
+        }
+        state.txRecordHashes = txRecordHashes;
+        state.nodeRecordHashes = nodeRecordHashes;
+
+        if(written) {
+            ByteBuffer commit = ByteBuffer.allocate(Long.BYTES * 2 + Integer.BYTES * 2 + Long.BYTES * (state.deltaOffsets.size() + state.rawOffsets.size()));
+            commit.putLong(state.metaOffset);
+            commit.putLong(state.tablesOffset);
+            commit.putInt(state.deltaOffsets.size());
+            state.deltaOffsets.forEach(commit::putLong);
+            commit.putInt(state.rawOffsets.size());
+            state.rawOffsets.forEach(commit::putLong);
+            //The commit is not encrypted, as it only holds offsets
+            long commitLength = writeSegment(channel, SEGMENT_COMMIT, commit.array(), null);
+            state.length = channel.position();
+            state.liveLength = getLiveLength(state, txRecords, nodeRecords) + commitLength;
+        }
+
+        return written;
+    }
+
+    private long writeSegment(FileChannel channel, byte type, byte[] data, ECKey encryptionPubKey) throws IOException {
+        byte[] payload = data;
+        if(encryptionPubKey != null) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(data.length + 128);
+            try(OutputStream outputStream = new ChunkedECIESOutputStream(baos, encryptionPubKey)) {
+                outputStream.write(data);
+            }
+            payload = baos.toByteArray();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        ByteBuffer segment = ByteBuffer.allocate(SEGMENT_OVERHEAD + payload.length);
+        segment.put(type);
+        segment.putInt(payload.length);
+        segment.put(payload);
+        segment.putInt((int)crc.getValue());
+        segment.flip();
+        writeFully(channel, segment);
+
+        return segment.capacity();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while(buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private byte[] getRawTransactions(List<BlockTransaction> transactions, Map<Sha256Hash, Integer> rawTxLengths) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(baos);
+        out.writeInt(transactions.size());
+        for(BlockTransaction blkTx : transactions) {
+            byte[] txBytes;
+            if(blkTx instanceof LazyBlockTransaction lazyBlockTransaction) {
+                txBytes = lazyBlockTransaction.getTransactionBytes();
+            } else {
+                ByteArrayOutputStream txStream = new ByteArrayOutputStream();
+                blkTx.getTransaction().bitcoinSerializeToStream(txStream);
+                txBytes = txStream.toByteArray();
+            }
+
+            out.write(blkTx.getHash().getBytes());
+            out.writeInt(txBytes.length);
+            out.write(txBytes);
+            rawTxLengths.put(blkTx.getHash(), 32 + Integer.BYTES + txBytes.length);
+        }
+
+        return baos.toByteArray();
+    }
+
+    private Map<Sha256Hash, byte[]> getTransactionRecords(Wallet wallet) throws IOException {
+        Map<Sha256Hash, byte[]> records = new LinkedHashMap<>();
+        for(BlockTransaction blkTx : wallet.getTransactions().values()) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(baos);
+            out.writeInt(blkTx.getHeight());
+            out.writeLong(blkTx.getDate() == null ? NULL_LONG : blkTx.getDate().getTime());
+            out.writeLong(blkTx.getFee() == null ? NULL_LONG : blkTx.getFee());
+            out.write(blkTx.getBlockHash() == null ? NULL_HASH : blkTx.getBlockHash().getBytes());
+            writeString(out, blkTx.getLabel());
+            records.put(blkTx.getHash(), baos.toByteArray());
+        }
+
+        return records;
+    }
+
+    private Map<String, byte[]> getNodeRecords(Wallet wallet) throws IOException {
+        Map<String, byte[]> records = new LinkedHashMap<>();
+        for(WalletNode purposeNode : wallet.getPurposeNodes()) {
+            addNodeRecord(purposeNode, null, records);
+        }
+
+        return records;
+    }
+
+    private void addNodeRecord(WalletNode node, String parentPath, Map<String, byte[]> records) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(baos);
+        writeString(out, parentPath);
+        writeString(out, node.getLabel());
+        out.writeInt(node.getTransactionOutputs().size());
+        for(BlockTransactionHashIndex txo : node.getTransactionOutputs()) {
+            //Spending inputs are written directly after the outputs they spend
+            writeTxo(out, txo);
+            out.writeBoolean(txo.isSpent());
+            if(txo.isSpent()) {
+                writeTxo(out, txo.getSpentBy());
+            }
+        }
+        records.put(node.getDerivationPath(), baos.toByteArray());
+
+        for(WalletNode childNode : node.getChildren()) {
+            addNodeRecord(childNode, node.getDerivationPath(), records);
+        }
+    }
+
+    private void writeTxo(DataOutputStream out, BlockTransactionHashIndex txo) throws IOException {
+        out.write(txo.getHash().getBytes());
+        out.writeInt((int)txo.getIndex());
+        out.writeInt(txo.getHeight());
+        out.writeLong(txo.getDate() == null ? NULL_LONG : txo.getDate().getTime());
+        out.writeLong(txo.getFee() == null ? NULL_LONG : txo.getFee());
+        out.writeLong(txo.getValue());
+        out.writeByte(txo.getStatus() == null ? -1 : txo.getStatus().ordinal());
+        writeString(out, txo.getLabel());
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        if(string == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static <K> Map<K, Sha256Hash> getRecordHashes(Map<K, byte[]> records) {
+        Map<K, Sha256Hash> hashes = new HashMap<>(records.size() * 2);
+        records.forEach((key, record) -> hashes.put(key, Sha256Hash.of(record)));
+        return hashes;
+    }
+
+    private static <K> Map<K, byte[]> getChangedRecords(Map<K, byte[]> records, Map<K, Sha256Hash> recordHashes, Map<K, Sha256Hash> previousHashes) {
+        Map<K, byte[]> changedRecords = new LinkedHashMap<>();
+        for(Map.Entry<K, byte[]> entry : records.entrySet()) {
+            if(!recordHashes.get(entry.getKey()).equals(previousHashes.get(entry.getKey()))) {
+                changedRecords.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        return changedRecords;
+    }
+
+    /**
+     * Serializes records keyed by id, followed by the ids of removed records, as the payload of a tables or delta segment
+     */
+    private static byte[] getRecords(Map<Sha256Hash, byte[]> txRecords, Map<String, byte[]> nodeRecords, Set<Sha256Hash> removedTxids, Set<String> removedPaths) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(baos);
+        out.writeInt(txRecords.size());
+        for(Map.Entry<Sha256Hash, byte[]> entry : txRecords.entrySet()) {
+            out.write(entry.getKey().getBytes());
+            out.writeInt(entry.getValue().length);
+            out.write(entry.getValue());
+        }
+        out.writeInt(nodeRecords.size());
+        for(Map.Entry<String, byte[]> entry : nodeRecords.entrySet()) {
+            writeString(out, entry.getKey());
+            out.writeInt(entry.getValue().length);
+            out.write(entry.getValue());
+        }
+        out.writeInt(removedTxids.size());
+        for(Sha256Hash txid : removedTxids) {
+            out.write(txid.getBytes());
+        }
+        out.writeInt(removedPaths.size());
+        for(String path : removedPaths) {
+            writeString(out, path);
+        }
+        out.flush();
+
+        return baos.toByteArray();
+    }
+
+    /**
+     * Estimates the length of the file if it were rewritten, being the current segments without superseded records or removed raw transactions
+     */
+    private static long getLiveLength(FileState state, Map<Sha256Hash, byte[]> txRecords, Map<String, byte[]> nodeRecords) {
+        long length = HEADER_LENGTH + state.metaLength + (long)(SEGMENT_OVERHEAD + Integer.BYTES) * state.rawOffsets.size();
+        for(Sha256Hash txid : txRecords.keySet()) {
+            length += state.rawTxLengths.getOrDefault(txid, 0);
+        }
+
+        length += SEGMENT_OVERHEAD + Integer.BYTES * 4;
+        for(byte[] record : txRecords.values()) {
+            length += 32 + Integer.BYTES + record.length;
+        }
+        for(Map.Entry<String, byte[]> entry : nodeRecords.entrySet()) {
+            length += Integer.BYTES + entry.getKey().length() + Integer.BYTES + entry.getValue().length;
+        }
+
+        return length;
+    }
+
+    private synchronized Wallet readWallet(File walletFile, ECKey encryptionKey) throws IOException, StorageException {
+        try(FileChannel channel = FileChannel.open(walletFile.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            boolean encrypted = readHeader(readFully(channel, 0, (int)Math.min(size, HEADER_LENGTH)));
+            if(encrypted && encryptionKey == null) {
+                throw new StorageException("Wallet file is encrypted");
+            }
+            ECKey decryptionKey = encrypted ? encryptionKey : null;
+
+            //Find the last commit, stopping at the first segment that is incomplete or fails its checksum
+            ByteBuffer checksumBuffer = ByteBuffer.allocate(CHECKSUM_BUFFER_LENGTH);
+            long commitPosition = -1;
+            long validLength = HEADER_LENGTH;
+            long position = HEADER_LENGTH;
+            while(position + SEGMENT_OVERHEAD <= size) {
+                ByteBuffer segmentHeader = readFully(channel, position, 1 + Integer.BYTES);
+                byte type = segmentHeader.get();
+                int length = segmentHeader.getInt();
+                if(length < 0 || position + SEGMENT_OVERHEAD + length > size || !checksumMatches(channel, position, length, checksumBuffer)) {
+                    break;
+                }
+
+                if(type == SEGMENT_COMMIT) {
+                    commitPosition = position;
+                    validLength = position + SEGMENT_OVERHEAD + length;
+                }
+                position += SEGMENT_OVERHEAD + length;
+            }
+
+            if(commitPosition < 0) {
+                throw new StorageException("Not a Sparrow wallet - no committed data");
+            }
+            if(validLength < size) {
+                log.warn("Ignoring " + (size - validLength) + " bytes after the last commit in " + walletFile.getName());
+            }
+
+            ByteBuffer commit = readSegment(channel, commitPosition, validLength, SEGMENT_COMMIT);
+            FileState state = new FileState(encrypted ? ECKey.fromPublicOnly(encryptionKey) : null);
+            state.metaOffset = commit.getLong();
+            state.tablesOffset = commit.getLong();
+            int deltaCount = commit.getInt();
+            for(int i = 0; i < deltaCount; i++) {
+                state.deltaOffsets.add(commit.getLong());
+            }
+            int rawCount = commit.getInt();
+            for(int i = 0; i < rawCount; i++) {
+                state.rawOffsets.add(commit.getLong());
+            }
+
+            ByteBuffer metaSegment = readSegment(channel, state.metaOffset, validLength, SEGMENT_META);
+            byte[] meta = toBytes(decrypt(metaSegment, decryptionKey));
+            Wallet wallet = gson.fromJson(new String(meta, StandardCharsets.UTF_8), Wallet.class);
+            state.metaHash = Sha256Hash.of(meta);
+            state.metaLength = SEGMENT_OVERHEAD + metaSegment.capacity();
+
+            Map<Sha256Hash, byte[]> rawTransactions = new HashMap<>();
+            for(long rawOffset : state.rawOffsets) {
+                ByteBuffer raw = decrypt(readSegment(channel, rawOffset, validLength, SEGMENT_RAW), decryptionKey);
+                int count = raw.getInt();
+                for(int i = 0; i < count; i++) {
+                    Sha256Hash txid = Sha256Hash.wrap(getBytes(raw, 32));
+                    byte[] txBytes = getBytes(raw, raw.getInt());
+                    rawTransactions.put(txid, txBytes);
+                    state.rawTxLengths.put(txid, 32 + Integer.BYTES + txBytes.length);
+                }
+            }
+
+            //Apply the delta segments in order over the records in the tables segment
+            Map<Sha256Hash, byte[]> txRecords = new LinkedHashMap<>();
+            Map<String, byte[]> nodeRecords = new LinkedHashMap<>();
+            applyRecords(decrypt(readSegment(channel, state.tablesOffset, validLength, SEGMENT_TABLES), decryptionKey), txRecords, nodeRecords);
+            for(long deltaOffset : state.deltaOffsets) {
+                applyRecords(decrypt(readSegment(channel, deltaOffset, validLength, SEGMENT_DELTA), decryptionKey), txRecords, nodeRecords);
+            }
+            readRecords(txRecords, nodeRecords, wallet, rawTransactions);
+            state.txRecordHashes = getRecordHashes(txRecords);
+            state.nodeRecordHashes = getRecordHashes(nodeRecords);
+
+            state.length = validLength;
+            state.liveLength = getLiveLength(state, txRecords, nodeRecords) + SEGMENT_OVERHEAD + commit.capacity();
+            fileState = state;
+
+            return wallet;
+        } catch(BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new StorageException("Not a Sparrow wallet - invalid binary data", e);
+        }
+    }
+
+    private static void applyRecords(ByteBuffer records, Map<Sha256Hash, byte[]> txRecords, Map<String, byte[]> nodeRecords) {
+        int txCount = records.getInt();
+        for(int i = 0; i < txCount; i++) {
+            Sha256Hash txid = Sha256Hash.wrap(getBytes(records, 32));
+            txRecords.put(txid, getBytes(records, records.getInt()));
+        }
+        int nodeCount = records.getInt();
+        for(int i = 0; i < nodeCount; i++) {
+            String path = readString(records);
+            nodeRecords.put(path, getBytes(records, records.getInt()));
+        }
+        int removedTxCount = records.getInt();
+        for(int i = 0; i < removedTxCount; i++) {
+            txRecords.remove(Sha256Hash.wrap(getBytes(records, 32)));
+        }
+        int removedNodeCount = records.getInt();
+        for(int i = 0; i < removedNodeCount; i++) {
+            nodeRecords.remove(readString(records));
+        }
+    }
+
+    private void readRecords(Map<Sha256Hash, byte[]> txRecords, Map<String, byte[]> nodeRecords, Wallet wallet, Map<Sha256Hash, byte[]> rawTransactions) throws StorageException {
+        Map<Sha256Hash, BlockTransaction> transactions = new HashMap<>();
+        for(Map.Entry<Sha256Hash, byte[]> entry : txRecords.entrySet()) {
+            Sha256Hash hash = entry.getKey();
+            ByteBuffer record = ByteBuffer.wrap(entry.getValue());
+            int height = record.getInt();
+            Date date = getDate(record.getLong());
+            Long fee = getNullableLong(record.getLong());
+            byte[] blockHash = getBytes(record, 32);
+            String label = readString(record);
+
+            byte[] txBytes = rawTransactions.get(hash);
+            if(txBytes == null) {
+                throw new StorageException("Missing raw transaction " + hash);
+            }
+            transactions.put(hash, new LazyBlockTransaction(hash, height, date, fee, txBytes, Arrays.equals(blockHash, NULL_HASH) ? null : Sha256Hash.wrap(blockHash), label));
+        }
+
+        Map<String, WalletNode> nodes = new HashMap<>();
+        Map<WalletNode, String> parentPaths = new LinkedHashMap<>();
+        for(Map.Entry<String, byte[]> entry : nodeRecords.entrySet()) {
+            ByteBuffer record = ByteBuffer.wrap(entry.getValue());
+            WalletNode node = new WalletNode(entry.getKey());
+            parentPaths.put(node, readString(record));
+            node.setLabel(readString(record));
+
+            int txoCount = record.getInt();
+            for(int i = 0; i < txoCount; i++) {
+                //Link spent outputs to their spending inputs before adding them to their sorted node sets
+                BlockTransactionHashIndex txo = readTxo(record);
+                if(record.get() != 0) {
+                    txo.setSpentBy(readTxo(record));
+                }
+                node.getTransactionOutputs().add(txo);
+            }
+            nodes.put(entry.getKey(), node);
+        }
+
+        for(Map.Entry<WalletNode, String> entry : parentPaths.entrySet()) {
+            if(entry.getValue() == null) {
+                wallet.getPurposeNodes().add(entry.getKey());
+            } else {
+                WalletNode parent = nodes.get(entry.getValue());
+                if(parent == null) {
+                    throw new StorageException("Missing parent node " + entry.getValue() + " for " + entry.getKey().getDerivationPath());
+                }
+                parent.getChildren().add(entry.getKey());
+            }
+        }
+
+        wallet.getPurposeNodes().forEach(purposeNode -> purposeNode.setWallet(wallet));
+        wallet.updateTransactions(transactions);
+    }
+
+    private static BlockTransactionHashIndex readTxo(ByteBuffer record) {
+        Sha256Hash hash = Sha256Hash.wrap(getBytes(record, 32));
+        long index = Integer.toUnsignedLong(record.getInt());
+        int height = record.getInt();
+        Date date = getDate(record.getLong());
+        Long fee = getNullableLong(record.getLong());
+        long value = record.getLong();
+        byte status = record.get();
+        String label = readString(record);
+
+        BlockTransactionHashIndex txo = new BlockTransactionHashIndex(hash, height, date, fee, index, value, null, label);
+        if(status >= 0) {
+            txo.setStatus(Status.values()[status]);
+        }
+
+        return txo;
+    }
+
+    private static boolean checksumMatches(FileChannel channel, long position, int length, ByteBuffer checksumBuffer) throws IOException {
+        CRC32 crc = new CRC32();
+        long payloadPosition = position + 1 + Integer.BYTES;
+        long read = 0;
+        while(read < length) {
+            checksumBuffer.clear();
+            checksumBuffer.limit((int)Math.min(checksumBuffer.capacity(), length - read));
+            readFully(channel, payloadPosition + read, checksumBuffer);
+            checksumBuffer.flip();
+            read += checksumBuffer.remaining();
+            crc.update(checksumBuffer);
+        }
+
+        return (int)crc.getValue() == readFully(channel, payloadPosition + length, Integer.BYTES).getInt();
+    }
+
+    /**
+     * Reads the payload of a segment referenced by a commit, which must lie within the checksummed part of the file.
+     */
+    private static ByteBuffer readSegment(FileChannel channel, long offset, long validLength, byte type) throws IOException, StorageException {
+        if(offset < HEADER_LENGTH || offset + SEGMENT_OVERHEAD > validLength) {
+            throw new StorageException("Not a Sparrow wallet - invalid segment offset " + offset);
+        }
+
+        ByteBuffer segmentHeader = readFully(channel, offset, 1 + Integer.BYTES);
+        int length = segmentHeader.getInt(1);
+        if(segmentHeader.get(0) != type || length < 0 || offset + SEGMENT_OVERHEAD + length > validLength) {
+            throw new StorageException("Not a Sparrow wallet - invalid segment at " + offset);
+        }
+
+        return readFully(channel, offset + 1 + Integer.BYTES, length);
+    }
+
+    private static ByteBuffer decrypt(ByteBuffer payload, ECKey decryptionKey) throws IOException {
+        if(decryptionKey == null) {
+            return payload.duplicate();
+        }
+
+        try(InputStream inputStream = new ECIESInputStream(new ByteBufferInputStream(payload.duplicate()), decryptionKey)) {
+            return ByteBuffer.wrap(inputStream.readAllBytes());
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        readFully(channel, position, buffer);
+        return buffer.flip();
+    }
+
+    private static void readFully(FileChannel channel, long position, ByteBuffer buffer) throws IOException {
+        long read = 0;
+        while(buffer.hasRemaining()) {
+            int count = channel.read(buffer, position + read);
+            if(count < 0) {
+                throw new EOFException("Unexpected end of wallet file at " + (position + read));
+            }
+            read += count;
+        }
+    }
+
+    private static byte[] getBytes(ByteBuffer buffer, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static byte[] toBytes(ByteBuffer buffer) {
+        return getBytes(buffer, buffer.remaining());
+    }
+
+    private static Date getDate(long time) {
+        return time == NULL_LONG ? null : new Date(time);
+    }
+
+    private static Long getNullableLong(long value) {
+        return value == NULL_LONG ? null : value;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        return length < 0 ? null : new String(getBytes(buffer, length), StandardCharsets.UTF_8);
+    }
+
+    private ByteBuffer getHeader(boolean encrypted) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.put(HEADER_MAGIC.getBytes(StandardCharsets.UTF_8));
+        header.put((byte)VERSION);
+        header.put((byte)(encrypted ? FLAG_ENCRYPTED : 0));
+        byte[] salt = encrypted ? keyDeriver.getSalt() : new byte[0];
+        header.put((byte)salt.length);
+        header.put(salt);
+        header.rewind();
+        return header;
+    }
+
+    private boolean readHeader(File walletFile) throws IOException, StorageException {
+        try(InputStream inputStream = new FileInputStream(walletFile)) {
+            byte[] header = inputStream.readNBytes(HEADER_LENGTH);
+            if(header.length != HEADER_LENGTH) {
+                throw new StorageException("Not a Sparrow wallet - invalid header");
+            }
+
+            return readHeader(ByteBuffer.wrap(header));
+        }
+    }
+
+    private boolean readHeader(ByteBuffer buffer) throws StorageException {
+        if(buffer.limit() < HEADER_LENGTH) {
+            throw new StorageException("Not a Sparrow wallet - invalid header");
+        }
+
+        byte[] magic = new byte[HEADER_MAGIC.length()];
+        buffer.get(0, magic);
+        if(!HEADER_MAGIC.equals(new String(magic, StandardCharsets.UTF_8))) {
+            throw new StorageException("Not a Sparrow wallet - invalid magic");
+        }
+
+        int version = buffer.get(magic.length);
+        if(version != VERSION) {
+            throw new StorageException("Unsupported wallet file version " + version);
+        }
+
+        boolean encrypted = (buffer.get(magic.length + 1) & FLAG_ENCRYPTED) != 0;
+        if(encrypted && keyDeriver == null) {
+            byte[] salt = new byte[buffer.get(magic.length + 2)];
+            buffer.get(magic.length + 3, salt);
+            keyDeriver = new Argon2KeyDeriver(salt);
+        }
+
+        return encrypted;
+    }
+
+    private static byte[] getRandomSalt() {
+        byte[] salt = new byte[SPRW1_PARAMETERS.saltLength];
+        new SecureRandom().nextBytes(salt);
+        return salt;
+    }
+
+    @Override
+    public boolean isPersisted(Storage storage, Wallet wallet) {
+        return storage.getWalletFile().exists();
+    }
+
+    @Override
+    public ECKey getEncryptionKey(CharSequence password) throws IOException, StorageException {
+        if(password != null && password.equals("")) {
+            return Storage.NO_PASSWORD_KEY;
+        }
+
+        if(keyDeriver == null) {
+            keyDeriver = new Argon2KeyDeriver(getRandomSalt());
+        }
+
+        return keyDeriver.deriveECKey(password);
+    }
+
+    @Override
+    public AsymmetricKeyDeriver getKeyDeriver() {
+        return keyDeriver;
+    }
+
+    @Override
+    public void setKeyDeriver(AsymmetricKeyDeriver keyDeriver) {
+        this.keyDeriver = keyDeriver;
+    }
+
+    @Override
+    public PersistenceType getType() {
+        return PersistenceType.BINARY;
+    }
+
+    @Override
+    public boolean isEncrypted(File walletFile) throws IOException {
+        try(InputStream inputStream = new FileInputStream(walletFile)) {
+            byte[] header = inputStream.readNBytes(HEADER_LENGTH);
+            if(header.length != HEADER_LENGTH || !HEADER_MAGIC.equals(new String(header, 0, HEADER_MAGIC.length(), StandardCharsets.UTF_8))) {
+                throw new IOException("Unsupported file type");
+            }
+
+            return (header[HEADER_MAGIC.length() + 1] & FLAG_ENCRYPTED) != 0;
+        }
+    }
+
+    @Override
+    public String getWalletId(Storage storage, Wallet wallet) {
+        return storage.getWalletFile().getParentFile().getAbsolutePath() + File.separator + getWalletName(storage.getWalletFile(), null) + ":master";
+    }
+
+    @Override
+    public String getWalletName(File walletFile, Wallet wallet) {
+        String name = walletFile.getName();
+        if(name.endsWith("." + getType().getExtension())) {
+            name = name.substring(0, name.length() - getType().getExtension().length() - 1);
+        }
+
+        return name;
+    }
+
+    @Override
+    public void copyWallet(File walletFile, OutputStream outputStream) throws IOException {
+        com.google.common.io.Files.copy(walletFile, outputStream);
+    }
+
+    @Override
+    public boolean isClosed() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+        //Nothing required, as the file is only open while reading or writing
+    }
+
+    /**
+     * The segments referenced by the last commit, the hashes of the current records, and the lengths of the raw transactions already written,
+     * so that updates only append what has changed
+     */
+    private static class FileState {
+        private final ECKey encryptionPubKey;
+        private final Map<Sha256Hash, Integer> rawTxLengths = new HashMap<>();
+        private final List<Long> rawOffsets = new ArrayList<>();
+        private final List<Long> deltaOffsets = new ArrayList<>();
+        private Map<Sha256Hash, Sha256Hash> txRecordHashes = Collections.emptyMap();
+        private Map<String, Sha256Hash> nodeRecordHashes = Collections.emptyMap();
+        private Sha256Hash metaHash;
+        private long metaOffset;
+        private long tablesOffset;
+        private long metaLength;
+        private long length;
+        private long liveLength;
+
+        public FileState(ECKey encryptionPubKey) {
+            this.encryptionPubKey = encryptionPubKey;
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        public ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if(!buffer.hasRemaining()) {
+                return -1;
+            }
+
+            int read = Math.min(len, buffer.remaining());
+            buffer.get(b, off, read);
+            return read;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.sparrowwallet.sparrow.io;
+
+import com.sparrowwallet.drongo.crypto.ECKey;
+import com.sparrowwallet.drongo.protocol.Sha256Hash;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+
+/**
+ * A versioned container format for ECIES encrypted data that can be written and read as a stream.
+ * The header contains a magic, the format version, an ephemeral public key and the chunk size.
+ * A key is derived from the ECDH secret between the ephemeral key and the wallet key, and the data is written in chunks each authenticated with AES-GCM.
+ * The chunk index is used as the nonce, and the header and a final chunk flag are authenticated with each chunk, so chunks cannot be reordered, truncated or moved between files.
+ */
+final class ChunkedECIES {
+    static final byte[] MAGIC = "BIEC".getBytes(StandardCharsets.UTF_8);
+    static final int VERSION = 1;
+    static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+    static final int HEADER_LENGTH = MAGIC.length + 1 + 33 + Integer.BYTES;
+    static final int TAG_LENGTH_BYTES = 16;
+    static final int FINAL_CHUNK_FLAG = 0x80000000;
+
+    private static final byte[] KEY_CONTEXT = "Sparrow chunked ECIES".getBytes(StandardCharsets.UTF_8);
+
+    private ChunkedECIES() {
+        //private constructor
+    }
+
+    static byte[] getHeader(byte[] ephemeralPubKey, int chunkSize) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.put(MAGIC);
+        header.put((byte)VERSION);
+        header.put(ephemeralPubKey);
+        header.putInt(chunkSize);
+        return header.array();
+    }
+
+    static SecretKeySpec getKey(ECKey publicKey, ECKey privateKey) {
+        byte[] sharedSecret = publicKey.getPubKeyPoint().multiply(privateKey.getPrivKey()).normalize().getEncoded(true);
+        ByteBuffer keyMaterial = ByteBuffer.allocate(KEY_CONTEXT.length + sharedSecret.length);
+        keyMaterial.put(KEY_CONTEXT);
+        keyMaterial.put(sharedSecret);
+        return new SecretKeySpec(Sha256Hash.hash(keyMaterial.array()), "AES");
+    }
+
+    static Cipher getCipher(int mode, SecretKeySpec key, byte[] header, long chunkIndex, boolean finalChunk) throws GeneralSecurityException {
+        ByteBuffer nonce = ByteBuffer.allocate(12);
+        nonce.putInt(0);
+        nonce.putLong(chunkIndex);
+
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(mode, key, new GCMParameterSpec(TAG_LENGTH_BYTES * 8, nonce.array()));
+        cipher.updateAAD(header);
+        cipher.updateAAD(new byte[] { (byte)(finalChunk ? 1 : 0) });
+        return cipher;
+    }
+}
@@ -0,0 +1,128 @@
+package com.sparrowwallet.sparrow.io;
+
+import com.sparrowwallet.drongo.crypto.ECKey;
+import com.sparrowwallet.drongo.crypto.InvalidPasswordException;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.*;
+import java.security.GeneralSecurityException;
+
+/**
+ * Decrypts the chunked ECIES container format one chunk at a time as data is read.
+ * Each chunk is authenticated before any of its data is returned, and the stream fails if it ends before the final chunk.
+ */
+class ChunkedECIESInputStream extends InputStream {
+    private final DataInputStream in;
+    private final byte[] header;
+    private final SecretKeySpec key;
+    private final int chunkSize;
+    private byte[] chunk = new byte[0];
+    private int position;
+    private long chunkIndex;
+    private boolean finalChunkRead;
+
+    /**
+     * @param in the stream positioned directly after the magic
+     */
+    ChunkedECIESInputStream(InputStream in, ECKey decryptionKey) throws IOException {
+        this.in = new DataInputStream(in);
+
+        int version = this.in.readUnsignedByte();
+        if(version != ChunkedECIES.VERSION) {
+            throw new IOException("Unsupported encrypted file version " + version);
+        }
+
+        byte[] ephemeralPubKey = new byte[33];
+        this.in.readFully(ephemeralPubKey);
+        chunkSize = this.in.readInt();
+        if(chunkSize <= 0 || chunkSize > ChunkedECIES.MAX_CHUNK_SIZE) {
+            throw new IOException("Invalid chunk size " + chunkSize);
+        }
+
+        header = ChunkedECIES.getHeader(ephemeralPubKey, chunkSize);
+        try {
+            key = ChunkedECIES.getKey(ECKey.fromPublicOnly(ephemeralPubKey), decryptionKey);
+        } catch(IllegalArgumentException e) {
+            throw new IOException("Invalid ephemeral public key", e);
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int read = read(b, 0, 1);
+        return read < 0 ? -1 : (b[0] & 0xff);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if(len == 0) {
+            return 0;
+        }
+
+        while(position == chunk.length) {
+            if(finalChunkRead) {
+                return -1;
+            }
+            readChunk();
+        }
+
+        int length = Math.min(len, chunk.length - position);
+        System.arraycopy(chunk, position, b, off, length);
+        position += length;
+        return length;
+    }
+
+    @Override
+    public int available() {
+        return chunk.length - position;
+    }
+
+    private void readChunk() throws IOException {
+        int lengthField;
+        try {
+            lengthField = in.readInt();
+        } catch(EOFException e) {
+            throw new IOException("Encrypted file is truncated", e);
+        }
+
+        boolean finalChunk = (lengthField & ChunkedECIES.FINAL_CHUNK_FLAG) != 0;
+        int length = lengthField & ~ChunkedECIES.FINAL_CHUNK_FLAG;
+        if(length < ChunkedECIES.TAG_LENGTH_BYTES || length > chunkSize + ChunkedECIES.TAG_LENGTH_BYTES) {
+            throw new IOException("Invalid chunk length " + length);
+        }
+
+        byte[] encrypted = new byte[length];
+        try {
+            in.readFully(encrypted);
+        } catch(EOFException e) {
+            throw new IOException("Encrypted file is truncated", e);
+        }
+
+        try {
+            Cipher cipher = ChunkedECIES.getCipher(Cipher.DECRYPT_MODE, key, header, chunkIndex, finalChunk);
+            chunk = cipher.doFinal(encrypted);
+        } catch(AEADBadTagException e) {
+            if(chunkIndex == 0) {
+                throw new InvalidPasswordException("Could not decrypt wallet file", e);
+            }
+            throw new IOException("Encrypted file chunk " + chunkIndex + " failed authentication", e);
+        } catch(GeneralSecurityException e) {
+            throw new IOException("Error decrypting chunk", e);
+        }
+
+        position = 0;
+        chunkIndex++;
+        finalChunkRead = finalChunk;
+        if(finalChunk && in.read() != -1) {
+            throw new IOException("Unexpected data after final encrypted chunk");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,106 @@
+package com.sparrowwallet.sparrow.io;
+
+import com.sparrowwallet.drongo.crypto.ECKey;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+
+/**
+ * Encrypts to the chunked ECIES container format as data is written, holding no more than a single chunk in memory.
+ * Can be read with {@link ECIESInputStream}.
+ */
+public class ChunkedECIESOutputStream extends OutputStream {
+    private final DataOutputStream out;
+    private final byte[] header;
+    private final SecretKeySpec key;
+    private final byte[] buffer;
+    private int position;
+    private long chunkIndex;
+    private boolean headerWritten;
+    private boolean closed;
+
+    public ChunkedECIESOutputStream(OutputStream out, ECKey encryptionKey) {
+        this(out, encryptionKey, ChunkedECIES.DEFAULT_CHUNK_SIZE);
+    }
+
+    public ChunkedECIESOutputStream(OutputStream out, ECKey encryptionKey, int chunkSize) {
+        if(out == null || encryptionKey == null) {
+            throw new NullPointerException();
+        }
+        if(chunkSize <= 0 || chunkSize > ChunkedECIES.MAX_CHUNK_SIZE) {
+            throw new IllegalArgumentException("Invalid chunk size " + chunkSize);
+        }
+
+        this.out = new DataOutputStream(out);
+        ECKey ephemeralKey = new ECKey();
+        this.header = ChunkedECIES.getHeader(ephemeralKey.getPubKey(), chunkSize);
+        this.key = ChunkedECIES.getKey(encryptionKey, ephemeralKey);
+        this.buffer = new byte[chunkSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte)b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if(closed) {
+            throw new IOException("Stream closed");
+        }
+
+        while(len > 0) {
+            //A full buffer is only written once more data arrives, as the last chunk must be marked as final
+            if(position == buffer.length) {
+                writeChunk(false);
+            }
+
+            int length = Math.min(len, buffer.length - position);
+            System.arraycopy(b, off, buffer, position, length);
+            position += length;
+            off += length;
+            len -= length;
+        }
+    }
+
+    private void writeChunk(boolean finalChunk) throws IOException {
+        if(!headerWritten) {
+            out.write(header);
+            headerWritten = true;
+        }
+
+        try {
+            Cipher cipher = ChunkedECIES.getCipher(Cipher.ENCRYPT_MODE, key, header, chunkIndex, finalChunk);
+            byte[] encrypted = cipher.doFinal(buffer, 0, position);
+            out.writeInt(finalChunk ? encrypted.length | ChunkedECIES.FINAL_CHUNK_FLAG : encrypted.length);
+            out.write(encrypted);
+        } catch(GeneralSecurityException e) {
+            throw new IOException("Error encrypting chunk", e);
+        }
+
+        chunkIndex++;
+        position = 0;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(!closed) {
+            try {
+                writeChunk(true);
+                out.flush();
+            } finally {
+                closed = true;
+                out.close();
+            }
+        }
+    }
+}
@@ -16,7 +16,15 @@ import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static com.sparrowwallet.sparrow.AppServices.ENUMERATE_HW_PERIOD_SECS;
@@ -28,6 +36,8 @@ public class Config {
     private static final Logger log = LoggerFactory.getLogger(Config.class);
 
     public static final String CONFIG_FILENAME = "config";
+    //Changes made in quick succession are coalesced into a single write after this delay
+    private static final long FLUSH_DELAY_MILLIS = 500;
 
     private Mode mode;
     private BitcoinUnit bitcoinUnit;
@@ -50,9 +60,11 @@ public class Config {
     private boolean hideAmounts = false;
     private boolean showTransactionHex = true;
     private boolean showLoadingLog = true;
+    private boolean compactWatchOnlyWallets = false;
     private boolean showAddressTransactionCount = false;
     private boolean showDeprecatedImportExport = false;
     private boolean signBsmsExports = false;
+    private boolean chunkedWalletEncryption = false;
     private boolean preventSleep = false;
     private Boolean connectToBroadcast;
     private Boolean connectToResolve;
@@ -99,8 +111,18 @@ public class Config {
     );
 
     private static Config INSTANCE;
+    private static final Gson GSON = createGson();
+
+    private static final Object WRITE_LOCK = new Object();
+    private static ScheduledExecutorService flushExecutor;
+    private static ScheduledFuture<?> pendingFlush;
+    private static String pendingJson;
 
     private static Gson getGson() {
+        return GSON;
+    }
+
+    private static Gson createGson() {
         GsonBuilder gsonBuilder = new GsonBuilder();
         gsonBuilder.registerTypeAdapter(File.class, new FileSerializer());
         gsonBuilder.registerTypeAdapter(File.class, new FileDeserializer());
@@ -339,6 +361,15 @@ public class Config {
         flush();
     }
 
+    public boolean isCompactWatchOnlyWallets() {
+        return compactWatchOnlyWallets;
+    }
+
+    public void setCompactWatchOnlyWallets(boolean compactWatchOnlyWallets) {
+        this.compactWatchOnlyWallets = compactWatchOnlyWallets;
+        flush();
+    }
+
     public boolean isShowAddressTransactionCount() {
         return showAddressTransactionCount;
     }
@@ -357,6 +388,15 @@ public class Config {
         flush();
     }
 
+    public boolean isChunkedWalletEncryption() {
+        return chunkedWalletEncryption;
+    }
+
+    public void setChunkedWalletEncryption(boolean chunkedWalletEncryption) {
+        this.chunkedWalletEncryption = chunkedWalletEncryption;
+        flush();
+    }
+
     public boolean isSignBsmsExports() {
         return signBsmsExports;
     }
@@ -764,20 +804,80 @@ public class Config {
         flush();
     }
 
-    private synchronized void flush() {
-        Gson gson = getGson();
+    /**
+     * Schedules the config to be written on a background thread, coalescing changes made in quick succession.
+     * The config is serialized here on the thread making the change, as the setters are not synchronized, and only the file is written in the background.
+     */
+    private void flush() {
+        String json = getGson().toJson(this);
+        synchronized(Config.class) {
+            pendingJson = json;
+
+            if(flushExecutor == null) {
+                flushExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread thread = new Thread(r, "ConfigWriter");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                Runtime.getRuntime().addShutdownHook(new Thread(this::flushNow, "ConfigShutdownFlush"));
+            }
+
+            if(pendingFlush == null) {
+                pendingFlush = flushExecutor.schedule(this::flushNow, FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Writes any pending changes immediately
+     */
+    public void flushNow() {
+        //Holding the write lock also ensures a write already in progress completes before returning
+        synchronized(WRITE_LOCK) {
+            String json;
+            synchronized(Config.class) {
+                if(pendingFlush != null) {
+                    pendingFlush.cancel(false);
+                    pendingFlush = null;
+                }
+
+                json = pendingJson;
+                pendingJson = null;
+            }
+
+            if(json != null && !write(json)) {
+                synchronized(Config.class) {
+                    //Retain the failed changes for the next flush, unless they have been superseded
+                    if(pendingJson == null) {
+                        pendingJson = json;
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean write(String json) {
+        File configFile = getConfigFile();
+        File tempFile = new File(configFile.getParentFile(), CONFIG_FILENAME + ".tmp");
         try {
-            File configFile = getConfigFile();
-            if(!configFile.exists()) {
-                Storage.createOwnerOnlyFile(configFile);
+            Files.deleteIfExists(tempFile.toPath());
+            Storage.createOwnerOnlyFile(tempFile);
+
+            try(Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8)) {
+                writer.write(json);
             }
 
-            Writer writer = new FileWriter(configFile);
-            gson.toJson(this, writer);
-            writer.flush();
-            writer.close();
-        } catch (IOException e) {
-            //Ignore
+            //Replace the config file in a single step so that it cannot be left partially written
+            try {
+                Files.move(tempFile.toPath(), configFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch(AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), configFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            return true;
+        } catch(Exception e) {
+            log.error("Error writing " + configFile.getAbsolutePath(), e);
+            return false;
         }
     }
 
@@ -7,7 +7,12 @@ import com.sparrowwallet.drongo.crypto.EncryptedData;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
+/**
+ * Decrypts ECIES encrypted data, supporting both the chunked container format written by {@link ChunkedECIESOutputStream},
+ * which is decrypted as it is read, and the original single message format, which is decrypted in full on first read.
+ */
 public class ECIESInputStream extends FilterInputStream {
     private boolean decrypted;
     private final ECKey decryptionKey;
@@ -40,11 +45,19 @@ public class ECIESInputStream extends FilterInputStream {
 
     private synchronized void ensureDecrypted() throws IOException {
         if(!decrypted) {
-            byte[] encryptedBytes = ByteStreams.toByteArray(in);
-            in.close();
-            ECIESKeyCrypter keyCrypter = new ECIESKeyCrypter();
-            byte[] decryptedBytes = keyCrypter.decrypt(new EncryptedData(encryptionMagic, encryptedBytes, null, null), decryptionKey);
-            in = new ByteArrayInputStream(decryptedBytes);
+            byte[] magic = in.readNBytes(ChunkedECIES.MAGIC.length);
+            if(Arrays.equals(magic, ChunkedECIES.MAGIC)) {
+                in = new ChunkedECIESInputStream(in, decryptionKey);
+            } else {
+                byte[] remainingBytes = ByteStreams.toByteArray(in);
+                in.close();
+                byte[] encryptedBytes = new byte[magic.length + remainingBytes.length];
+                System.arraycopy(magic, 0, encryptedBytes, 0, magic.length);
+                System.arraycopy(remainingBytes, 0, encryptedBytes, magic.length, remainingBytes.length);
+                ECIESKeyCrypter keyCrypter = new ECIESKeyCrypter();
+                byte[] decryptedBytes = keyCrypter.decrypt(new EncryptedData(encryptionMagic, encryptedBytes, null, null), decryptionKey);
+                in = new ByteArrayInputStream(decryptedBytes);
+            }
             decrypted = true;
         }
     }
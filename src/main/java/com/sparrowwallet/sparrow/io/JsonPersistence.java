@@ -166,7 +166,7 @@ public class JsonPersistence implements Persistence {
 
         try(OutputStream outputStream = new FileOutputStream(walletFile)) {
             writeBinaryHeader(outputStream);
-            OutputStreamWriter writer = new OutputStreamWriter(new DeflaterOutputStream(new ECIESOutputStream(outputStream, encryptionPubKey, getEncryptionMagic())), StandardCharsets.UTF_8);
+            OutputStreamWriter writer = new OutputStreamWriter(new DeflaterOutputStream(getEncryptionOutputStream(outputStream, encryptionPubKey)), StandardCharsets.UTF_8);
             gson.toJson(wallet, writer);
             //Close the writer explicitly as the try-resources block will not do so
             writer.close();
@@ -197,6 +197,18 @@ public class JsonPersistence implements Persistence {
         outputStream.write(encoded);
     }
 
+    /**
+     * Wallets are written in the BIE1 format by default, as versions before the chunked format was introduced cannot read it.
+     * Both formats are always read, so the chunked format can be enabled in the config file once older versions no longer need to open the wallet.
+     */
+    private static OutputStream getEncryptionOutputStream(OutputStream outputStream, ECKey encryptionPubKey) {
+        if(Config.get().isChunkedWalletEncryption()) {
+            return new ChunkedECIESOutputStream(outputStream, encryptionPubKey);
+        }
+
+        return new ECIESOutputStream(outputStream, encryptionPubKey, getEncryptionMagic());
+    }
+
     private static byte[] getEncryptionMagic() {
         return "BIE1".getBytes(StandardCharsets.UTF_8);
     }
@@ -323,7 +335,18 @@ public class JsonPersistence implements Persistence {
         return getGson(true);
     }
 
+    /**
+     * Get a compact Gson for wallets that additionally skips the fields matched by the given strategy when serializing
+     */
+    static Gson getGson(ExclusionStrategy exclusionStrategy) {
+        return getGsonBuilder(true).addSerializationExclusionStrategy(exclusionStrategy).disableHtmlEscaping().create();
+    }
+
     private static Gson getGson(boolean includeWalletSerializers) {
+        return getGsonBuilder(includeWalletSerializers).setPrettyPrinting().disableHtmlEscaping().create();
+    }
+
+    private static GsonBuilder getGsonBuilder(boolean includeWalletSerializers) {
         GsonBuilder gsonBuilder = new GsonBuilder();
         gsonBuilder.registerTypeAdapter(ExtendedKey.class, new ExtendedPublicKeySerializer());
         gsonBuilder.registerTypeAdapter(ExtendedKey.class, new ExtendedPublicKeyDeserializer());
@@ -355,7 +378,7 @@ public class JsonPersistence implements Persistence {
             }
         });
 
-        return gsonBuilder.setPrettyPrinting().disableHtmlEscaping().create();
+        return gsonBuilder;
     }
 
     private static class ExtendedPublicKeySerializer implements JsonSerializer<ExtendedKey> {
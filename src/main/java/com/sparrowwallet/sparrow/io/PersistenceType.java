@@ -24,6 +24,17 @@ public enum PersistenceType {
         public Persistence getInstance() {
             return new DbPersistence();
         }
+    },
+    BINARY("binary") {
+        @Override
+        public String getExtension() {
+            return "spw";
+        }
+
+        @Override
+        public Persistence getInstance() {
+            return new BinaryPersistence();
+        }
     };
 
     private final String name;
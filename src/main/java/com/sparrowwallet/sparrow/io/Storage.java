@@ -51,7 +51,8 @@ public class Storage {
     private ECKey encryptionPubKey;
 
     public Storage(File walletFile) {
-        this(!walletFile.exists() || walletFile.getName().endsWith("." + PersistenceType.DB.getExtension()) ? PersistenceType.DB : PersistenceType.JSON, walletFile);
+        this(walletFile.getName().endsWith("." + PersistenceType.BINARY.getExtension()) ? PersistenceType.BINARY :
+                (!walletFile.exists() || walletFile.getName().endsWith("." + PersistenceType.DB.getExtension()) ? PersistenceType.DB : PersistenceType.JSON), walletFile);
     }
 
     public Storage(PersistenceType persistenceType, File walletFile) {
@@ -116,13 +117,13 @@ public class Storage {
     public WalletAndKey loadUnencryptedWallet() throws IOException, StorageException {
         WalletAndKey masterWalletAndKey = persistence.loadWallet(this);
         encryptionPubKey = NO_PASSWORD_KEY;
-        return migrateToDb(masterWalletAndKey);
+        return migrate(masterWalletAndKey);
     }
 
     public WalletAndKey loadEncryptedWallet(CharSequence password) throws IOException, StorageException {
         WalletAndKey masterWalletAndKey = persistence.loadWallet(this, password);
         encryptionPubKey = ECKey.fromPublicOnly(masterWalletAndKey.getEncryptionKey());
-        return migrateToDb(masterWalletAndKey);
+        return migrate(masterWalletAndKey);
     }
 
     public void saveWallet(Wallet wallet) throws IOException, StorageException {
@@ -250,8 +251,6 @@ public class Storage {
     }
 
     private void backupWallet(String prefix) throws IOException {
-        File backupDir = getWalletsBackupDir();
-
         Date backupDate = new Date();
         String walletName = persistence.getWalletName(walletFile, null);
         String dateSuffix = "-" + BACKUP_DATE_FORMAT.format(backupDate);
@@ -261,14 +260,50 @@ public class Storage {
             backupName = prefix + "_" + backupName;
         }
 
-        File backupFile = new File(backupDir, backupName);
-        if(!backupFile.exists()) {
-            createOwnerOnlyFile(backupFile);
+        //Backups share unchanged chunks with earlier backups, so only the changed parts of the wallet file are written
+        BackupStore backupStore = getBackupStore();
+        backupStore.backup(backupName, this::copyWallet);
+        if(!backupStore.verify(backupName)) {
+            throw new IOException("Backup " + backupName + " could not be verified");
         }
+        backupStore.prune(name -> isBackupName(prefix, name), BackupStore.RetentionPolicy.DEFAULT);
+
+        //Backups are only held in the store, so plain copies of backups that are also in the store are no longer needed.
+        //Full copies made before the store existed are kept.
+        Set<String> storedBackups = new HashSet<>(backupStore.getBackups(name -> isBackupName(prefix, name)));
+        for(File previousBackup : getBackups(prefix)) {
+            if(storedBackups.contains(previousBackup.getName())) {
+                IOUtils.secureDelete(previousBackup);
+            }
+        }
+    }
 
-        try(FileOutputStream outputStream = new FileOutputStream(backupFile)) {
-            copyWallet(outputStream);
+    /**
+     * @return the names of the stored backups of this wallet, newest first
+     */
+    public List<String> getStoredBackups() {
+        return getBackupStore().getBackups(name -> isBackupName(null, name));
+    }
+
+    /**
+     * Reassembles a stored backup as a wallet file. The file is only created once the backup has been verified against its recorded hashes.
+     */
+    public static void restoreBackup(String backupName, File restoreFile) throws IOException {
+        File tempFile = new File(restoreFile.getParentFile(), restoreFile.getName() + ".tmp");
+        Files.deleteIfExists(tempFile.toPath());
+        createOwnerOnlyFile(tempFile);
+        try(OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(tempFile))) {
+            getBackupStore().restore(backupName, outputStream);
+        } catch(IOException e) {
+            IOUtils.secureDelete(tempFile);
+            throw e;
         }
+
+        Files.move(tempFile.toPath(), restoreFile.toPath());
+    }
+
+    private static BackupStore getBackupStore() {
+        return new BackupStore(new File(getWalletsBackupDir(), BackupStore.STORE_DIR));
     }
 
     public void copyWallet(OutputStream outputStream) throws IOException {
@@ -303,24 +338,27 @@ public class Storage {
         for(File backup : backups) {
             IOUtils.secureDelete(backup);
         }
+
+        getBackupStore().delete(name -> isBackupName(prefix, name));
     }
 
     File[] getBackups(String prefix) {
         File backupDir = getWalletsBackupDir();
-        String walletName = persistence.getWalletName(walletFile, null);
-        String extension = walletFile.getName().substring(walletName.length());
-        File[] backups = backupDir.listFiles((dir, name) -> {
-            return name.startsWith((prefix == null ? "" : prefix + "_") + walletName + "-") &&
-                    getBackupDate(name) != null &&
-                    (extension.isEmpty() || name.endsWith(extension));
-        });
-
+        File[] backups = backupDir.listFiles((dir, name) -> new File(dir, name).isFile() && isBackupName(prefix, name));
         backups = backups == null ? new File[0] : backups;
         Arrays.sort(backups, Comparator.comparing(o -> getBackupDate(((File)o).getName())).reversed());
 
         return backups;
     }
 
+    private boolean isBackupName(String prefix, String name) {
+        String walletName = persistence.getWalletName(walletFile, null);
+        String extension = walletFile.getName().substring(walletName.length());
+        return name.startsWith((prefix == null ? "" : prefix + "_") + walletName + "-") &&
+                getBackupDate(name) != null &&
+                (extension.isEmpty() || name.endsWith(extension));
+    }
+
     private String getBackupDate(String backupFileName) {
         Matcher matcher = DATE_PATTERN.matcher(backupFileName);
         if(matcher.matches()) {
@@ -330,6 +368,18 @@ public class Storage {
         return null;
     }
 
+    private WalletAndKey migrate(WalletAndKey masterWalletAndKey) throws IOException, StorageException {
+        if(Config.get().isCompactWatchOnlyWallets()) {
+            if(isBinaryCompatible(masterWalletAndKey.getWallet())) {
+                return migrateToBinary(masterWalletAndKey);
+            }
+        } else {
+            masterWalletAndKey = migrateFromBinary(masterWalletAndKey);
+        }
+
+        return migrateToDb(masterWalletAndKey);
+    }
+
     private WalletAndKey migrateToDb(WalletAndKey masterWalletAndKey) throws IOException, StorageException {
         if(getType() == PersistenceType.JSON) {
             log.info("Migrating " + masterWalletAndKey.getWallet().getName() + " from JSON to DB persistence");
@@ -339,6 +389,41 @@ public class Storage {
         return masterWalletAndKey;
     }
 
+    /**
+     * Convert a watch-only wallet without child wallets to the compact binary format, replacing the existing wallet file.
+     * The wallet can be converted back with {@link #migrateFromBinary(WalletAndKey)}.
+     */
+    public WalletAndKey migrateToBinary(WalletAndKey masterWalletAndKey) throws IOException, StorageException {
+        Wallet wallet = masterWalletAndKey.getWallet();
+        if(getType() == PersistenceType.BINARY) {
+            return masterWalletAndKey;
+        }
+
+        if(!isBinaryCompatible(wallet)) {
+            throw new StorageException("Only watch-only wallets without child wallets can be stored in the binary format");
+        }
+
+        log.info("Migrating " + wallet.getName() + " from " + getType().getName().toUpperCase(Locale.ROOT) + " to binary persistence");
+        persistence.close();
+        return migrateType(PersistenceType.BINARY, wallet, masterWalletAndKey.getEncryptionKey());
+    }
+
+    /**
+     * Convert a wallet in the compact binary format back to the default DB format, replacing the existing wallet file
+     */
+    public WalletAndKey migrateFromBinary(WalletAndKey masterWalletAndKey) throws IOException, StorageException {
+        if(getType() != PersistenceType.BINARY) {
+            return masterWalletAndKey;
+        }
+
+        log.info("Migrating " + masterWalletAndKey.getWallet().getName() + " from binary to DB persistence");
+        return migrateType(PersistenceType.DB, masterWalletAndKey.getWallet(), masterWalletAndKey.getEncryptionKey());
+    }
+
+    private static boolean isBinaryCompatible(Wallet wallet) {
+        return wallet.getChildWallets().isEmpty() && wallet.getKeystores().stream().noneMatch(Keystore::hasPrivateKey);
+    }
+
     private WalletAndKey migrateType(PersistenceType type, Wallet wallet, ECKey encryptionKey) throws IOException, StorageException {
         File existingFile = walletFile;
 
@@ -490,6 +575,10 @@ public class Storage {
             if(firstChar == 'H') {
                 return PersistenceType.DB;
             }
+
+            if(firstChar == BinaryPersistence.HEADER_MAGIC.charAt(0)) {
+                return PersistenceType.BINARY;
+            }
         } catch(IOException e) {
             log.error("Error detecting persistence type", e);
         }
@@ -810,6 +899,26 @@ public class Storage {
         }
     }
 
+    public static class RestoreBackupService extends Service<Void> {
+        private final String backupName;
+        private final File restoreFile;
+
+        public RestoreBackupService(String backupName, File restoreFile) {
+            this.backupName = backupName;
+            this.restoreFile = restoreFile;
+        }
+
+        @Override
+        protected Task<Void> createTask() {
+            return new Task<>() {
+                protected Void call() throws IOException {
+                    restoreBackup(backupName, restoreFile);
+                    return null;
+                }
+            };
+        }
+    }
+
     public static class DeleteWalletService extends ScheduledService<Boolean> {
         private final Storage storage;
         private final boolean deleteBackups;
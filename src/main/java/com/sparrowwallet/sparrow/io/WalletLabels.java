@@ -2,6 +2,7 @@ package com.sparrowwallet.sparrow.io;
 
 import com.csvreader.CsvReader;
 import com.google.gson.*;
+import com.google.gson.stream.JsonWriter;
 import com.sparrowwallet.drongo.KeyDerivation;
 import com.sparrowwallet.drongo.KeyPurpose;
 import com.sparrowwallet.drongo.OutputDescriptor;
@@ -59,63 +60,62 @@ public class WalletLabels implements WalletImport, WalletExport {
 
     @Override
     public void exportWallet(Wallet wallet, OutputStream outputStream, String password) throws ExportException {
-        List<Label> labels = new ArrayList<>();
+        //Fiat rates are fetched for the whole date range up front, and each label is written as it is created rather than collected first
         Map<Date, Double> fiatRates = getFiatRates(walletForms);
-        for(WalletForm exportWalletForm : walletForms) {
-            Wallet exportWallet = exportWalletForm.getWallet();
-            OutputDescriptor outputDescriptor = OutputDescriptor.getOutputDescriptor(exportWallet);
-            String origin = outputDescriptor.toString(true, false, false);
-
-            for(Keystore keystore : exportWallet.getKeystores()) {
-                if(keystore.getLabel() != null && !keystore.getLabel().isEmpty()) {
-                    labels.add(new Label(Type.xpub, keystore.getExtendedPublicKey().toString(), keystore.getLabel(), null, null));
+        long start = System.currentTimeMillis();
+
+        try {
+            LabelWriter labels = new LabelWriter(outputStream);
+            for(WalletForm exportWalletForm : walletForms) {
+                Wallet exportWallet = exportWalletForm.getWallet();
+                OutputDescriptor outputDescriptor = OutputDescriptor.getOutputDescriptor(exportWallet);
+                String origin = outputDescriptor.toString(true, false, false);
+
+                for(Keystore keystore : exportWallet.getKeystores()) {
+                    if(keystore.getLabel() != null && !keystore.getLabel().isEmpty()) {
+                        labels.write(new Label(Type.xpub, keystore.getExtendedPublicKey().toString(), keystore.getLabel(), null, null));
+                    }
                 }
-            }
 
-            Set<Sha256Hash> confirmingTxs = new HashSet<>();
-            WalletTransactionsEntry walletTransactionsEntry = exportWalletForm.getWalletTransactionsEntry();
-            for(Entry entry : walletTransactionsEntry.getChildren()) {
-                TransactionEntry txEntry = (TransactionEntry)entry;
-                BlockTransaction blkTx = txEntry.getBlockTransaction();
-                labels.add(new TransactionLabel(blkTx.getHashAsString(), blkTx.getLabel(), origin,
-                        txEntry.isConfirming() ? null : blkTx.getHeight(), blkTx.getDate(),
-                        getFee(walletTransactionsEntry.getWallet(), blkTx), txEntry.getValue(),
-                        getFiatValue(blkTx.getDate(), Transaction.SATOSHIS_PER_BITCOIN, fiatRates)));
-                if(txEntry.isConfirming()) {
-                    confirmingTxs.add(blkTx.getHash());
+                Set<Sha256Hash> confirmingTxs = new HashSet<>();
+                WalletTransactionsEntry walletTransactionsEntry = exportWalletForm.getWalletTransactionsEntry();
+                for(Entry entry : walletTransactionsEntry.getChildren()) {
+                    TransactionEntry txEntry = (TransactionEntry)entry;
+                    BlockTransaction blkTx = txEntry.getBlockTransaction();
+                    labels.write(new TransactionLabel(blkTx.getHashAsString(), blkTx.getLabel(), origin,
+                            txEntry.isConfirming() ? null : blkTx.getHeight(), blkTx.getDate(),
+                            getFee(walletTransactionsEntry.getWallet(), blkTx), txEntry.getValue(),
+                            getFiatValue(blkTx.getDate(), Transaction.SATOSHIS_PER_BITCOIN, fiatRates)));
+                    if(txEntry.isConfirming()) {
+                        confirmingTxs.add(blkTx.getHash());
+                    }
                 }
-            }
 
-            for(WalletNode addressNode : exportWallet.getWalletAddresses().values()) {
-                labels.add(new AddressLabel(addressNode.getAddress().toString(), addressNode.getLabel(), origin, addressNode.getDerivationPath().substring(1),
-                        addressNode.getTransactionOutputs().stream().flatMap(txo -> txo.isSpent() ? Stream.of(txo, txo.getSpentBy()) : Stream.of(txo))
-                                .filter(ref -> !confirmingTxs.contains(ref.getHash())).map(BlockTransactionHash::getHeight).toList()));
-            }
+                for(WalletNode addressNode : exportWallet.getWalletAddresses().values()) {
+                    labels.write(new AddressLabel(addressNode.getAddress().toString(), addressNode.getLabel(), origin, addressNode.getDerivationPath().substring(1),
+                            addressNode.getTransactionOutputs().stream().flatMap(txo -> txo.isSpent() ? Stream.of(txo, txo.getSpentBy()) : Stream.of(txo))
+                                    .filter(ref -> !confirmingTxs.contains(ref.getHash())).map(BlockTransactionHash::getHeight).toList()));
+                }
 
-            for(Map.Entry<BlockTransactionHashIndex, WalletNode> txoEntry : exportWallet.getWalletTxos().entrySet()) {
-                BlockTransactionHashIndex txo = txoEntry.getKey();
-                WalletNode addressNode = txoEntry.getValue();
-                Boolean spendable = (txo.isSpent() ? null : txo.getStatus() != Status.FROZEN);
-                labels.add(new InputOutputLabel(Type.output, txo.toString(), txo.getLabel(), origin, spendable, addressNode.getDerivationPath().substring(1), txo.getValue(),
-                        confirmingTxs.contains(txo.getHash()) ? null : txo.getHeight(), txo.getDate(), getFiatValue(txo, fiatRates)));
-
-                if(txo.isSpent()) {
-                    BlockTransactionHashIndex txi = txo.getSpentBy();
-                    labels.add(new InputOutputLabel(Type.input, txi.toString(), txi.getLabel(), origin, null, addressNode.getDerivationPath().substring(1), txi.getValue(),
-                            confirmingTxs.contains(txi.getHash()) ? null : txi.getHeight(), txi.getDate(), getFiatValue(txi, fiatRates)));
+                for(Map.Entry<BlockTransactionHashIndex, WalletNode> txoEntry : exportWallet.getWalletTxos().entrySet()) {
+                    BlockTransactionHashIndex txo = txoEntry.getKey();
+                    WalletNode addressNode = txoEntry.getValue();
+                    Boolean spendable = (txo.isSpent() ? null : txo.getStatus() != Status.FROZEN);
+                    labels.write(new InputOutputLabel(Type.output, txo.toString(), txo.getLabel(), origin, spendable, addressNode.getDerivationPath().substring(1), txo.getValue(),
+                            confirmingTxs.contains(txo.getHash()) ? null : txo.getHeight(), txo.getDate(), getFiatValue(txo, fiatRates)));
+
+                    if(txo.isSpent()) {
+                        BlockTransactionHashIndex txi = txo.getSpentBy();
+                        labels.write(new InputOutputLabel(Type.input, txi.toString(), txi.getLabel(), origin, null, addressNode.getDerivationPath().substring(1), txi.getValue(),
+                                confirmingTxs.contains(txi.getHash()) ? null : txi.getHeight(), txi.getDate(), getFiatValue(txi, fiatRates)));
+                    }
                 }
             }
-        }
-
-        try {
-            Gson gson = new GsonBuilder().registerTypeAdapter(Date.class, new GsonUTCDateAdapter()).create();
-            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
 
-            for(Label label : labels) {
-                writer.write(gson.toJson(label) + "\n");
-            }
+            labels.flush();
 
-            writer.flush();
+            long elapsed = Math.max(System.currentTimeMillis() - start, 1);
+            log.debug("Exported " + labels.getCount() + " labels in " + elapsed + "ms (" + (labels.getCount() * 1000 / elapsed) + " labels/s)");
         } catch(Exception e) {
             log.error("Error exporting labels", e);
             throw new ExportException("Error exporting labels", e);
@@ -153,184 +153,97 @@ public class WalletLabels implements WalletImport, WalletExport {
             throw new IllegalStateException("No wallets to import labels for");
         }
 
+        //Index each wallet once, so that each label can be applied as it is read with a lookup rather than a scan of every entry
+        List<WalletLabelIndex> walletIndexes = new ArrayList<>();
+        for(WalletForm walletForm : walletForms) {
+            if(walletForm.getWallet().isValid()) {
+                walletIndexes.add(new WalletLabelIndex(walletForm));
+            }
+        }
+
+        Map<Wallet, Set<Keystore>> changedWalletKeystores = new LinkedHashMap<>();
+        Map<Wallet, Set<Entry>> changedWalletEntries = new LinkedHashMap<>();
+        Map<Wallet, Set<BlockTransactionHashIndex>> changedWalletUtxoStatuses = new LinkedHashMap<>();
+        Map<String, Origin> origins = new HashMap<>();
+
         Gson gson = new Gson();
-        List<Label> labels = new ArrayList<>();
         try {
             BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
             String line;
             while((line = reader.readLine()) != null) {
-                Label label;
-                try {
-                    label = gson.fromJson(line, Label.class);
-                } catch(Exception e) {
-                    //Try parse Electrum history CSV, or any CSV with txid,label entries
-                    try {
-                        CsvReader csvReader = new CsvReader(new StringReader(line));
-                        if(csvReader.readRecord() && csvReader.getColumnCount() > 1 && csvReader.get(0).length() == 64 && Utils.isHex(csvReader.get(0))) {
-                            label = new Label(Type.tx, csvReader.get(0), csvReader.get(1), null, null);
-                        } else {
-                            continue;
-                        }
-                    } catch(Exception ex) {
-                        continue;
-                    }
-                }
-
-                if(label == null || label.type == null || label.ref == null) {
+                Label label = parseLabel(gson, line);
+                if(label == null) {
                     continue;
                 }
 
-                if(label.type == Type.output) {
-                    if((label.label == null || label.label.isEmpty()) && label.spendable == null) {
-                        continue;
+                Origin labelOrigin = label.origin == null ? null : origins.computeIfAbsent(label.origin, Origin::fromString);
+                for(WalletLabelIndex walletIndex : walletIndexes) {
+                    if(labelOrigin == null || labelOrigin.equals(walletIndex.origin)) {
+                        walletIndex.apply(label, changedWalletKeystores, changedWalletEntries, changedWalletUtxoStatuses);
                     }
-                } else if(label.label == null || label.label.isEmpty()) {
-                    continue;
                 }
-
-                labels.add(label);
             }
         } catch(Exception e) {
             throw new ImportException("Error importing labels file", e);
         }
 
-        Map<Wallet, List<Keystore>> changedWalletKeystores = new LinkedHashMap<>();
-        Map<Wallet, List<Entry>> changedWalletEntries = new LinkedHashMap<>();
-        Map<Wallet, List<BlockTransactionHashIndex>> changedWalletUtxoStatuses = new LinkedHashMap<>();
-
-        for(WalletForm walletForm : walletForms) {
-            Wallet wallet = walletForm.getWallet();
-            if(!wallet.isValid()) {
-                continue;
-            }
-
-            OutputDescriptor outputDescriptor = OutputDescriptor.getOutputDescriptor(wallet);
-            Origin origin = Origin.fromOutputDescriptor(outputDescriptor);
-
-            List<Entry> transactionEntries = walletForm.getWalletTransactionsEntry().getChildren();
-            List<Entry> addressEntries = new ArrayList<>();
-            addressEntries.addAll(walletForm.getNodeEntry(KeyPurpose.RECEIVE).getChildren());
-            addressEntries.addAll(walletForm.getNodeEntry(KeyPurpose.CHANGE).getChildren());
-            List<Entry> utxoEntries = walletForm.getWalletUtxosEntry().getChildren();
-
-            for(Label label : labels) {
-                if(label.origin != null && !Origin.fromString(label.origin).equals(origin)) {
-                    continue;
-                }
-
-                if(label.type == Type.xpub) {
-                    for(Keystore keystore : wallet.getKeystores()) {
-                        if(keystore.getExtendedPublicKey().toString().equals(label.ref)) {
-                            keystore.setLabel(label.label);
-                            List<Keystore> changedKeystores = changedWalletKeystores.computeIfAbsent(wallet, w -> new ArrayList<>());
-                            changedKeystores.add(keystore);
-                        }
-                    }
-                }
-
-                if(label.type == Type.tx) {
-                    for(Entry entry : transactionEntries) {
-                        if(entry instanceof TransactionEntry transactionEntry) {
-                            BlockTransaction blkTx = transactionEntry.getBlockTransaction();
-                            if(blkTx.getHashAsString().equals(label.ref)) {
-                                transactionEntry.getBlockTransaction().setLabel(label.label);
-                                transactionEntry.labelProperty().set(label.label);
-                                addChangedEntry(changedWalletEntries, entry);
-                            }
-                        }
-                    }
-                }
-
-                if(label.type == Type.addr) {
-                    for(Entry addressEntry : addressEntries) {
-                        if(addressEntry instanceof NodeEntry nodeEntry) {
-                            WalletNode addressNode = nodeEntry.getNode();
-                            if(addressNode.getAddress().toString().equals(label.ref)) {
-                                nodeEntry.getNode().setLabel(label.label);
-                                nodeEntry.labelProperty().set(label.label);
-                                addChangedEntry(changedWalletEntries, addressEntry);
-                            }
-                        }
-                    }
-                }
-
-                if(label.type == Type.output || label.type == Type.input) {
-                    for(Entry entry : transactionEntries) {
-                        for(Entry hashIndexEntry : entry.getChildren()) {
-                            if(hashIndexEntry instanceof TransactionHashIndexEntry txioEntry) {
-                                BlockTransactionHashIndex reference = txioEntry.getHashIndex();
-                                if((label.type == Type.output && txioEntry.getType() == HashIndexEntry.Type.OUTPUT && reference.toString().equals(label.ref))
-                                        || (label.type == Type.input && txioEntry.getType() == HashIndexEntry.Type.INPUT && reference.toString().equals(label.ref))) {
-                                    if(label.label != null && !label.label.isEmpty()) {
-                                        reference.setLabel(label.label);
-                                        txioEntry.labelProperty().set(label.label);
-                                        addChangedEntry(changedWalletEntries, txioEntry);
-                                    }
-
-                                    if(label.type == Type.output && !reference.isSpent() && label.spendable != null) {
-                                        if(!label.spendable && reference.getStatus() != Status.FROZEN) {
-                                            reference.setStatus(Status.FROZEN);
-                                            addChangedUtxo(changedWalletUtxoStatuses, txioEntry);
-                                        } else if(label.spendable && reference.getStatus() == Status.FROZEN) {
-                                            reference.setStatus(null);
-                                            addChangedUtxo(changedWalletUtxoStatuses, txioEntry);
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                    }
-                    for(Entry addressEntry : addressEntries) {
-                        for(Entry entry : addressEntry.getChildren()) {
-                            updateHashIndexEntryLabel(label, entry);
-                            for(Entry spentEntry : entry.getChildren()) {
-                                updateHashIndexEntryLabel(label, spentEntry);
-                            }
-                        }
-                    }
-                    for(Entry entry : utxoEntries) {
-                        updateHashIndexEntryLabel(label, entry);
-                    }
-                }
-            }
-        }
-
-        for(Map.Entry<Wallet, List<Keystore>> walletKeystores : changedWalletKeystores.entrySet()) {
+        for(Map.Entry<Wallet, Set<Keystore>> walletKeystores : changedWalletKeystores.entrySet()) {
             Wallet wallet = walletKeystores.getKey();
             Storage storage = AppServices.get().getOpenWallets().get(wallet);
-            EventManager.get().post(new KeystoreLabelsChangedEvent(wallet, wallet, storage.getWalletId(wallet), walletKeystores.getValue()));
+            EventManager.get().post(new KeystoreLabelsChangedEvent(wallet, wallet, storage.getWalletId(wallet), new ArrayList<>(walletKeystores.getValue())));
         }
 
-        for(Map.Entry<Wallet, List<Entry>> walletEntries : changedWalletEntries.entrySet()) {
-            EventManager.get().post(new WalletEntryLabelsChangedEvent(walletEntries.getKey(), walletEntries.getValue(), false));
+        for(Map.Entry<Wallet, Set<Entry>> walletEntries : changedWalletEntries.entrySet()) {
+            EventManager.get().post(new WalletEntryLabelsChangedEvent(walletEntries.getKey(), new ArrayList<>(walletEntries.getValue()), false));
         }
 
-        for(Map.Entry<Wallet, List<BlockTransactionHashIndex>> walletUtxos : changedWalletUtxoStatuses.entrySet()) {
-            EventManager.get().post(new WalletUtxoStatusChangedEvent(walletUtxos.getKey(), walletUtxos.getValue()));
+        for(Map.Entry<Wallet, Set<BlockTransactionHashIndex>> walletUtxos : changedWalletUtxoStatuses.entrySet()) {
+            EventManager.get().post(new WalletUtxoStatusChangedEvent(walletUtxos.getKey(), new ArrayList<>(walletUtxos.getValue())));
         }
 
         return walletForms.get(0).getWallet();
     }
 
-    private static void updateHashIndexEntryLabel(Label label, Entry entry) {
-        if(entry instanceof HashIndexEntry hashIndexEntry) {
-            BlockTransactionHashIndex reference = hashIndexEntry.getHashIndex();
-            if((label.type == Type.output && hashIndexEntry.getType() == HashIndexEntry.Type.OUTPUT && reference.toString().equals(label.ref))
-                    || (label.type == Type.input && hashIndexEntry.getType() == HashIndexEntry.Type.INPUT && reference.toString().equals(label.ref))) {
-                if(label.label != null && !label.label.isEmpty()) {
-                    hashIndexEntry.labelProperty().set(label.label);
+    private static Label parseLabel(Gson gson, String line) {
+        Label label;
+        try {
+            label = gson.fromJson(line, Label.class);
+        } catch(Exception e) {
+            //Try parse Electrum history CSV, or any CSV with txid,label entries
+            try {
+                CsvReader csvReader = new CsvReader(new StringReader(line));
+                if(csvReader.readRecord() && csvReader.getColumnCount() > 1 && csvReader.get(0).length() == 64 && Utils.isHex(csvReader.get(0))) {
+                    label = new Label(Type.tx, csvReader.get(0), csvReader.get(1), null, null);
+                } else {
+                    return null;
                 }
+            } catch(Exception ex) {
+                return null;
             }
         }
+
+        if(label == null || label.type == null || label.ref == null) {
+            return null;
+        }
+
+        if(label.type == Type.output) {
+            if((label.label == null || label.label.isEmpty()) && label.spendable == null) {
+                return null;
+            }
+        } else if(label.label == null || label.label.isEmpty()) {
+            return null;
+        }
+
+        return label;
     }
 
-    private static void addChangedEntry(Map<Wallet, List<Entry>> changedEntries, Entry entry) {
-        List<Entry> entries = changedEntries.computeIfAbsent(entry.getWallet(), wallet -> new ArrayList<>());
+    private static void addChangedEntry(Map<Wallet, Set<Entry>> changedEntries, Entry entry) {
+        Set<Entry> entries = changedEntries.computeIfAbsent(entry.getWallet(), wallet -> new LinkedHashSet<>());
         entries.add(entry);
     }
 
-    private static void addChangedUtxo(Map<Wallet, List<BlockTransactionHashIndex>> changedUtxos, TransactionHashIndexEntry utxoEntry) {
-        List<BlockTransactionHashIndex> utxos = changedUtxos.computeIfAbsent(utxoEntry.getWallet(), w -> new ArrayList<>());
+    private static void addChangedUtxo(Map<Wallet, Set<BlockTransactionHashIndex>> changedUtxos, TransactionHashIndexEntry utxoEntry) {
+        Set<BlockTransactionHashIndex> utxos = changedUtxos.computeIfAbsent(utxoEntry.getWallet(), w -> new LinkedHashSet<>());
         utxos.add(utxoEntry.getHashIndex());
     }
 
@@ -387,7 +300,7 @@ public class WalletLabels implements WalletImport, WalletExport {
             }
 
             if(max > min) {
-                fiatRates = exchangeSource.getHistoricalExchangeRates(fiatCurrency, new Date(min - ONE_DAY), new Date(max));
+                fiatRates = exchangeSource.getStoredHistoricalExchangeRates(fiatCurrency, new Date(min - ONE_DAY), new Date(max), AppServices.onlineProperty().get());
             }
         }
 
@@ -399,7 +312,7 @@ public class WalletLabels implements WalletImport, WalletExport {
     }
 
     private static Currency getFiatCurrency() {
-        return getExchangeSource() == ExchangeSource.NONE || !AppServices.onlineProperty().get() ? null : Config.get().getFiatCurrency();
+        return getExchangeSource() == ExchangeSource.NONE ? null : Config.get().getFiatCurrency();
     }
 
     private Map<Currency, BigDecimal> getFiatValue(TransactionEntry txEntry, Map<Date, Double> fiatRates) {
@@ -431,6 +344,163 @@ public class WalletLabels implements WalletImport, WalletExport {
         return null;
     }
 
+    /**
+     * Writes labels as JSON lines through a single JsonWriter, so that no intermediate strings are created for each label
+     */
+    private static class LabelWriter {
+        private static final Gson gson = new GsonBuilder().registerTypeAdapter(Date.class, new GsonUTCDateAdapter()).create();
+
+        private final Writer writer;
+        private final JsonWriter jsonWriter;
+        private long count;
+
+        public LabelWriter(OutputStream outputStream) {
+            this.writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+            this.jsonWriter = new JsonWriter(writer);
+        }
+
+        public void write(Label label) throws IOException {
+            //Gson writes each label as a further top level value, which is separated by a newline written directly to the underlying writer
+            gson.toJson(label, label.getClass(), jsonWriter);
+            writer.write('\n');
+            count++;
+        }
+
+        public void flush() throws IOException {
+            jsonWriter.flush();
+        }
+
+        public long getCount() {
+            return count;
+        }
+    }
+
+    /**
+     * Indexes the keystores and entries of a wallet that labels can be applied to, keyed by their BIP329 reference
+     */
+    private static class WalletLabelIndex {
+        private final Wallet wallet;
+        private final Origin origin;
+        private final Map<String, List<Keystore>> keystores = new HashMap<>();
+        private final Map<String, List<TransactionEntry>> transactions = new HashMap<>();
+        private final Map<String, List<NodeEntry>> addresses = new HashMap<>();
+        private final Map<String, List<TransactionHashIndexEntry>> transactionOutputs = new HashMap<>();
+        private final Map<String, List<TransactionHashIndexEntry>> transactionInputs = new HashMap<>();
+        private final Map<String, List<HashIndexEntry>> outputs = new HashMap<>();
+        private final Map<String, List<HashIndexEntry>> inputs = new HashMap<>();
+
+        public WalletLabelIndex(WalletForm walletForm) {
+            this.wallet = walletForm.getWallet();
+            this.origin = Origin.fromOutputDescriptor(OutputDescriptor.getOutputDescriptor(wallet));
+
+            for(Keystore keystore : wallet.getKeystores()) {
+                add(keystores, keystore.getExtendedPublicKey().toString(), keystore);
+            }
+
+            for(Entry entry : walletForm.getWalletTransactionsEntry().getChildren()) {
+                if(entry instanceof TransactionEntry transactionEntry) {
+                    add(transactions, transactionEntry.getBlockTransaction().getHashAsString(), transactionEntry);
+                }
+                for(Entry hashIndexEntry : entry.getChildren()) {
+                    if(hashIndexEntry instanceof TransactionHashIndexEntry txioEntry) {
+                        if(txioEntry.getType() == HashIndexEntry.Type.OUTPUT) {
+                            add(transactionOutputs, txioEntry.getHashIndex().toString(), txioEntry);
+                        } else if(txioEntry.getType() == HashIndexEntry.Type.INPUT) {
+                            add(transactionInputs, txioEntry.getHashIndex().toString(), txioEntry);
+                        }
+                    }
+                }
+            }
+
+            List<Entry> addressEntries = new ArrayList<>();
+            addressEntries.addAll(walletForm.getNodeEntry(KeyPurpose.RECEIVE).getChildren());
+            addressEntries.addAll(walletForm.getNodeEntry(KeyPurpose.CHANGE).getChildren());
+            for(Entry addressEntry : addressEntries) {
+                if(addressEntry instanceof NodeEntry nodeEntry) {
+                    add(addresses, nodeEntry.getNode().getAddress().toString(), nodeEntry);
+                }
+                for(Entry entry : addressEntry.getChildren()) {
+                    addHashIndexEntry(entry);
+                    for(Entry spentEntry : entry.getChildren()) {
+                        addHashIndexEntry(spentEntry);
+                    }
+                }
+            }
+
+            for(Entry entry : walletForm.getWalletUtxosEntry().getChildren()) {
+                addHashIndexEntry(entry);
+            }
+        }
+
+        private void addHashIndexEntry(Entry entry) {
+            if(entry instanceof HashIndexEntry hashIndexEntry) {
+                if(hashIndexEntry.getType() == HashIndexEntry.Type.OUTPUT) {
+                    add(outputs, hashIndexEntry.getHashIndex().toString(), hashIndexEntry);
+                } else if(hashIndexEntry.getType() == HashIndexEntry.Type.INPUT) {
+                    add(inputs, hashIndexEntry.getHashIndex().toString(), hashIndexEntry);
+                }
+            }
+        }
+
+        private static <T> void add(Map<String, List<T>> index, String ref, T item) {
+            index.computeIfAbsent(ref, k -> new ArrayList<>(1)).add(item);
+        }
+
+        public void apply(Label label, Map<Wallet, Set<Keystore>> changedWalletKeystores, Map<Wallet, Set<Entry>> changedWalletEntries,
+                          Map<Wallet, Set<BlockTransactionHashIndex>> changedWalletUtxoStatuses) {
+            if(label.type == Type.xpub) {
+                for(Keystore keystore : keystores.getOrDefault(label.ref, Collections.emptyList())) {
+                    keystore.setLabel(label.label);
+                    changedWalletKeystores.computeIfAbsent(wallet, w -> new LinkedHashSet<>()).add(keystore);
+                }
+            }
+
+            if(label.type == Type.tx) {
+                for(TransactionEntry transactionEntry : transactions.getOrDefault(label.ref, Collections.emptyList())) {
+                    transactionEntry.getBlockTransaction().setLabel(label.label);
+                    transactionEntry.labelProperty().set(label.label);
+                    addChangedEntry(changedWalletEntries, transactionEntry);
+                }
+            }
+
+            if(label.type == Type.addr) {
+                for(NodeEntry nodeEntry : addresses.getOrDefault(label.ref, Collections.emptyList())) {
+                    nodeEntry.getNode().setLabel(label.label);
+                    nodeEntry.labelProperty().set(label.label);
+                    addChangedEntry(changedWalletEntries, nodeEntry);
+                }
+            }
+
+            if(label.type == Type.output || label.type == Type.input) {
+                Map<String, List<TransactionHashIndexEntry>> txioIndex = (label.type == Type.output ? transactionOutputs : transactionInputs);
+                for(TransactionHashIndexEntry txioEntry : txioIndex.getOrDefault(label.ref, Collections.emptyList())) {
+                    BlockTransactionHashIndex reference = txioEntry.getHashIndex();
+                    if(label.label != null && !label.label.isEmpty()) {
+                        reference.setLabel(label.label);
+                        txioEntry.labelProperty().set(label.label);
+                        addChangedEntry(changedWalletEntries, txioEntry);
+                    }
+
+                    if(label.type == Type.output && !reference.isSpent() && label.spendable != null) {
+                        if(!label.spendable && reference.getStatus() != Status.FROZEN) {
+                            reference.setStatus(Status.FROZEN);
+                            addChangedUtxo(changedWalletUtxoStatuses, txioEntry);
+                        } else if(label.spendable && reference.getStatus() == Status.FROZEN) {
+                            reference.setStatus(null);
+                            addChangedUtxo(changedWalletUtxoStatuses, txioEntry);
+                        }
+                    }
+                }
+
+                if(label.label != null && !label.label.isEmpty()) {
+                    for(HashIndexEntry hashIndexEntry : (label.type == Type.output ? outputs : inputs).getOrDefault(label.ref, Collections.emptyList())) {
+                        hashIndexEntry.labelProperty().set(label.label);
+                    }
+                }
+            }
+        }
+    }
+
     private enum Type {
         tx, addr, pubkey, input, output, xpub
     }
@@ -15,25 +15,29 @@ import com.sparrowwallet.sparrow.wallet.Entry;
 import com.sparrowwallet.sparrow.wallet.TransactionEntry;
 import com.sparrowwallet.sparrow.wallet.WalletForm;
 import com.sparrowwallet.sparrow.wallet.WalletTransactionsEntry;
+import javafx.beans.property.ReadOnlyDoubleProperty;
+import javafx.beans.property.ReadOnlyDoubleWrapper;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.apache.commons.lang3.time.DateUtils;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.text.DecimalFormat;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.stream.Collectors;
 
 public class WalletTransactions implements WalletExport {
     private static final long ONE_DAY = 24*60*60*1000L;
-    public static final DateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    private static final int CHUNK_SIZE = 1000;
+    public static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss", Locale.ROOT).withZone(ZoneOffset.UTC);
 
     private final WalletForm walletForm;
-
-    static {
-        DATE_FORMAT.setTimeZone(TimeZone.getTimeZone("UTC"));
-    }
+    private final ReadOnlyDoubleWrapper progressProperty = new ReadOnlyDoubleWrapper(0);
 
     public WalletTransactions(WalletForm walletForm) {
         this.walletForm = walletForm;
@@ -51,6 +55,7 @@ public class WalletTransactions implements WalletExport {
 
     @Override
     public void exportWallet(Wallet wallet, OutputStream outputStream, String password) throws ExportException {
+        progressProperty.set(0);
         WalletTransactionsEntry walletTransactionsEntry = walletForm.getWalletTransactionsEntry();
 
         ExchangeSource exchangeSource = Config.get().getExchangeSource();
@@ -58,14 +63,18 @@ public class WalletTransactions implements WalletExport {
             exchangeSource = ExchangeSource.COINGECKO;
         }
 
-        Currency fiatCurrency = (exchangeSource == ExchangeSource.NONE || !AppServices.onlineProperty().get() ? null : Config.get().getFiatCurrency());
+        Currency fiatCurrency = (exchangeSource == ExchangeSource.NONE ? null : Config.get().getFiatCurrency());
         Map<Date, Double> fiatRates = new HashMap<>();
         if(fiatCurrency != null && !walletTransactionsEntry.getChildren().isEmpty()) {
             LongSummaryStatistics stats = walletTransactionsEntry.getChildren().stream()
                     .map(entry -> ((TransactionEntry)entry).getBlockTransaction().getDate())
                     .filter(Objects::nonNull)
                     .collect(Collectors.summarizingLong(Date::getTime));
-            fiatRates = exchangeSource.getHistoricalExchangeRates(fiatCurrency, new Date(stats.getMin() - ONE_DAY), new Date(stats.getMax()));
+            fiatRates = exchangeSource.getStoredHistoricalExchangeRates(fiatCurrency, new Date(stats.getMin() - ONE_DAY), new Date(stats.getMax()), AppServices.onlineProperty().get());
+            if(fiatRates.isEmpty() && !AppServices.onlineProperty().get()) {
+                //Omit the fiat column when offline and no rates have been stored for this range
+                fiatCurrency = null;
+            }
         }
 
         BitcoinUnit bitcoinUnit = Config.get().getBitcoinUnit();
@@ -73,8 +82,17 @@ public class WalletTransactions implements WalletExport {
             bitcoinUnit = walletForm.getWallet().getAutoUnit();
         }
 
+        UnitFormat format = Config.get().getUnitFormat() == null ? UnitFormat.DOT : Config.get().getUnitFormat();
+        Double currentRate = AppServices.getFiatCurrencyExchangeRate() == null ? null : AppServices.getFiatCurrencyExchangeRate().getBtcRate();
+        RowFormatter rowFormatter = RowFormatter.create(wallet, bitcoinUnit, format, fiatCurrency != null, fiatRates, currentRate);
+
+        List<Entry> entries = new ArrayList<>(walletTransactionsEntry.getChildren());
+        int threads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), entries.size() / CHUNK_SIZE));
+        BasicThreadFactory factory = BasicThreadFactory.builder().namingPattern(wallet.getFullName() + "-csvexport-%d").daemon(true).priority(Thread.NORM_PRIORITY).build();
+        ExecutorService executorService = Executors.newFixedThreadPool(threads, factory);
+
         try {
-            CsvWriter writer = new CsvWriter(outputStream, ',', StandardCharsets.UTF_8);
+            CsvWriter writer = new CsvWriter(new BufferedOutputStream(outputStream), ',', StandardCharsets.UTF_8);
 
             writer.write("Date (UTC)");
             writer.write("Label");
@@ -87,20 +105,22 @@ public class WalletTransactions implements WalletExport {
             writer.write("Txid");
             writer.endRecord();
 
-            for(Entry entry : walletTransactionsEntry.getChildren()) {
-                TransactionEntry txEntry = (TransactionEntry)entry;
-                writer.write(txEntry.getBlockTransaction().getDate() == null ? "Unconfirmed" : DATE_FORMAT.format(txEntry.getBlockTransaction().getDate()));
-                writer.write(txEntry.getLabel());
-                writer.write(getCoinValue(bitcoinUnit, txEntry.getValue()));
-                writer.write(getCoinValue(bitcoinUnit, txEntry.getBalance()));
-                Long fee = getFee(wallet, txEntry.getBlockTransaction());
-                writer.write(fee == null ? "" : getCoinValue(bitcoinUnit, fee));
-                if(fiatCurrency != null) {
-                    Double fiatValue = getFiatValue(txEntry, fiatRates);
-                    writer.write(fiatValue == null ? "" : getFiatValue(fiatValue));
+            //Format chunks of rows in parallel, writing each chunk in order once formatted while keeping a bounded number of chunks in progress
+            Deque<Future<List<String[]>>> pending = new ArrayDeque<>();
+            int written = 0;
+            for(int start = 0; start < entries.size() || !pending.isEmpty(); ) {
+                while(start < entries.size() && pending.size() < threads * 2) {
+                    List<Entry> chunk = entries.subList(start, Math.min(start + CHUNK_SIZE, entries.size()));
+                    RowFormatter chunkFormatter = rowFormatter.copy();
+                    pending.add(executorService.submit(() -> chunk.stream().map(entry -> chunkFormatter.format((TransactionEntry)entry)).toList()));
+                    start += chunk.size();
                 }
-                writer.write(txEntry.getBlockTransaction().getHash().toString());
-                writer.endRecord();
+
+                for(String[] row : pending.removeFirst().get()) {
+                    writer.writeRecord(row);
+                }
+                written += CHUNK_SIZE;
+                progressProperty.set((double)Math.min(written, entries.size()) / entries.size());
             }
 
             if(fiatCurrency != null) {
@@ -109,58 +129,24 @@ public class WalletTransactions implements WalletExport {
             }
 
             writer.close();
+            progressProperty.set(1.0);
         } catch(IOException e) {
             throw new ExportException("Error writing transactions CSV", e);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ExportException("Transactions CSV export was interrupted", e);
+        } catch(ExecutionException e) {
+            throw new ExportException("Error writing transactions CSV", e.getCause());
+        } finally {
+            executorService.shutdownNow();
         }
     }
 
-    private Long getFee(Wallet wallet, BlockTransaction blockTransaction) {
-        long fee = 0L;
-        for(TransactionInput txInput : blockTransaction.getTransaction().getInputs()) {
-            if(txInput.isCoinBase()) {
-                return 0L;
-            }
-
-            BlockTransaction inputTx = wallet.getWalletTransaction(txInput.getOutpoint().getHash());
-            if(inputTx == null || inputTx.getTransaction().getOutputs().size() <= txInput.getOutpoint().getIndex()) {
-                return null;
-            }
-            TransactionOutput spentOutput = inputTx.getTransaction().getOutputs().get((int)txInput.getOutpoint().getIndex());
-            fee += spentOutput.getValue();
-        }
-
-        for(TransactionOutput txOutput : blockTransaction.getTransaction().getOutputs()) {
-            fee -= txOutput.getValue();
-        }
-
-        return fee;
-    }
-
-    private String getCoinValue(BitcoinUnit bitcoinUnit, Long value) {
-        UnitFormat format = Config.get().getUnitFormat() == null ? UnitFormat.DOT : Config.get().getUnitFormat();
-        return BitcoinUnit.BTC.equals(bitcoinUnit) ? format.tableFormatBtcValue(value) : String.format(Locale.ENGLISH, "%d", value);
-    }
-
-    private String getFiatValue(Double value) {
-        UnitFormat format = Config.get().getUnitFormat() == null ? UnitFormat.DOT : Config.get().getUnitFormat();
-        return format.tableFormatCurrencyValue(value);
-    }
-
-    private Double getFiatValue(TransactionEntry txEntry, Map<Date, Double> fiatRates) {
-        Double dayRate = null;
-        if(txEntry.getBlockTransaction().getDate() == null) {
-            if(AppServices.getFiatCurrencyExchangeRate() != null) {
-                dayRate = AppServices.getFiatCurrencyExchangeRate().getBtcRate();
-            }
-        } else {
-            dayRate = fiatRates.get(DateUtils.truncate(txEntry.getBlockTransaction().getDate(), Calendar.DAY_OF_MONTH));
-        }
-
-        if(dayRate != null) {
-            return dayRate * txEntry.getValue() / Transaction.SATOSHIS_PER_BITCOIN;
-        }
-
-        return null;
+    /**
+     * Fractional progress of the current export, updated from the exporting thread as each chunk of rows is written
+     */
+    public ReadOnlyDoubleProperty progressProperty() {
+        return progressProperty.getReadOnlyProperty();
     }
 
     @Override
@@ -182,4 +168,79 @@ public class WalletTransactions implements WalletExport {
     public boolean walletExportRequiresDecryption() {
         return false;
     }
+
+    /**
+     * Formats the CSV row for a transaction. Holds only state read before the export starts, so rows can be formatted on several threads.
+     * DecimalFormat is not thread safe, so each chunk is formatted by its own copy holding separate number formats.
+     */
+    private record RowFormatter(Wallet wallet, BitcoinUnit bitcoinUnit, DecimalFormat btcFormat, DecimalFormat currencyFormat, boolean includeFiat, Map<Date, Double> fiatRates, Double currentRate) {
+        public static RowFormatter create(Wallet wallet, BitcoinUnit bitcoinUnit, UnitFormat format, boolean includeFiat, Map<Date, Double> fiatRates, Double currentRate) {
+            //The formats held by UnitFormat are shared with the UI, so new instances are created from their patterns
+            DecimalFormat btcFormat = new DecimalFormat(format.getTableBtcFormat().toPattern(), format.getDecimalFormatSymbols());
+            DecimalFormat currencyFormat = new DecimalFormat(format.getTableCurrencyFormat().toPattern(), format.getDecimalFormatSymbols());
+            return new RowFormatter(wallet, bitcoinUnit, btcFormat, currencyFormat, includeFiat, fiatRates, currentRate);
+        }
+
+        public RowFormatter copy() {
+            return new RowFormatter(wallet, bitcoinUnit, (DecimalFormat)btcFormat.clone(), (DecimalFormat)currencyFormat.clone(), includeFiat, fiatRates, currentRate);
+        }
+
+        public String[] format(TransactionEntry txEntry) {
+            BlockTransaction blkTx = txEntry.getBlockTransaction();
+            List<String> row = new ArrayList<>(7);
+            row.add(blkTx.getDate() == null ? "Unconfirmed" : DATE_FORMAT.format(blkTx.getDate().toInstant()));
+            row.add(txEntry.getLabel());
+            row.add(getCoinValue(txEntry.getValue()));
+            row.add(getCoinValue(txEntry.getBalance()));
+            Long fee = getFee(blkTx);
+            row.add(fee == null ? "" : getCoinValue(fee));
+            if(includeFiat) {
+                Double fiatValue = getFiatValue(txEntry);
+                row.add(fiatValue == null ? "" : currencyFormat.format(fiatValue));
+            }
+            row.add(blkTx.getHash().toString());
+            return row.toArray(new String[0]);
+        }
+
+        private Long getFee(BlockTransaction blockTransaction) {
+            long fee = 0L;
+            for(TransactionInput txInput : blockTransaction.getTransaction().getInputs()) {
+                if(txInput.isCoinBase()) {
+                    return 0L;
+                }
+
+                BlockTransaction inputTx = wallet.getWalletTransaction(txInput.getOutpoint().getHash());
+                if(inputTx == null || inputTx.getTransaction().getOutputs().size() <= txInput.getOutpoint().getIndex()) {
+                    return null;
+                }
+                TransactionOutput spentOutput = inputTx.getTransaction().getOutputs().get((int)txInput.getOutpoint().getIndex());
+                fee += spentOutput.getValue();
+            }
+
+            for(TransactionOutput txOutput : blockTransaction.getTransaction().getOutputs()) {
+                fee -= txOutput.getValue();
+            }
+
+            return fee;
+        }
+
+        private String getCoinValue(Long value) {
+            return BitcoinUnit.BTC.equals(bitcoinUnit) ? btcFormat.format(value.doubleValue() / Transaction.SATOSHIS_PER_BITCOIN) : String.format(Locale.ENGLISH, "%d", value);
+        }
+
+        private Double getFiatValue(TransactionEntry txEntry) {
+            Double dayRate;
+            if(txEntry.getBlockTransaction().getDate() == null) {
+                dayRate = currentRate;
+            } else {
+                dayRate = fiatRates.get(DateUtils.truncate(txEntry.getBlockTransaction().getDate(), Calendar.DAY_OF_MONTH));
+            }
+
+            if(dayRate != null) {
+                return dayRate * txEntry.getValue() / Transaction.SATOSHIS_PER_BITCOIN;
+            }
+
+            return null;
+        }
+    }
 }
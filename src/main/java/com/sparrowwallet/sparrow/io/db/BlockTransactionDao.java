@@ -5,15 +5,17 @@ import com.sparrowwallet.drongo.wallet.BlockTransaction;
 import com.sparrowwallet.drongo.wallet.Wallet;
 import org.jdbi.v3.sqlobject.config.RegisterRowMapper;
 import org.jdbi.v3.sqlobject.customizer.Bind;
+import org.jdbi.v3.sqlobject.customizer.BindList;
 import org.jdbi.v3.sqlobject.statement.GetGeneratedKeys;
+import org.jdbi.v3.sqlobject.statement.SqlBatch;
 import org.jdbi.v3.sqlobject.statement.SqlQuery;
 import org.jdbi.v3.sqlobject.statement.SqlUpdate;
 
-import java.util.Date;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
 
 public interface BlockTransactionDao {
+    int LOOKUP_CHUNK_SIZE = 1000;
+
     @SqlQuery("select id, txid, hash, height, date, fee, label, transaction, blockHash from blockTransaction where wallet = ? order by id")
     @RegisterRowMapper(BlockTransactionMapper.class)
     Map<Sha256Hash, BlockTransaction> getForWalletId(Long id);
@@ -22,6 +24,10 @@ public interface BlockTransactionDao {
     @RegisterRowMapper(BlockTransactionMapper.class)
     Map<Sha256Hash, BlockTransaction> getForTxId(byte[] id);
 
+    @SqlQuery("select txid, id from blockTransaction where txid in (<txids>)")
+    @RegisterRowMapper(BlockTransactionIdMapper.class)
+    Map<Sha256Hash, Long> getIdsForTxIds(@BindList("txids") List<byte[]> txids);
+
     @SqlUpdate("insert into blockTransaction (txid, hash, height, date, fee, label, transaction, blockHash, wallet) values (?, ?, ?, ?, ?, ?, ?, ?, ?)")
     @GetGeneratedKeys("id")
     long insertBlockTransaction(byte[] txid, byte[] hash, int height, Date date, Long fee, String label, byte[] transaction, byte[] blockHash, long wallet);
@@ -29,6 +35,13 @@ public interface BlockTransactionDao {
     @SqlUpdate("update blockTransaction set txid = ?, hash = ?, height = ?, date = ?, fee = ?, label = ?, transaction = ?, blockHash = ?, wallet = ? where id = ?")
     void updateBlockTransaction(byte[] txid, byte[] hash, int height, Date date, Long fee, String label, byte[] transaction, byte[] blockHash, long wallet, long id);
 
+    @SqlBatch("insert into blockTransaction (txid, hash, height, date, fee, label, transaction, blockHash, wallet) values (?, ?, ?, ?, ?, ?, ?, ?, ?)")
+    @GetGeneratedKeys("id")
+    long[] insertBlockTransactions(List<byte[]> txids, List<byte[]> hashes, List<Integer> heights, List<Date> dates, List<Long> fees, List<String> labels, List<byte[]> transactions, List<byte[]> blockHashes, long wallet);
+
+    @SqlBatch("update blockTransaction set txid = ?, hash = ?, height = ?, date = ?, fee = ?, label = ?, transaction = ?, blockHash = ?, wallet = ? where id = ?")
+    void updateBlockTransactions(List<byte[]> txids, List<byte[]> hashes, List<Integer> heights, List<Date> dates, List<Long> fees, List<String> labels, List<byte[]> transactions, List<byte[]> blockHashes, long wallet, List<Long> ids);
+
     @SqlUpdate("update blockTransaction set label = :label where id = :id")
     void updateLabel(@Bind("id") long id, @Bind("label") String label);
 
@@ -37,10 +50,11 @@ public interface BlockTransactionDao {
 
     default void addBlockTransactions(Wallet wallet) {
         Map<Sha256Hash, BlockTransaction> walletTransactions = new HashMap<>(wallet.getTransactions());
-        for(Map.Entry<Sha256Hash, BlockTransaction> blkTxEntry : walletTransactions.entrySet()) {
-            blkTxEntry.getValue().setId(null);
-            addOrUpdate(wallet, blkTxEntry.getKey(), blkTxEntry.getValue());
+        for(BlockTransaction blkTx : walletTransactions.values()) {
+            blkTx.setId(null);
         }
+
+        addOrUpdateAll(wallet, walletTransactions);
     }
 
     default void addOrUpdate(Wallet wallet, Sha256Hash txid, BlockTransaction blkTx) {
@@ -60,6 +74,64 @@ public interface BlockTransactionDao {
         }
     }
 
+    /**
+     * Inserts or updates the provided transactions using batched statements, looking up existing rows with one query per chunk of txids
+     */
+    default void addOrUpdateAll(Wallet wallet, Map<Sha256Hash, BlockTransaction> blockTransactions) {
+        List<Sha256Hash> txids = new ArrayList<>(blockTransactions.keySet());
+        Map<Sha256Hash, Long> existingIds = new HashMap<>();
+        for(int i = 0; i < txids.size(); i += LOOKUP_CHUNK_SIZE) {
+            List<byte[]> chunk = txids.subList(i, Math.min(i + LOOKUP_CHUNK_SIZE, txids.size())).stream().map(Sha256Hash::getBytes).toList();
+            existingIds.putAll(getIdsForTxIds(chunk));
+        }
+
+        List<BlockTransaction> inserts = new ArrayList<>();
+        List<Sha256Hash> insertTxids = new ArrayList<>();
+        List<BlockTransaction> updates = new ArrayList<>();
+        List<Sha256Hash> updateTxids = new ArrayList<>();
+        for(Sha256Hash txid : txids) {
+            BlockTransaction blkTx = blockTransactions.get(txid);
+            Long existingId = existingIds.get(txid);
+            if(existingId == null && blkTx.getId() == null) {
+                inserts.add(blkTx);
+                insertTxids.add(txid);
+            } else {
+                blkTx.setId(existingId != null ? existingId : blkTx.getId());
+                updates.add(blkTx);
+                updateTxids.add(txid);
+            }
+        }
+
+        if(!inserts.isEmpty()) {
+            long[] ids = insertBlockTransactions(insertTxids.stream().map(Sha256Hash::getBytes).toList(), inserts.stream().map(blkTx -> blkTx.getHash().getBytes()).toList(),
+                    inserts.stream().map(BlockTransaction::getHeight).toList(), inserts.stream().map(BlockTransaction::getDate).toList(), inserts.stream().map(BlockTransaction::getFee).toList(),
+                    inserts.stream().map(blkTx -> truncate(blkTx.getLabel())).toList(), inserts.stream().map(this::getTransactionBytes).toList(),
+                    inserts.stream().map(this::getBlockHashBytes).toList(), wallet.getId());
+            for(int i = 0; i < inserts.size(); i++) {
+                inserts.get(i).setId(ids[i]);
+            }
+        }
+
+        if(!updates.isEmpty()) {
+            updateBlockTransactions(updateTxids.stream().map(Sha256Hash::getBytes).toList(), updates.stream().map(blkTx -> blkTx.getHash().getBytes()).toList(),
+                    updates.stream().map(BlockTransaction::getHeight).toList(), updates.stream().map(BlockTransaction::getDate).toList(), updates.stream().map(BlockTransaction::getFee).toList(),
+                    updates.stream().map(blkTx -> truncate(blkTx.getLabel())).toList(), updates.stream().map(this::getTransactionBytes).toList(),
+                    updates.stream().map(this::getBlockHashBytes).toList(), wallet.getId(), updates.stream().map(BlockTransaction::getId).toList());
+        }
+    }
+
+    default byte[] getTransactionBytes(BlockTransaction blkTx) {
+        if(blkTx instanceof LazyBlockTransaction lazyBlkTx) {
+            return lazyBlkTx.getTransactionBytes();
+        }
+
+        return blkTx.getTransaction() == null ? null : blkTx.getTransaction().bitcoinSerialize();
+    }
+
+    default byte[] getBlockHashBytes(BlockTransaction blkTx) {
+        return blkTx.getBlockHash() == null ? null : blkTx.getBlockHash().getBytes();
+    }
+
     default String truncate(String label) {
         return (label != null && label.length() > BlockTransaction.MAX_LABEL_LENGTH ? label.substring(0, BlockTransaction.MAX_LABEL_LENGTH) : label);
     }
@@ -0,0 +1,49 @@
+package com.sparrowwallet.sparrow.io.db;
+
+import com.sparrowwallet.drongo.wallet.BlockTransactionHashIndex;
+import com.sparrowwallet.drongo.wallet.WalletNode;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Collects blockTransactionHashIndex rows as parallel column lists, so they can be written with a single prepared batch statement.
+ */
+class BlockTransactionHashIndexBatch {
+    final List<BlockTransactionHashIndex> txos = new ArrayList<>();
+    final List<byte[]> hashes = new ArrayList<>();
+    final List<Integer> heights = new ArrayList<>();
+    final List<Date> dates = new ArrayList<>();
+    final List<Long> fees = new ArrayList<>();
+    final List<String> labels = new ArrayList<>();
+    final List<Long> indexes = new ArrayList<>();
+    final List<Long> values = new ArrayList<>();
+    final List<Integer> statuses = new ArrayList<>();
+    final List<Long> spentBys = new ArrayList<>();
+    final List<Long> nodes = new ArrayList<>();
+    final List<Long> ids = new ArrayList<>();
+
+    void add(WalletNode addressNode, BlockTransactionHashIndex txo, Long spentById, String label) {
+        txos.add(txo);
+        hashes.add(txo.getHash().getBytes());
+        heights.add(txo.getHeight());
+        dates.add(txo.getDate());
+        fees.add(txo.getFee());
+        labels.add(label);
+        indexes.add(txo.getIndex());
+        values.add(txo.getValue());
+        statuses.add(txo.getStatus() == null ? null : txo.getStatus().ordinal());
+        spentBys.add(spentById);
+        nodes.add(addressNode.getId());
+        ids.add(txo.getId());
+    }
+
+    boolean isEmpty() {
+        return txos.isEmpty();
+    }
+
+    int size() {
+        return txos.size();
+    }
+}
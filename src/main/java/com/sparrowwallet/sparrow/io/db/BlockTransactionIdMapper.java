@@ -0,0 +1,16 @@
+package com.sparrowwallet.sparrow.io.db;
+
+import com.sparrowwallet.drongo.protocol.Sha256Hash;
+import org.jdbi.v3.core.mapper.RowMapper;
+import org.jdbi.v3.core.statement.StatementContext;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+
+public class BlockTransactionIdMapper implements RowMapper<Map.Entry<Sha256Hash, Long>> {
+    @Override
+    public Map.Entry<Sha256Hash, Long> map(ResultSet rs, StatementContext ctx) throws SQLException {
+        return Map.entry(Sha256Hash.wrap(rs.getBytes("txid")), rs.getLong("id"));
+    }
+}
@@ -1,7 +1,6 @@
 package com.sparrowwallet.sparrow.io.db;
 
 import com.sparrowwallet.drongo.protocol.Sha256Hash;
-import com.sparrowwallet.drongo.protocol.Transaction;
 import com.sparrowwallet.drongo.wallet.BlockTransaction;
 import org.jdbi.v3.core.mapper.RowMapper;
 import org.jdbi.v3.core.statement.StatementContext;
@@ -16,19 +15,16 @@ public class BlockTransactionMapper implements RowMapper<Map.Entry<Sha256Hash, B
     public Map.Entry<Sha256Hash, BlockTransaction> map(ResultSet rs, StatementContext ctx) throws SQLException {
         Sha256Hash txid = Sha256Hash.wrap(rs.getBytes("txid"));
 
+        //The transaction is parsed on first access rather than when the wallet is loaded
         byte[] txBytes = rs.getBytes("transaction");
-        Transaction transaction = null;
-        if(txBytes != null) {
-            transaction = new Transaction(txBytes);
-        }
 
         Long fee = rs.getLong("fee");
         if(rs.wasNull()) {
             fee = null;
         }
 
-        BlockTransaction blockTransaction = new BlockTransaction(Sha256Hash.wrap(rs.getBytes("hash")), rs.getInt("height"), rs.getTimestamp("date"),
-                fee, transaction, rs.getBytes("blockHash") == null ? null : Sha256Hash.wrap(rs.getBytes("blockHash")), rs.getString("label"));
+        BlockTransaction blockTransaction = new LazyBlockTransaction(Sha256Hash.wrap(rs.getBytes("hash")), rs.getInt("height"), rs.getTimestamp("date"),
+                fee, txBytes, rs.getBytes("blockHash") == null ? null : Sha256Hash.wrap(rs.getBytes("blockHash")), rs.getString("label"));
         blockTransaction.setId(rs.getLong("id"));
 
         return new Map.Entry<>() {
@@ -0,0 +1,60 @@
+package com.sparrowwallet.sparrow.io.db;
+
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.generic.GenericType;
+
+import java.util.Map;
+
+/**
+ * Decides when a wallet database should be compacted, based on the MVStore statistics H2 reports in INFORMATION_SCHEMA.SETTINGS.
+ * Compacting moves the live data to the start of the file and truncates it, which is only worthwhile once a significant part of the file holds superseded data.
+ */
+class DbMaintenance {
+    //Files smaller than this are not worth compacting
+    static final long MIN_FILE_SIZE = 4 * 1024 * 1024;
+    //Compact when less than this percentage of the file holds live data
+    static final int LOW_FILL_RATE = 50;
+    //Compact at this higher fill rate once more than the size of the file has been written since the last compaction
+    static final int HIGH_FILL_RATE = 80;
+
+    private long previousBytesWritten;
+    private long lastBytesWritten;
+
+    Stats getStats(Handle handle) {
+        Map<String, String> settings = handle.createQuery("select SETTING_NAME, SETTING_VALUE from INFORMATION_SCHEMA.SETTINGS where SETTING_NAME like 'info.%'")
+                .setMapKeyColumn("SETTING_NAME").setMapValueColumn("SETTING_VALUE").collectInto(new GenericType<Map<String, String>>() {});
+
+        long writeBytes = getLong(settings, "info.FILE_WRITE_BYTES");
+        //The statistics restart each time the database is opened, so carry over what was written before
+        if(writeBytes < lastBytesWritten) {
+            previousBytesWritten += lastBytesWritten;
+        }
+        lastBytesWritten = writeBytes;
+
+        return new Stats(getLong(settings, "info.FILE_SIZE"), (int)getLong(settings, "info.CHUNKS_FILL_RATE"), previousBytesWritten + writeBytes);
+    }
+
+    boolean needsCompaction(Stats stats) {
+        //A fill rate of zero means the statistic is not available
+        if(stats.fileSize() < MIN_FILE_SIZE || stats.chunksFillRate() <= 0) {
+            return false;
+        }
+
+        return stats.chunksFillRate() < LOW_FILL_RATE || (stats.chunksFillRate() < HIGH_FILL_RATE && stats.bytesWritten() > stats.fileSize());
+    }
+
+    void compacted() {
+        previousBytesWritten = 0;
+        lastBytesWritten = 0;
+    }
+
+    private long getLong(Map<String, String> settings, String name) {
+        try {
+            return Long.parseLong(settings.get(name));
+        } catch(NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    record Stats(long fileSize, int chunksFillRate, long bytesWritten) {}
+}
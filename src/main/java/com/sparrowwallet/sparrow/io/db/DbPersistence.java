@@ -21,6 +21,7 @@ import org.flywaydb.core.Flyway;
 import org.flywaydb.core.api.FlywayException;
 import org.flywaydb.core.api.exception.FlywayValidateException;
 import org.h2.tools.ChangeFileEncryption;
+import org.jdbi.v3.core.Handle;
 import org.jdbi.v3.core.Jdbi;
 import org.jdbi.v3.core.h2.H2DatabasePlugin;
 import org.jdbi.v3.sqlobject.SqlObjectPlugin;
@@ -35,9 +36,7 @@ import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.security.SecureRandom;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -54,13 +53,35 @@ public class DbPersistence implements Persistence {
     private static final String H2_USER = "sa";
     private static final String H2_PASSWORD = "";
     public static final String MIGRATION_RESOURCES_DIR = "com/sparrowwallet/sparrow/sql/";
+    //Window over which wallet updates are coalesced into a single transaction
+    private static final long UPDATE_COALESCE_MILLIS = 250;
+    private static final long SHUTDOWN_FLUSH_SECS = 30;
+    //Child wallets are loaded concurrently, bounded well below the connection pool size as H2 serializes much of the work on the MVStore
+    private static final int MAX_LOAD_THREADS = 4;
+    //Maintenance is only considered once the database has not been written to for this period
+    private static final long MAINTENANCE_IDLE_MILLIS = 60 * 1000;
+    //Closing the database compacts for at most this period, continuing the next time it is closed if the file is still sparse
+    private static final int MAX_COMPACT_MILLIS = 5 * 1000;
 
     private HikariDataSource dataSource;
     private AsymmetricKeyDeriver keyDeriver;
 
     private Wallet masterWallet;
     private final Map<Wallet, DirtyPersistables> dirtyPersistablesMap = new HashMap<>();
-    private ExecutorService updateExecutor;
+    private ScheduledExecutorService updateExecutor;
+    private Thread shutdownHook;
+
+    //Accessed only from the update executor thread
+    private final Set<Wallet> pendingUpdates = new LinkedHashSet<>();
+    private Storage pendingStorage;
+    private String pendingPassword;
+    private ScheduledFuture<?> pendingFlush;
+    private ScheduledFuture<?> pendingMaintenance;
+    private final DbMaintenance maintenance = new DbMaintenance();
+    private DbMaintenance.Stats compactionStats;
+    private volatile boolean compactOnClose;
+    private volatile Set<String> schemas;
+    private final Map<Wallet, PersistedHistory> persistedHistories = new ConcurrentHashMap<>();
 
     public DbPersistence() {
         EventManager.get().register(this);
@@ -91,6 +112,7 @@ public class DbPersistence implements Persistence {
         if(masterWallet == null) {
             throw new StorageException("The wallet file was corrupted. Check the backups folder for previous copies.");
         }
+        addPersistedHistory(masterWallet);
 
         Map<WalletAndKey, Storage> childWallets = loadChildWallets(storage, masterWallet, encryptionKey);
         masterWallet.setChildWallets(childWallets.keySet().stream().map(WalletAndKey::getWallet).collect(Collectors.toList()));
@@ -107,19 +129,46 @@ public class DbPersistence implements Persistence {
         });
 
         List<String> childSchemas = schemas.stream().filter(schema -> schema.startsWith(WALLET_SCHEMA_PREFIX) && !schema.equals(MASTER_SCHEMA)).collect(Collectors.toList());
-        Map<WalletAndKey, Storage> childWallets = new TreeMap<>();
         for(String schema : childSchemas) {
             migrate(storage, schema, encryptionKey);
+        }
 
+        Map<String, Wallet> schemaWallets = new LinkedHashMap<>();
+        if(!childSchemas.isEmpty()) {
+            //Each schema is read on its own pooled connection, as the schema is set per connection
             Jdbi childJdbi = getJdbi(storage, getFilePassword(encryptionKey));
-            Wallet wallet = childJdbi.withHandle(handle -> {
-                WalletDao walletDao = handle.attach(WalletDao.class);
-                Wallet childWallet = walletDao.getMainWallet(schema, null);
-                childWallet.setName(schema.substring(WALLET_SCHEMA_PREFIX.length()));
-                childWallet.setMasterWallet(masterWallet);
-                return childWallet;
-            });
-            childWallets.put(new WalletAndKey(wallet, encryptionKey, keyDeriver, Collections.emptyMap()), storage);
+            BasicThreadFactory factory = BasicThreadFactory.builder().namingPattern(masterWallet.getFullName() + "-dbloader-%d").daemon(true).priority(Thread.NORM_PRIORITY).build();
+            ExecutorService loadExecutor = Executors.newFixedThreadPool(Math.min(childSchemas.size(), MAX_LOAD_THREADS), factory);
+            try {
+                Map<String, Future<Wallet>> futures = new LinkedHashMap<>();
+                for(String schema : childSchemas) {
+                    futures.put(schema, loadExecutor.submit(() -> childJdbi.withHandle(handle -> {
+                        WalletDao walletDao = handle.attach(WalletDao.class);
+                        return walletDao.getMainWallet(schema, null);
+                    })));
+                }
+
+                for(Map.Entry<String, Future<Wallet>> future : futures.entrySet()) {
+                    schemaWallets.put(future.getKey(), future.getValue().get());
+                }
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new StorageException("Interrupted while loading child wallets", e);
+            } catch(ExecutionException e) {
+                log.error("Failed to load child wallet", e.getCause());
+                throw new StorageException("Failed to load child wallet.\n" + e.getCause().getMessage(), e.getCause());
+            } finally {
+                loadExecutor.shutdownNow();
+            }
+        }
+
+        Map<WalletAndKey, Storage> childWallets = new TreeMap<>();
+        for(Map.Entry<String, Wallet> schemaWallet : schemaWallets.entrySet()) {
+            Wallet childWallet = schemaWallet.getValue();
+            childWallet.setName(schemaWallet.getKey().substring(WALLET_SCHEMA_PREFIX.length()));
+            childWallet.setMasterWallet(masterWallet);
+            addPersistedHistory(childWallet);
+            childWallets.put(new WalletAndKey(childWallet, encryptionKey, keyDeriver, Collections.emptyMap()), storage);
         }
 
         return childWallets;
@@ -160,11 +209,13 @@ public class DbPersistence implements Persistence {
     public void updateWallet(Storage storage, Wallet wallet, ECKey encryptionPubKey) throws StorageException {
         updatePassword(storage, encryptionPubKey);
 
+        String password = getFilePassword(encryptionPubKey);
         updateExecutor.execute(() -> {
-            try {
-                update(storage, wallet, getFilePassword(encryptionPubKey));
-            } catch(Exception e) {
-                log.error("Error updating wallet db", e);
+            pendingUpdates.add(wallet);
+            pendingStorage = storage;
+            pendingPassword = password;
+            if(pendingFlush == null) {
+                pendingFlush = updateExecutor.schedule(this::flushUpdates, UPDATE_COALESCE_MILLIS, TimeUnit.MILLISECONDS);
             }
         });
     }
@@ -172,7 +223,103 @@ public class DbPersistence implements Persistence {
     private synchronized void createUpdateExecutor(Wallet masterWallet) {
         if(updateExecutor == null) {
             BasicThreadFactory factory = BasicThreadFactory.builder().namingPattern(masterWallet.getFullName() + "-dbupdater").daemon(true).priority(Thread.NORM_PRIORITY).build();
-            updateExecutor = Executors.newSingleThreadExecutor(factory);
+            updateExecutor = Executors.newSingleThreadScheduledExecutor(factory);
+            shutdownHook = new Thread(this::flushOnShutdown, masterWallet.getFullName() + "-dbflush");
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
+        }
+    }
+
+    private void flushUpdates() {
+        if(pendingFlush != null) {
+            pendingFlush.cancel(false);
+            pendingFlush = null;
+        }
+
+        if(pendingUpdates.isEmpty()) {
+            return;
+        }
+
+        List<Wallet> wallets = new ArrayList<>(pendingUpdates);
+        pendingUpdates.clear();
+
+        try {
+            update(pendingStorage, wallets, pendingPassword);
+        } catch(Exception e) {
+            log.error("Error updating wallet db", e);
+        }
+
+        scheduleMaintenance();
+    }
+
+    private void scheduleMaintenance() {
+        cancelMaintenance();
+        if(updateExecutor.isShutdown()) {
+            //The final flush on close runs after shutdown, when no further tasks can be scheduled
+            return;
+        }
+
+        pendingMaintenance = updateExecutor.schedule(this::runMaintenance, MAINTENANCE_IDLE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelMaintenance() {
+        if(pendingMaintenance != null) {
+            pendingMaintenance.cancel(false);
+            pendingMaintenance = null;
+        }
+    }
+
+    /**
+     * Checks the MVStore statistics once the database is idle, marking it for compaction on close if enough of the file holds superseded data.
+     * The database is compacted when closed rather than here, as compacting requires reopening it, which cannot be done safely while the pool is shared.
+     */
+    private void runMaintenance() {
+        pendingMaintenance = null;
+        if(!pendingUpdates.isEmpty() || pendingStorage == null) {
+            return;
+        }
+
+        try {
+            Jdbi jdbi = getJdbi(pendingStorage, pendingPassword);
+            compactionStats = jdbi.withHandle(maintenance::getStats);
+            compactOnClose = maintenance.needsCompaction(compactionStats);
+        } catch(Exception e) {
+            log.error("Error checking wallet db statistics", e);
+        }
+    }
+
+    /**
+     * Compacts the database file after the pool has been closed, if the last maintenance check found it necessary.
+     * H2 compacts for up to MAX_COMPACT_TIME when the database is closed, which is only read when the database is opened,
+     * so the database is briefly reopened with the bound and shut down again. This keeps the time added to closing the wallet bounded.
+     */
+    private void compact() {
+        if(!compactOnClose || pendingStorage == null) {
+            return;
+        }
+
+        compactOnClose = false;
+        try {
+            File walletFile = pendingStorage.getWalletFile();
+            long sizeBefore = walletFile.length();
+            long start = System.currentTimeMillis();
+            Jdbi compactJdbi = Jdbi.create(getUrl(walletFile, pendingPassword) + ";MAX_COMPACT_TIME=" + MAX_COMPACT_MILLIS, H2_USER, getConnectionPassword(pendingPassword));
+            compactJdbi.useHandle(handle -> handle.execute("SHUTDOWN"));
+            maintenance.compacted();
+
+            log.info("Compacted " + walletFile.getName() + " in " + (System.currentTimeMillis() - start) + "ms at " + compactionStats.chunksFillRate() + "% fill rate, reclaiming " + (sizeBefore - walletFile.length()) + " bytes");
+        } catch(Exception e) {
+            log.error("Error compacting wallet db", e);
+        }
+    }
+
+    private void flushOnShutdown() {
+        ExecutorService executor = updateExecutor;
+        if(executor != null && !executor.isShutdown()) {
+            try {
+                executor.submit(this::flushUpdates).get(SHUTDOWN_FLUSH_SECS, TimeUnit.SECONDS);
+            } catch(Exception e) {
+                log.error("Error flushing wallet db updates on shutdown", e);
+            }
         }
     }
 
@@ -191,207 +338,296 @@ public class DbPersistence implements Persistence {
         return walletFile;
     }
 
-    private void update(Storage storage, Wallet wallet, String password) throws StorageException {
-        DirtyPersistables dirtyPersistables = dirtyPersistablesMap.get(wallet);
-        if(dirtyPersistables == null) {
-            return;
-        }
+    private void update(Storage storage, List<Wallet> wallets, String password) throws StorageException {
+        Set<String> existingSchemas = getSchemas(storage, password);
+        Map<Wallet, DirtyPersistables> walletUpdates = new LinkedHashMap<>();
+        List<Wallet> deletedWallets = new ArrayList<>();
+        for(Wallet wallet : wallets) {
+            DirtyPersistables dirtyPersistables = dirtyPersistablesMap.get(wallet);
+            if(dirtyPersistables == null) {
+                continue;
+            }
 
-        log.debug("Updating " + wallet.getFullName() + " on " + Thread.currentThread().getName());
-        log.debug(dirtyPersistables.toString());
+            if(!existingSchemas.contains(getSchema(wallet))) {
+                log.debug("Not persisting update for missing schema " + getSchema(wallet));
+                continue;
+            }
 
-        Jdbi jdbi = getJdbi(storage, password);
-        List<String> schemas = jdbi.withHandle(handle -> {
-            return handle.createQuery("show schemas").mapTo(String.class).list();
-        });
-        if(!schemas.contains(getSchema(wallet))) {
-            log.debug("Not persisting update for missing schema " + getSchema(wallet));
-            return;
+            log.debug("Updating " + wallet.getFullName() + " on " + Thread.currentThread().getName());
+            log.debug(dirtyPersistables.toString());
+            if(dirtyPersistables.deleteAccount && !wallet.isMasterWallet()) {
+                deletedWallets.add(wallet);
+            } else {
+                walletUpdates.put(wallet, dirtyPersistables);
+            }
         }
 
-        jdbi.useHandle(handle -> {
-            WalletDao walletDao = handle.attach(WalletDao.class);
+        Jdbi jdbi = getJdbi(storage, password);
+        if(!walletUpdates.isEmpty()) {
+            //Apply all coalesced changes in a single transaction so that statements are not each committed separately
             try {
-                if(dirtyPersistables.deleteAccount && !wallet.isMasterWallet()) {
-                    handle.execute("drop schema `" + getSchema(wallet) + "` cascade");
-                    return;
-                }
+                jdbi.useTransaction(handle -> {
+                    for(Map.Entry<Wallet, DirtyPersistables> walletUpdate : walletUpdates.entrySet()) {
+                        update(handle, walletUpdate.getKey(), walletUpdate.getValue());
+                    }
+                });
+            } catch(RuntimeException e) {
+                //The persisted history may have been updated for changes that were rolled back, so fall back to rewriting the dirty nodes
+                walletUpdates.keySet().forEach(persistedHistories::remove);
+                throw e;
+            }
 
-                walletDao.setSchema(getSchema(wallet));
+            walletUpdates.keySet().forEach(dirtyPersistablesMap::remove);
+        }
 
-                if(dirtyPersistables.clearHistory) {
-                    WalletNodeDao walletNodeDao = handle.attach(WalletNodeDao.class);
-                    BlockTransactionDao blockTransactionDao = handle.attach(BlockTransactionDao.class);
-                    DetachedLabelDao detachedLabelDao = handle.attach(DetachedLabelDao.class);
+        //H2 commits DDL implicitly, which would commit a coalesced transaction part way through, so deleted accounts are dropped separately
+        for(Wallet wallet : deletedWallets) {
+            jdbi.useHandle(handle -> handle.execute("drop schema `" + getSchema(wallet) + "` cascade"));
+            dirtyPersistablesMap.remove(wallet);
+            persistedHistories.remove(wallet);
+            schemas = null;
+        }
+    }
+
+    private void update(Handle handle, Wallet wallet, DirtyPersistables dirtyPersistables) {
+        WalletDao walletDao = handle.attach(WalletDao.class);
+        try {
+            walletDao.setSchema(getSchema(wallet));
+
+            if(dirtyPersistables.clearHistory) {
+                WalletNodeDao walletNodeDao = handle.attach(WalletNodeDao.class);
+                BlockTransactionDao blockTransactionDao = handle.attach(BlockTransactionDao.class);
+                DetachedLabelDao detachedLabelDao = handle.attach(DetachedLabelDao.class);
+                PersistedHistory persistedHistory = persistedHistories.get(wallet);
+                if(persistedHistory != null) {
+                    detachedLabelDao.updateAll(wallet, persistedHistory.getDetachedLabels());
+                    persistedHistory.clearHistory();
+                } else {
                     detachedLabelDao.clearAndAddAll(wallet);
-                    walletNodeDao.clearHistory(wallet);
-                    blockTransactionDao.clear(wallet.getId());
                 }
+                walletNodeDao.clearHistory(wallet);
+                blockTransactionDao.clear(wallet.getId());
+            }
 
-                if(!dirtyPersistables.historyNodes.isEmpty()) {
-                    WalletNodeDao walletNodeDao = handle.attach(WalletNodeDao.class);
-                    BlockTransactionDao blockTransactionDao = handle.attach(BlockTransactionDao.class);
-                    Set<Sha256Hash> referencedTxIds = new HashSet<>();
-                    for(WalletNode addressNode : dirtyPersistables.historyNodes) {
-                        if(addressNode.getId() == null) {
-                            WalletNode purposeNode = wallet.getNode(addressNode.getKeyPurpose());
-                            if(purposeNode.getId() == null) {
-                                long purposeNodeId = walletNodeDao.insertWalletNode(purposeNode.getDerivationPath(), purposeNode.getLabel(), wallet.getId(), null, null);
-                                purposeNode.setId(purposeNodeId);
-                            }
+            if(!dirtyPersistables.historyNodes.isEmpty()) {
+                WalletNodeDao walletNodeDao = handle.attach(WalletNodeDao.class);
+                BlockTransactionDao blockTransactionDao = handle.attach(BlockTransactionDao.class);
+                Map<WalletNode, Set<WalletNode>> newAddressNodes = new LinkedHashMap<>();
+                for(WalletNode addressNode : dirtyPersistables.historyNodes) {
+                    if(addressNode.getId() == null) {
+                        WalletNode purposeNode = wallet.getNode(addressNode.getKeyPurpose());
+                        if(purposeNode.getId() == null) {
+                            long purposeNodeId = walletNodeDao.insertWalletNode(purposeNode.getDerivationPath(), purposeNode.getLabel(), wallet.getId(), null, null);
+                            purposeNode.setId(purposeNodeId);
+                        }
 
-                            // Ensure address is generated and cached before saving (important for MuSig2)
-                            if(addressNode.getAddress() == null) {
-                                wallet.getAddress(addressNode);
-                            }
-                            long nodeId = walletNodeDao.insertWalletNode(addressNode.getDerivationPath(), addressNode.getLabel(), wallet.getId(), purposeNode.getId(), addressNode.getAddressData());
-                            addressNode.setId(nodeId);
-                        } else if(addressNode.getAddress() != null) {
-                            walletNodeDao.updateNodeAddressData(addressNode.getId(), addressNode.getAddressData());
+                        // Ensure address is generated and cached before saving (important for MuSig2)
+                        if(addressNode.getAddress() == null) {
+                            wallet.getAddress(addressNode);
                         }
+                        newAddressNodes.computeIfAbsent(purposeNode, k -> new LinkedHashSet<>()).add(addressNode);
+                    } else if(addressNode.getAddress() != null) {
+                        walletNodeDao.updateNodeAddressData(addressNode.getId(), addressNode.getAddressData());
+                    }
+                }
+                for(Map.Entry<WalletNode, Set<WalletNode>> purposeEntry : newAddressNodes.entrySet()) {
+                    walletNodeDao.addWalletNodes(wallet, purposeEntry.getKey(), new ArrayList<>(purposeEntry.getValue()));
+                }
 
+                Set<WalletNode> historyNodes = new LinkedHashSet<>(dirtyPersistables.historyNodes);
+                Set<WalletNode> insertedNodes = newAddressNodes.values().stream().flatMap(Set::stream).collect(Collectors.toSet());
+                PersistedHistory persistedHistory = persistedHistories.get(wallet);
+                Set<Sha256Hash> referencedTxIds = new HashSet<>();
+                List<Long> removedIds = new ArrayList<>();
+                for(WalletNode addressNode : historyNodes) {
+                    if(persistedHistory != null && persistedHistory.containsNode(addressNode)) {
+                        //Only write the rows and transactions that have changed since the node was last persisted
+                        for(BlockTransactionHashIndex txo : addressNode.getTransactionOutputs()) {
+                            if(txo.isSpent() && !persistedHistory.isUnchanged(addressNode, txo.getSpentBy(), null)) {
+                                referencedTxIds.add(txo.getSpentBy().getHash());
+                            }
+                            if(!persistedHistory.isUnchanged(addressNode, txo, txo.isSpent() ? txo.getSpentBy().getId() : null)) {
+                                referencedTxIds.add(txo.getHash());
+                            }
+                        }
+                        removedIds.addAll(persistedHistory.getRemovedIds(addressNode));
+                    } else {
                         List<BlockTransactionHashIndex> txos = addressNode.getTransactionOutputs().stream().flatMap(txo -> txo.isSpent() ? Stream.of(txo, txo.getSpentBy()) : Stream.of(txo)).collect(Collectors.toList());
-                        List<Long> existingIds = txos.stream().map(Persistable::getId).filter(Objects::nonNull).collect(Collectors.toList());
                         referencedTxIds.addAll(txos.stream().map(BlockTransactionHash::getHash).collect(Collectors.toSet()));
 
-                        walletNodeDao.deleteNodeTxosNotInList(addressNode, existingIds.isEmpty() ? List.of(-1L) : existingIds);
-                        for(BlockTransactionHashIndex txo : addressNode.getTransactionOutputs()) {
-                            walletNodeDao.addOrUpdate(addressNode, txo);
+                        if(!insertedNodes.contains(addressNode)) {
+                            List<Long> existingIds = txos.stream().map(Persistable::getId).filter(Objects::nonNull).collect(Collectors.toList());
+                            walletNodeDao.deleteNodeTxosNotInList(addressNode, existingIds.isEmpty() ? List.of(-1L) : existingIds);
                         }
                     }
-                    for(Sha256Hash txid : referencedTxIds) {
-                        BlockTransaction blkTx = wallet.getTransactions().get(txid);
-                        //May be null for a nested wallet if still updating
-                        if(blkTx != null) {
-                            blockTransactionDao.addOrUpdate(wallet, txid, blkTx);
-                        }
+                }
+                walletNodeDao.addOrUpdateAll(historyNodes, persistedHistory);
+                //Removed rows are deleted after updates so that no remaining row still references a deleted spending row
+                if(!removedIds.isEmpty()) {
+                    walletNodeDao.deleteBlockTransactionHashIndexes(removedIds);
+                }
+
+                Map<Sha256Hash, BlockTransaction> referencedTransactions = new LinkedHashMap<>();
+                for(Sha256Hash txid : referencedTxIds) {
+                    BlockTransaction blkTx = wallet.getTransactions().get(txid);
+                    //May be null for a nested wallet if still updating
+                    if(blkTx != null) {
+                        referencedTransactions.put(txid, blkTx);
                     }
-                    if(!dirtyPersistables.clearHistory) {
-                        DetachedLabelDao detachedLabelDao = handle.attach(DetachedLabelDao.class);
+                }
+                blockTransactionDao.addOrUpdateAll(wallet, referencedTransactions);
+                if(!dirtyPersistables.clearHistory) {
+                    DetachedLabelDao detachedLabelDao = handle.attach(DetachedLabelDao.class);
+                    if(persistedHistory != null) {
+                        detachedLabelDao.updateAll(wallet, persistedHistory.getDetachedLabels());
+                    } else {
                         detachedLabelDao.clearAndAddAll(wallet);
                     }
                 }
 
-                if(dirtyPersistables.label != null) {
-                    walletDao.updateLabel(wallet.getId(), dirtyPersistables.label.length() > Wallet.MAX_LABEL_LENGTH ? dirtyPersistables.label.substring(0, Wallet.MAX_LABEL_LENGTH) : dirtyPersistables.label);
+                if(persistedHistory != null) {
+                    historyNodes.forEach(persistedHistory::addNode);
                 }
+            }
 
-                if(dirtyPersistables.blockHeight != null) {
-                    walletDao.updateStoredBlockHeight(wallet.getId(), dirtyPersistables.blockHeight);
-                }
+            if(dirtyPersistables.label != null) {
+                walletDao.updateLabel(wallet.getId(), dirtyPersistables.label.length() > Wallet.MAX_LABEL_LENGTH ? dirtyPersistables.label.substring(0, Wallet.MAX_LABEL_LENGTH) : dirtyPersistables.label);
+            }
 
-                if(dirtyPersistables.gapLimit != null) {
-                    walletDao.updateGapLimit(wallet.getId(), dirtyPersistables.gapLimit);
-                }
+            if(dirtyPersistables.blockHeight != null) {
+                walletDao.updateStoredBlockHeight(wallet.getId(), dirtyPersistables.blockHeight);
+            }
 
-                if(dirtyPersistables.watchLast != null) {
-                    walletDao.updateWatchLast(wallet.getId(), dirtyPersistables.watchLast);
-                }
+            if(dirtyPersistables.gapLimit != null) {
+                walletDao.updateGapLimit(wallet.getId(), dirtyPersistables.gapLimit);
+            }
 
-                if(!dirtyPersistables.labelEntries.isEmpty()) {
-                    BlockTransactionDao blockTransactionDao = handle.attach(BlockTransactionDao.class);
-                    WalletNodeDao walletNodeDao = handle.attach(WalletNodeDao.class);
-                    for(Entry entry : dirtyPersistables.labelEntries) {
-                        if(entry instanceof TransactionEntry && ((TransactionEntry)entry).getBlockTransaction().getId() != null) {
-                            blockTransactionDao.updateLabel(((TransactionEntry)entry).getBlockTransaction().getId(), blockTransactionDao.truncate(entry.getLabel()));
-                        } else if(entry instanceof NodeEntry) {
-                            WalletNode addressNode = ((NodeEntry)entry).getNode();
-                            if(addressNode.getId() == null) {
-                                WalletNode purposeNode = wallet.getNode(addressNode.getKeyPurpose());
-                                if(purposeNode.getId() == null) {
-                                    long purposeNodeId = walletNodeDao.insertWalletNode(purposeNode.getDerivationPath(), purposeNode.getLabel(), wallet.getId(), null, null);
-                                    purposeNode.setId(purposeNodeId);
-                                }
-
-                                // Ensure address is generated and cached before saving (important for MuSig2)
-                                if(addressNode.getAddress() == null) {
-                                    wallet.getAddress(addressNode);
-                                }
-                                long nodeId = walletNodeDao.insertWalletNode(addressNode.getDerivationPath(), addressNode.getLabel(), wallet.getId(), purposeNode.getId(), addressNode.getAddressData());
-                                addressNode.setId(nodeId);
-                            } else if(addressNode.getAddress() != null) {
-                                walletNodeDao.updateNodeAddressData(addressNode.getId(), addressNode.getAddressData());
+            if(dirtyPersistables.watchLast != null) {
+                walletDao.updateWatchLast(wallet.getId(), dirtyPersistables.watchLast);
+            }
+
+            if(!dirtyPersistables.labelEntries.isEmpty()) {
+                BlockTransactionDao blockTransactionDao = handle.attach(BlockTransactionDao.class);
+                WalletNodeDao walletNodeDao = handle.attach(WalletNodeDao.class);
+                for(Entry entry : dirtyPersistables.labelEntries) {
+                    if(entry instanceof TransactionEntry && ((TransactionEntry)entry).getBlockTransaction().getId() != null) {
+                        blockTransactionDao.updateLabel(((TransactionEntry)entry).getBlockTransaction().getId(), blockTransactionDao.truncate(entry.getLabel()));
+                    } else if(entry instanceof NodeEntry) {
+                        WalletNode addressNode = ((NodeEntry)entry).getNode();
+                        if(addressNode.getId() == null) {
+                            WalletNode purposeNode = wallet.getNode(addressNode.getKeyPurpose());
+                            if(purposeNode.getId() == null) {
+                                long purposeNodeId = walletNodeDao.insertWalletNode(purposeNode.getDerivationPath(), purposeNode.getLabel(), wallet.getId(), null, null);
+                                purposeNode.setId(purposeNodeId);
                             }
 
-                            walletNodeDao.updateNodeLabel(addressNode.getId(), walletNodeDao.truncate(entry.getLabel()));
-                        } else if(entry instanceof HashIndexEntry && ((HashIndexEntry)entry).getHashIndex().getId() != null) {
-                            walletNodeDao.updateTxoLabel(((HashIndexEntry)entry).getHashIndex().getId(), walletNodeDao.truncate(entry.getLabel()));
+                            // Ensure address is generated and cached before saving (important for MuSig2)
+                            if(addressNode.getAddress() == null) {
+                                wallet.getAddress(addressNode);
+                            }
+                            long nodeId = walletNodeDao.insertWalletNode(addressNode.getDerivationPath(), addressNode.getLabel(), wallet.getId(), purposeNode.getId(), addressNode.getAddressData());
+                            addressNode.setId(nodeId);
+                        } else if(addressNode.getAddress() != null) {
+                            walletNodeDao.updateNodeAddressData(addressNode.getId(), addressNode.getAddressData());
                         }
-                    }
-                }
 
-                if(!dirtyPersistables.utxoStatuses.isEmpty()) {
-                    WalletNodeDao walletNodeDao = handle.attach(WalletNodeDao.class);
-                    for(BlockTransactionHashIndex utxo : dirtyPersistables.utxoStatuses) {
-                        walletNodeDao.updateTxoStatus(utxo.getId(), utxo.getStatus() == null ? null : utxo.getStatus().ordinal());
+                        walletNodeDao.updateNodeLabel(addressNode.getId(), walletNodeDao.truncate(entry.getLabel()));
+                    } else if(entry instanceof HashIndexEntry && ((HashIndexEntry)entry).getHashIndex().getId() != null) {
+                        walletNodeDao.updateTxoLabel(((HashIndexEntry)entry).getHashIndex().getId(), walletNodeDao.truncate(entry.getLabel()));
                     }
                 }
+            }
 
-                if(dirtyPersistables.walletConfig) {
-                    WalletConfigDao walletConfigDao = handle.attach(WalletConfigDao.class);
-                    walletConfigDao.addOrUpdate(wallet, wallet.getWalletConfig());
+            if(!dirtyPersistables.utxoStatuses.isEmpty()) {
+                WalletNodeDao walletNodeDao = handle.attach(WalletNodeDao.class);
+                for(BlockTransactionHashIndex utxo : dirtyPersistables.utxoStatuses) {
+                    walletNodeDao.updateTxoStatus(utxo.getId(), utxo.getStatus() == null ? null : utxo.getStatus().ordinal());
                 }
+            }
 
-                if(dirtyPersistables.walletTable != null) {
-                    WalletTableDao walletTableDao = handle.attach(WalletTableDao.class);
-                    walletTableDao.addOrUpdate(wallet, dirtyPersistables.walletTable.getTableType(), dirtyPersistables.walletTable);
-                }
+            if(dirtyPersistables.walletConfig) {
+                WalletConfigDao walletConfigDao = handle.attach(WalletConfigDao.class);
+                walletConfigDao.addOrUpdate(wallet, wallet.getWalletConfig());
+            }
 
-                if(dirtyPersistables.mixConfig) {
-                    MixConfigDao mixConfigDao = handle.attach(MixConfigDao.class);
-                    mixConfigDao.addOrUpdate(wallet, wallet.getMixConfig());
-                }
+            if(dirtyPersistables.walletTable != null) {
+                WalletTableDao walletTableDao = handle.attach(WalletTableDao.class);
+                walletTableDao.addOrUpdate(wallet, dirtyPersistables.walletTable.getTableType(), dirtyPersistables.walletTable);
+            }
 
-                if(!dirtyPersistables.changedUtxoMixes.isEmpty()) {
-                    UtxoMixDataDao utxoMixDataDao = handle.attach(UtxoMixDataDao.class);
-                    for(Map.Entry<Sha256Hash, UtxoMixData> utxoMixDataEntry : dirtyPersistables.changedUtxoMixes.entrySet()) {
-                        utxoMixDataDao.addOrUpdate(wallet, utxoMixDataEntry.getKey(), utxoMixDataEntry.getValue());
-                    }
-                }
+            if(dirtyPersistables.mixConfig) {
+                MixConfigDao mixConfigDao = handle.attach(MixConfigDao.class);
+                mixConfigDao.addOrUpdate(wallet, wallet.getMixConfig());
+            }
 
-                if(!dirtyPersistables.removedUtxoMixes.isEmpty()) {
-                    UtxoMixDataDao utxoMixDataDao = handle.attach(UtxoMixDataDao.class);
-                    List<Long> ids = dirtyPersistables.removedUtxoMixes.values().stream().map(Persistable::getId).filter(Objects::nonNull).collect(Collectors.toList());
-                    utxoMixDataDao.deleteUtxoMixData(ids);
+            if(!dirtyPersistables.changedUtxoMixes.isEmpty()) {
+                UtxoMixDataDao utxoMixDataDao = handle.attach(UtxoMixDataDao.class);
+                for(Map.Entry<Sha256Hash, UtxoMixData> utxoMixDataEntry : dirtyPersistables.changedUtxoMixes.entrySet()) {
+                    utxoMixDataDao.addOrUpdate(wallet, utxoMixDataEntry.getKey(), utxoMixDataEntry.getValue());
                 }
+            }
 
-                if(!dirtyPersistables.labelKeystores.isEmpty()) {
-                    KeystoreDao keystoreDao = handle.attach(KeystoreDao.class);
-                    for(Keystore keystore : dirtyPersistables.labelKeystores) {
-                        keystoreDao.updateLabel(keystore.getLabel(), keystore.getId());
-                    }
-                }
+            if(!dirtyPersistables.removedUtxoMixes.isEmpty()) {
+                UtxoMixDataDao utxoMixDataDao = handle.attach(UtxoMixDataDao.class);
+                List<Long> ids = dirtyPersistables.removedUtxoMixes.values().stream().map(Persistable::getId).filter(Objects::nonNull).collect(Collectors.toList());
+                utxoMixDataDao.deleteUtxoMixData(ids);
+            }
 
-                if(!dirtyPersistables.encryptionKeystores.isEmpty()) {
-                    KeystoreDao keystoreDao = handle.attach(KeystoreDao.class);
-                    for(Keystore keystore : dirtyPersistables.encryptionKeystores) {
-                        keystoreDao.updateKeystoreEncryption(keystore);
-                    }
+            if(!dirtyPersistables.labelKeystores.isEmpty()) {
+                KeystoreDao keystoreDao = handle.attach(KeystoreDao.class);
+                for(Keystore keystore : dirtyPersistables.labelKeystores) {
+                    keystoreDao.updateLabel(keystore.getLabel(), keystore.getId());
                 }
+            }
 
-                if(!dirtyPersistables.registrationKeystores.isEmpty()) {
-                    KeystoreDao keystoreDao = handle.attach(KeystoreDao.class);
-                    for(Keystore keystore : dirtyPersistables.registrationKeystores) {
-                        keystoreDao.updateDeviceRegistration(keystore.getDeviceRegistration(), keystore.getId());
-                    }
+            if(!dirtyPersistables.encryptionKeystores.isEmpty()) {
+                KeystoreDao keystoreDao = handle.attach(KeystoreDao.class);
+                for(Keystore keystore : dirtyPersistables.encryptionKeystores) {
+                    keystoreDao.updateKeystoreEncryption(keystore);
                 }
+            }
 
-                dirtyPersistablesMap.remove(wallet);
-            } finally {
-                walletDao.setSchema(DEFAULT_SCHEMA);
+            if(!dirtyPersistables.registrationKeystores.isEmpty()) {
+                KeystoreDao keystoreDao = handle.attach(KeystoreDao.class);
+                for(Keystore keystore : dirtyPersistables.registrationKeystores) {
+                    keystoreDao.updateDeviceRegistration(keystore.getDeviceRegistration(), keystore.getId());
+                }
             }
-        });
+        } finally {
+            walletDao.setSchema(DEFAULT_SCHEMA);
+        }
+    }
+
+    private void addPersistedHistory(Wallet wallet) {
+        PersistedHistory persistedHistory = new PersistedHistory();
+        persistedHistory.addWallet(wallet);
+        persistedHistories.put(wallet, persistedHistory);
+    }
+
+    private Set<String> getSchemas(Storage storage, String password) throws StorageException {
+        Set<String> existingSchemas = schemas;
+        if(existingSchemas == null) {
+            Jdbi jdbi = getJdbi(storage, password);
+            existingSchemas = new HashSet<>(jdbi.withHandle(handle -> {
+                return handle.createQuery("show schemas").mapTo(String.class).list();
+            }));
+            schemas = existingSchemas;
+        }
+
+        return existingSchemas;
     }
 
     private void cleanAndAddWallet(Storage storage, Wallet wallet, String password) throws StorageException {
         String schema = getSchema(wallet);
         cleanAndMigrate(storage, schema, password);
+        schemas = null;
 
         Jdbi jdbi = getJdbi(storage, password);
-        jdbi.useHandle(handle -> {
+        jdbi.useTransaction(handle -> {
             WalletDao walletDao = handle.attach(WalletDao.class);
             walletDao.addWallet(schema, wallet);
         });
+        addPersistedHistory(wallet);
 
         if(wallet.isMasterWallet()) {
             masterWallet = wallet;
@@ -614,13 +850,21 @@ public class DbPersistence implements Persistence {
     public void close() {
         EventManager.get().unregister(this);
         if(updateExecutor != null) {
+            removeShutdownHook();
+            //Flush any coalesced updates immediately rather than waiting for the scheduled flush, and skip any pending maintenance check
+            updateExecutor.execute(() -> {
+                flushUpdates();
+                cancelMaintenance();
+            });
             updateExecutor.shutdown();
             try {
                 if(!updateExecutor.awaitTermination(1, TimeUnit.MINUTES)) {
                     updateExecutor.shutdownNow();
+                    closeDataSource();
+                } else {
+                    closeDataSource();
+                    compact();
                 }
-
-                closeDataSource();
             } catch (InterruptedException e) {
                 updateExecutor.shutdownNow();
                 closeDataSource();
@@ -630,6 +874,17 @@ public class DbPersistence implements Persistence {
         }
     }
 
+    private void removeShutdownHook() {
+        if(shutdownHook != null) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch(IllegalStateException e) {
+                //JVM is already shutting down
+            }
+            shutdownHook = null;
+        }
+    }
+
     private void closeDataSource() {
         if(dataSource != null && !dataSource.isClosed()) {
             dataSource.close();
@@ -685,7 +940,7 @@ public class DbPersistence implements Persistence {
             HikariConfig config = new HikariConfig();
             config.setJdbcUrl(getUrl(walletFile, password));
             config.setUsername(H2_USER);
-            config.setPassword(password == null ? H2_PASSWORD : password + " " + H2_PASSWORD);
+            config.setPassword(getConnectionPassword(password));
             return new HikariDataSource(config);
         } catch(ClassNotFoundException e) {
             log.error("Cannot find H2 driver", e);
@@ -703,8 +958,13 @@ public class DbPersistence implements Persistence {
         }
     }
 
+    private String getConnectionPassword(String password) {
+        return password == null ? H2_PASSWORD : password + " " + H2_PASSWORD;
+    }
+
+    //Compaction is not forced on close, as it is only run by compact when runMaintenance has found it worthwhile, keeping close time to H2's default limit otherwise
     private String getUrl(File walletFile, String password) {
-        return "jdbc:h2:" + walletFile.getAbsolutePath().replace("." + getType().getExtension(), "") + ";INIT=SET TRACE_LEVEL_FILE=4;TRACE_LEVEL_FILE=4;DEFRAG_ALWAYS=true;MAX_COMPACT_TIME=5000;DATABASE_TO_UPPER=false" + (password == null ? "" : ";CIPHER=AES");
+        return "jdbc:h2:" + walletFile.getAbsolutePath().replace("." + getType().getExtension(), "") + ";INIT=SET TRACE_LEVEL_FILE=4;TRACE_LEVEL_FILE=4;DATABASE_TO_UPPER=false" + (password == null ? "" : ";CIPHER=AES");
     }
 
     private boolean persistsFor(Wallet wallet) {
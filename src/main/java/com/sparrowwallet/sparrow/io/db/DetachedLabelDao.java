@@ -17,20 +17,50 @@ public interface DetachedLabelDao {
     @SqlBatch("insert into detachedLabel (entry, label) values (?, ?)")
     void insertDetachedLabels(List<String> entries, List<String> labels);
 
+    @SqlBatch("merge into detachedLabel (entry, label) key (entry) values (?, ?)")
+    void mergeDetachedLabels(List<String> entries, List<String> labels);
+
+    @SqlBatch("delete from detachedLabel where entry = ?")
+    void deleteDetachedLabels(List<String> entries);
+
     @SqlUpdate("delete from detachedLabel")
     void clear();
 
     default void clearAndAddAll(Wallet wallet) {
         clear();
 
-        List<String> entries = new ArrayList<>();
-        List<String> labels = new ArrayList<>();
+        Map<String, String> detachedLabels = getTruncatedLabels(wallet);
+        List<String> entries = new ArrayList<>(detachedLabels.keySet());
+        insertDetachedLabels(entries, entries.stream().map(detachedLabels::get).toList());
+    }
+
+    /**
+     * Writes only the detached labels that have been added, changed or removed since the provided labels were persisted, and updates them to match
+     */
+    default void updateAll(Wallet wallet, Map<String, String> persistedLabels) {
+        Map<String, String> detachedLabels = getTruncatedLabels(wallet);
+
+        List<String> removedEntries = persistedLabels.keySet().stream().filter(entry -> !detachedLabels.containsKey(entry)).toList();
+        if(!removedEntries.isEmpty()) {
+            deleteDetachedLabels(removedEntries);
+        }
+
+        List<String> changedEntries = detachedLabels.keySet().stream().filter(entry -> !Objects.equals(detachedLabels.get(entry), persistedLabels.get(entry))).toList();
+        if(!changedEntries.isEmpty()) {
+            mergeDetachedLabels(changedEntries, changedEntries.stream().map(detachedLabels::get).toList());
+        }
+
+        persistedLabels.clear();
+        persistedLabels.putAll(detachedLabels);
+    }
+
+    default Map<String, String> getTruncatedLabels(Wallet wallet) {
+        Map<String, String> detachedLabels = new HashMap<>();
         for(Map.Entry<String, String> labelEntry : new HashSet<>(wallet.getDetachedLabels().entrySet())) {
-            entries.add(truncate(labelEntry.getKey(), 80));
-            labels.add(truncate(labelEntry.getValue(), Persistable.MAX_LABEL_LENGTH));
+            detachedLabels.put(truncate(labelEntry.getKey(), 80), truncate(labelEntry.getValue(), Persistable.MAX_LABEL_LENGTH));
         }
 
-        insertDetachedLabels(entries, labels);
+        return detachedLabels;
     }
 
     default String truncate(String label, int length) {
@@ -0,0 +1,118 @@
+package com.sparrowwallet.sparrow.io.db;
+
+import com.sparrowwallet.drongo.protocol.HashIndex;
+import com.sparrowwallet.drongo.protocol.Sha256Hash;
+import com.sparrowwallet.drongo.protocol.Transaction;
+import com.sparrowwallet.drongo.protocol.TransactionInput;
+import com.sparrowwallet.drongo.protocol.TransactionOutput;
+import com.sparrowwallet.drongo.wallet.BlockTransaction;
+
+import java.lang.ref.SoftReference;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A BlockTransaction loaded from the database that retains the serialized transaction, and only parses it when first accessed.
+ * The parsed transaction is held by a soft reference so that it can be reclaimed under memory pressure and parsed again when next required.
+ * As no transaction is passed to the superclass, the spent and funded outpoints used to order transactions in the same block are also derived here on first access.
+ */
+public class LazyBlockTransaction extends BlockTransaction {
+    private final byte[] transactionBytes;
+    private volatile SoftReference<Transaction> transactionRef = new SoftReference<>(null);
+    private volatile Set<HashIndex> spending;
+    private volatile Set<HashIndex> funding;
+
+    public LazyBlockTransaction(Sha256Hash hash, int height, Date date, Long fee, byte[] transactionBytes, Sha256Hash blockHash, String label) {
+        super(hash, height, date, fee, null, blockHash, label);
+        this.transactionBytes = transactionBytes;
+    }
+
+    @Override
+    public Transaction getTransaction() {
+        if(transactionBytes == null) {
+            return null;
+        }
+
+        Transaction transaction = transactionRef.get();
+        if(transaction == null) {
+            synchronized(this) {
+                transaction = transactionRef.get();
+                if(transaction == null) {
+                    transaction = new Transaction(transactionBytes);
+                    transactionRef = new SoftReference<>(transaction);
+                }
+            }
+        }
+
+        return transaction;
+    }
+
+    @Override
+    public Double getFeeRate() {
+        Transaction transaction = getTransaction();
+        if(getFee() != null && transaction != null) {
+            double vSize = transaction.getVirtualSize();
+            return getFee() / vSize;
+        }
+
+        return null;
+    }
+
+    @Override
+    public Set<HashIndex> getSpending() {
+        if(spending == null) {
+            Set<HashIndex> outpoints = new HashSet<>();
+            Transaction transaction = getTransaction();
+            if(transaction != null) {
+                for(TransactionInput txInput : transaction.getInputs()) {
+                    outpoints.add(new HashIndex(txInput.getOutpoint().getHash(), txInput.getOutpoint().getIndex()));
+                }
+            }
+            spending = Collections.unmodifiableSet(outpoints);
+        }
+
+        return spending;
+    }
+
+    @Override
+    public Set<HashIndex> getFunding() {
+        if(funding == null) {
+            Set<HashIndex> outpoints = new HashSet<>();
+            Transaction transaction = getTransaction();
+            if(transaction != null) {
+                for(TransactionOutput txOutput : transaction.getOutputs()) {
+                    outpoints.add(new HashIndex(getHash(), txOutput.getIndex()));
+                }
+            }
+            funding = Collections.unmodifiableSet(outpoints);
+        }
+
+        return funding;
+    }
+
+    @Override
+    public int compareBlockOrder(BlockTransaction blkTx) {
+        if(getHeight() != blkTx.getHeight()) {
+            return getComparisonHeight() - blkTx.getComparisonHeight();
+        }
+
+        if(!Collections.disjoint(getSpending(), blkTx.getFunding())) {
+            return 1;
+        }
+
+        if(!Collections.disjoint(blkTx.getSpending(), getFunding())) {
+            return -1;
+        }
+
+        return 0;
+    }
+
+    /**
+     * @return the serialized transaction as stored, without parsing it
+     */
+    public byte[] getTransactionBytes() {
+        return transactionBytes;
+    }
+}
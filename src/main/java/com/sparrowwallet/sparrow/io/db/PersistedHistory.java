@@ -0,0 +1,112 @@
+package com.sparrowwallet.sparrow.io.db;
+
+import com.sparrowwallet.drongo.wallet.BlockTransactionHashIndex;
+import com.sparrowwallet.drongo.wallet.Wallet;
+import com.sparrowwallet.drongo.wallet.WalletNode;
+
+import java.util.*;
+
+/**
+ * Tracks the transaction outputs and detached labels as last written to the database for a wallet.
+ * Comparing the current wallet history against this state allows only the inserted, updated and removed rows to be written.
+ */
+class PersistedHistory {
+    private final Map<Long, Map<Long, TxoState>> nodeTxos = new HashMap<>();
+    private final Map<String, String> detachedLabels = new HashMap<>();
+
+    void addWallet(Wallet wallet) {
+        for(WalletNode purposeNode : wallet.getPurposeNodes()) {
+            addNode(purposeNode);
+            for(WalletNode addressNode : purposeNode.getChildren()) {
+                addNode(addressNode);
+            }
+        }
+
+        detachedLabels.clear();
+        detachedLabels.putAll(wallet.getDetachedLabels());
+    }
+
+    void addNode(WalletNode addressNode) {
+        if(addressNode.getId() == null) {
+            return;
+        }
+
+        Map<Long, TxoState> txos = new HashMap<>();
+        for(BlockTransactionHashIndex txo : addressNode.getTransactionOutputs()) {
+            Long spentById = null;
+            if(txo.isSpent()) {
+                BlockTransactionHashIndex spentBy = txo.getSpentBy();
+                if(spentBy.getId() != null) {
+                    txos.put(spentBy.getId(), new TxoState(spentBy, null));
+                    spentById = spentBy.getId();
+                }
+            }
+            if(txo.getId() != null) {
+                txos.put(txo.getId(), new TxoState(txo, spentById));
+            }
+        }
+
+        nodeTxos.put(addressNode.getId(), txos);
+    }
+
+    boolean containsNode(WalletNode addressNode) {
+        return addressNode.getId() != null && nodeTxos.containsKey(addressNode.getId());
+    }
+
+    /**
+     * @return true if the row for this txo was last written with the same values, and therefore does not need to be updated
+     */
+    boolean isUnchanged(WalletNode addressNode, BlockTransactionHashIndex txo, Long spentById) {
+        Map<Long, TxoState> txos = nodeTxos.get(addressNode.getId());
+        return txos != null && txo.getId() != null && new TxoState(txo, spentById).equals(txos.get(txo.getId()));
+    }
+
+    /**
+     * Returns the ids of rows previously written for this node that no longer have a corresponding txo.
+     * Rows that reference a spending row are returned first, so the spending row can be deleted after them.
+     */
+    List<Long> getRemovedIds(WalletNode addressNode) {
+        Map<Long, TxoState> txos = nodeTxos.get(addressNode.getId());
+        if(txos == null) {
+            return Collections.emptyList();
+        }
+
+        Set<Long> currentIds = new HashSet<>();
+        for(BlockTransactionHashIndex txo : addressNode.getTransactionOutputs()) {
+            currentIds.add(txo.getId());
+            if(txo.isSpent()) {
+                currentIds.add(txo.getSpentBy().getId());
+            }
+        }
+
+        List<Long> removedIds = new ArrayList<>();
+        for(Map.Entry<Long, TxoState> txoEntry : txos.entrySet()) {
+            if(!currentIds.contains(txoEntry.getKey())) {
+                if(txoEntry.getValue().spentById() != null) {
+                    removedIds.addFirst(txoEntry.getKey());
+                } else {
+                    removedIds.addLast(txoEntry.getKey());
+                }
+            }
+        }
+
+        return removedIds;
+    }
+
+    void clearHistory() {
+        nodeTxos.replaceAll((nodeId, txos) -> new HashMap<>());
+    }
+
+    /**
+     * @return the detached labels last written, to be updated in place by {@link DetachedLabelDao#updateAll(Wallet, Map)}
+     */
+    Map<String, String> getDetachedLabels() {
+        return detachedLabels;
+    }
+
+    private record TxoState(int height, Date date, Long fee, String label, Integer status, Long spentById) {
+        TxoState(BlockTransactionHashIndex txo, Long spentById) {
+            this(txo.getHeight(), txo.getDate(), txo.getFee(), txo.getLabel(), txo.getStatus() == null ? null : txo.getStatus().ordinal(), spentById);
+        }
+    }
+}
@@ -7,11 +7,13 @@ import org.jdbi.v3.sqlobject.config.RegisterRowMapper;
 import org.jdbi.v3.sqlobject.customizer.Bind;
 import org.jdbi.v3.sqlobject.customizer.BindList;
 import org.jdbi.v3.sqlobject.statement.GetGeneratedKeys;
+import org.jdbi.v3.sqlobject.statement.SqlBatch;
 import org.jdbi.v3.sqlobject.statement.SqlQuery;
 import org.jdbi.v3.sqlobject.statement.SqlUpdate;
 import org.jdbi.v3.sqlobject.statement.UseRowReducer;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
@@ -29,6 +31,10 @@ public interface WalletNodeDao {
     @GetGeneratedKeys("id")
     long insertWalletNode(String derivationPath, String label, long wallet, Long parent, byte[] addressData);
 
+    @SqlBatch("insert into walletNode (derivationPath, label, wallet, parent, addressData) values (?, ?, ?, ?, ?)")
+    @GetGeneratedKeys("id")
+    long[] insertWalletNodes(List<String> derivationPaths, List<String> labels, long wallet, Long parent, List<byte[]> addressData);
+
     @SqlUpdate("insert into blockTransactionHashIndex (hash, height, date, fee, label, index, outputValue, status, spentBy, node) values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")
     @GetGeneratedKeys("id")
     long insertBlockTransactionHashIndex(byte[] hash, int height, Date date, Long fee, String label, long index, long value, Integer status, Long spentBy, long node);
@@ -36,6 +42,13 @@ public interface WalletNodeDao {
     @SqlUpdate("update blockTransactionHashIndex set hash = ?, height = ?, date = ?, fee = ?, label = ?, index = ?, outputValue = ?, status = ?, spentBy = ?, node = ? where id = ?")
     void updateBlockTransactionHashIndex(byte[] hash, int height, Date date, Long fee, String label, long index, long value, Integer status, Long spentBy, long node, long id);
 
+    @SqlBatch("insert into blockTransactionHashIndex (hash, height, date, fee, label, index, outputValue, status, spentBy, node) values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")
+    @GetGeneratedKeys("id")
+    long[] insertBlockTransactionHashIndexes(List<byte[]> hashes, List<Integer> heights, List<Date> dates, List<Long> fees, List<String> labels, List<Long> indexes, List<Long> values, List<Integer> statuses, List<Long> spentBys, List<Long> nodes);
+
+    @SqlBatch("update blockTransactionHashIndex set hash = ?, height = ?, date = ?, fee = ?, label = ?, index = ?, outputValue = ?, status = ?, spentBy = ?, node = ? where id = ?")
+    void updateBlockTransactionHashIndexes(List<byte[]> hashes, List<Integer> heights, List<Date> dates, List<Long> fees, List<String> labels, List<Long> indexes, List<Long> values, List<Integer> statuses, List<Long> spentBys, List<Long> nodes, List<Long> ids);
+
     @SqlUpdate("update walletNode set label = :label where id = :id")
     void updateNodeLabel(@Bind("id") long id, @Bind("label") String label);
 
@@ -54,6 +67,9 @@ public interface WalletNodeDao {
     @SqlUpdate("delete from blockTransactionHashIndex where blockTransactionHashIndex.node in (select walletNode.id from walletNode where walletNode.wallet = ?) and blockTransactionHashIndex.spentBy is not null")
     void clearSpentHistory(long wallet);
 
+    @SqlBatch("delete from blockTransactionHashIndex where id = ?")
+    void deleteBlockTransactionHashIndexes(List<Long> ids);
+
     @SqlUpdate("delete from blockTransactionHashIndex where node = :nodeId and id not in (<ids>)")
     void deleteUnreferencedNodeTxos(@Bind("nodeId") Long nodeId, @BindList("ids") List<Long> ids);
 
@@ -61,31 +77,51 @@ public interface WalletNodeDao {
     void deleteUnreferencedNodeSpentTxos(@Bind("nodeId") Long nodeId, @BindList("ids") List<Long> ids);
 
     default void addWalletNodes(Wallet wallet) {
+        List<WalletNode> nodes = new ArrayList<>();
         for(WalletNode purposeNode : wallet.getPurposeNodes()) {
             long purposeNodeId = insertWalletNode(purposeNode.getDerivationPath(), truncate(purposeNode.getLabel()), wallet.getId(), null, null);
             purposeNode.setId(purposeNodeId);
-            addTransactionOutputs(purposeNode);
+            nodes.add(purposeNode);
             List<WalletNode> childNodes = new ArrayList<>(purposeNode.getChildren());
             for(WalletNode addressNode : childNodes) {
                 // Ensure address is generated and cached before saving (important for MuSig2)
                 if(addressNode.getAddress() == null) {
                     wallet.getAddress(addressNode);
                 }
-                long addressNodeId = insertWalletNode(addressNode.getDerivationPath(), truncate(addressNode.getLabel()), wallet.getId(), purposeNodeId, addressNode.getAddressData());
-                addressNode.setId(addressNodeId);
-                addTransactionOutputs(addressNode);
             }
+            addWalletNodes(wallet, purposeNode, childNodes);
+            nodes.addAll(childNodes);
         }
-    }
 
-    default void addTransactionOutputs(WalletNode addressNode) {
-        for(BlockTransactionHashIndex txo : addressNode.getTransactionOutputs()) {
-            txo.setId(null);
-            if(txo.isSpent()) {
-                txo.getSpentBy().setId(null);
+        for(WalletNode node : nodes) {
+            for(BlockTransactionHashIndex txo : node.getTransactionOutputs()) {
+                txo.setId(null);
+                if(txo.isSpent()) {
+                    txo.getSpentBy().setId(null);
+                }
             }
+        }
 
-            addOrUpdate(addressNode, txo);
+        addOrUpdateAll(nodes);
+    }
+
+    default void addWalletNodes(Wallet wallet, WalletNode purposeNode, List<WalletNode> addressNodes) {
+        if(addressNodes.isEmpty()) {
+            return;
+        }
+
+        List<String> derivationPaths = new ArrayList<>(addressNodes.size());
+        List<String> labels = new ArrayList<>(addressNodes.size());
+        List<byte[]> addressData = new ArrayList<>(addressNodes.size());
+        for(WalletNode addressNode : addressNodes) {
+            derivationPaths.add(addressNode.getDerivationPath());
+            labels.add(truncate(addressNode.getLabel()));
+            addressData.add(addressNode.getAddressData());
+        }
+
+        long[] ids = insertWalletNodes(derivationPaths, labels, wallet.getId(), purposeNode.getId(), addressData);
+        for(int i = 0; i < addressNodes.size(); i++) {
+            addressNodes.get(i).setId(ids[i]);
         }
     }
 
@@ -114,6 +150,68 @@ public interface WalletNodeDao {
         }
     }
 
+    default void addOrUpdateAll(Collection<WalletNode> addressNodes) {
+        addOrUpdateAll(addressNodes, null);
+    }
+
+    /**
+     * Inserts or updates the transaction outputs of all the provided nodes using batched statements.
+     * Spending inputs are written first so that the generated ids are available to reference from the outputs they spend.
+     * If the persisted history is provided, rows that are unchanged since they were last written are skipped.
+     */
+    default void addOrUpdateAll(Collection<WalletNode> addressNodes, PersistedHistory persistedHistory) {
+        BlockTransactionHashIndexBatch spentByInserts = new BlockTransactionHashIndexBatch();
+        BlockTransactionHashIndexBatch spentByUpdates = new BlockTransactionHashIndexBatch();
+        for(WalletNode addressNode : addressNodes) {
+            for(BlockTransactionHashIndex txo : addressNode.getTransactionOutputs()) {
+                if(txo.isSpent()) {
+                    BlockTransactionHashIndex spentBy = txo.getSpentBy();
+                    if(spentBy.getId() == null) {
+                        spentByInserts.add(addressNode, spentBy, null, truncate(spentBy.getLabel()));
+                    } else if(persistedHistory == null || !persistedHistory.isUnchanged(addressNode, spentBy, null)) {
+                        spentByUpdates.add(addressNode, spentBy, null, truncate(spentBy.getLabel()));
+                    }
+                }
+            }
+        }
+        insertAll(spentByInserts);
+        updateAll(spentByUpdates);
+
+        BlockTransactionHashIndexBatch txoInserts = new BlockTransactionHashIndexBatch();
+        BlockTransactionHashIndexBatch txoUpdates = new BlockTransactionHashIndexBatch();
+        for(WalletNode addressNode : addressNodes) {
+            for(BlockTransactionHashIndex txo : addressNode.getTransactionOutputs()) {
+                Long spentById = txo.isSpent() ? txo.getSpentBy().getId() : null;
+                if(txo.getId() == null) {
+                    txoInserts.add(addressNode, txo, spentById, truncate(txo.getLabel()));
+                } else if(persistedHistory == null || !persistedHistory.isUnchanged(addressNode, txo, spentById)) {
+                    txoUpdates.add(addressNode, txo, spentById, truncate(txo.getLabel()));
+                }
+            }
+        }
+        insertAll(txoInserts);
+        updateAll(txoUpdates);
+    }
+
+    default void insertAll(BlockTransactionHashIndexBatch batch) {
+        if(batch.isEmpty()) {
+            return;
+        }
+
+        long[] ids = insertBlockTransactionHashIndexes(batch.hashes, batch.heights, batch.dates, batch.fees, batch.labels, batch.indexes, batch.values, batch.statuses, batch.spentBys, batch.nodes);
+        for(int i = 0; i < batch.size(); i++) {
+            batch.txos.get(i).setId(ids[i]);
+        }
+    }
+
+    default void updateAll(BlockTransactionHashIndexBatch batch) {
+        if(batch.isEmpty()) {
+            return;
+        }
+
+        updateBlockTransactionHashIndexes(batch.hashes, batch.heights, batch.dates, batch.fees, batch.labels, batch.indexes, batch.values, batch.statuses, batch.spentBys, batch.nodes, batch.ids);
+    }
+
     default void deleteNodeTxosNotInList(WalletNode addressNode, List<Long> txoIds) {
         deleteUnreferencedNodeSpentTxos(addressNode.getId(), txoIds);
         deleteUnreferencedNodeTxos(addressNode.getId(), txoIds);
@@ -1,40 +1,70 @@
 package com.sparrowwallet.sparrow.io.db;
 
-import com.sparrowwallet.drongo.protocol.Sha256Hash;
 import com.sparrowwallet.drongo.wallet.BlockTransactionHashIndex;
 import com.sparrowwallet.drongo.wallet.WalletNode;
-import org.jdbi.v3.core.result.LinkedHashMapRowReducer;
+import org.jdbi.v3.core.result.RowReducer;
 import org.jdbi.v3.core.result.RowView;
 
-import java.util.Map;
+import java.util.*;
+import java.util.stream.Stream;
 
-public class WalletNodeReducer implements LinkedHashMapRowReducer<Long, WalletNode> {
-    private static final BlockTransactionHashIndex INPUT_MARKER = new BlockTransactionHashIndex(Sha256Hash.ZERO_HASH, 0, null, null, 0, 0);
+/**
+ * Assembles wallet nodes and their transaction outputs from the joined rows.
+ * Outputs are indexed by id as they are read, and spent outputs are linked to their spending inputs in a single pass once all rows have been read.
+ */
+public class WalletNodeReducer implements RowReducer<WalletNodeReducer.WalletNodes, WalletNode> {
+    @Override
+    public WalletNodes container() {
+        return new WalletNodes();
+    }
 
     @Override
-    public void accumulate(Map<Long, WalletNode> map, RowView rowView) {
-        WalletNode walletNode = map.computeIfAbsent(rowView.getColumn("walletNode.id", Long.class), id -> rowView.getRow(WalletNode.class));
+    public void accumulate(WalletNodes container, RowView rowView) {
+        WalletNode walletNode = container.nodes.computeIfAbsent(rowView.getColumn("walletNode.id", Long.class), id -> rowView.getRow(WalletNode.class));
 
-        if(rowView.getColumn("walletNode.parent", Long.class) != null) {
-            WalletNode parentNode = map.get(rowView.getColumn("walletNode.parent", Long.class));
+        Long parentId = rowView.getColumn("walletNode.parent", Long.class);
+        if(parentId != null) {
+            WalletNode parentNode = container.nodes.get(parentId);
             parentNode.getChildren().add(walletNode);
         }
 
         if(rowView.getColumn("blockTransactionHashIndex.node", Long.class) != null) {
             BlockTransactionHashIndex blockTransactionHashIndex = rowView.getRow(BlockTransactionHashIndex.class);
-            if(rowView.getColumn("blockTransactionHashIndex.spentBy", Long.class) != null) {
-                BlockTransactionHashIndex spentBy = walletNode.getTransactionOutputs().stream().filter(ref -> ref.getId().equals(rowView.getColumn("blockTransactionHashIndex.spentBy", Long.class))).findFirst()
-                        .orElseThrow(() -> new IllegalStateException("Cannot find transaction output for " + rowView.getColumn("blockTransactionHashIndex.spentBy", Long.class)));
-                blockTransactionHashIndex.setSpentBy(spentBy);
-                walletNode.getTransactionOutputs().remove(spentBy);
-                spentBy.setSpentBy(null);
+            container.txosById.put(blockTransactionHashIndex.getId(), blockTransactionHashIndex);
+            container.nodeTxos.add(new NodeTxo(walletNode, blockTransactionHashIndex, rowView.getColumn("blockTransactionHashIndex.spentBy", Long.class)));
+        }
+    }
+
+    @Override
+    public Stream<WalletNode> stream(WalletNodes container) {
+        Set<Long> inputIds = new HashSet<>();
+        for(NodeTxo nodeTxo : container.nodeTxos) {
+            if(nodeTxo.spentById() != null) {
+                BlockTransactionHashIndex spentBy = container.txosById.get(nodeTxo.spentById());
+                if(spentBy == null) {
+                    throw new IllegalStateException("Cannot find transaction output for " + nodeTxo.spentById());
+                }
+
+                nodeTxo.txo().setSpentBy(spentBy);
+                inputIds.add(nodeTxo.spentById());
             }
-            if(!walletNode.getTransactionOutputs().add(blockTransactionHashIndex)) {
-                //Can only happen if we add an input with the same hash, index, height etc as an existing output
-                //Set a marker we will clear when adding the output
-                blockTransactionHashIndex.setSpentBy(INPUT_MARKER);
-                walletNode.getTransactionOutputs().add(blockTransactionHashIndex);
+        }
+
+        //Inputs are only referenced from the outputs they spend, and are not added to the node directly
+        for(NodeTxo nodeTxo : container.nodeTxos) {
+            if(!inputIds.contains(nodeTxo.txo().getId())) {
+                nodeTxo.walletNode().getTransactionOutputs().add(nodeTxo.txo());
             }
         }
+
+        return container.nodes.values().stream();
     }
+
+    public static class WalletNodes {
+        private final Map<Long, WalletNode> nodes = new LinkedHashMap<>();
+        private final Map<Long, BlockTransactionHashIndex> txosById = new HashMap<>();
+        private final List<NodeTxo> nodeTxos = new ArrayList<>();
+    }
+
+    private record NodeTxo(WalletNode walletNode, BlockTransactionHashIndex txo, Long spentById) {}
 }
@@ -283,6 +283,19 @@ public enum ExchangeSource {
 
     public abstract Map<Date, Double> getHistoricalExchangeRates(Currency currency, Date start, Date end);
 
+    /**
+     * Get historical rates from the local store, requesting only the days not already stored from this source
+     *
+     * @param fetchMissing whether days not already stored should be requested, which should be false when offline
+     */
+    public Map<Date, Double> getStoredHistoricalExchangeRates(Currency currency, Date start, Date end, boolean fetchMissing) {
+        if(this == NONE) {
+            return Collections.emptyMap();
+        }
+
+        return HistoricalRatesCache.get(this, currency).getRates(start, end, fetchMissing);
+    }
+
     private static boolean isValidISO4217Code(String code) {
         try {
             Currency currency = Currency.getInstance(code);
@@ -0,0 +1,239 @@
+package com.sparrowwallet.sparrow.net;
+
+import com.sparrowwallet.sparrow.io.Storage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Local store of the daily historical rates retrieved from an exchange source for a single currency.
+ * Rates for past days do not change, so each day is only requested once. The store records the ranges of days that have been
+ * retrieved, including short runs of days for which the source has no rate, so that only the days outside these ranges are requested again.
+ * Today's rate is never considered complete, and is requested again whenever it is needed.
+ */
+class HistoricalRatesCache {
+    private static final Logger log = LoggerFactory.getLogger(HistoricalRatesCache.class);
+
+    public static final String RATES_DIR = "rates";
+    private static final String RATES_EXTENSION = ".rates";
+    private static final String HEADER = "sparrow-rates 1";
+    //Days without a rate within this distance of returned rates are considered retrieved
+    private static final int MAX_GAP_DAYS = 7;
+
+    private static final Map<String, HistoricalRatesCache> caches = new ConcurrentHashMap<>();
+
+    private final ExchangeSource exchangeSource;
+    private final Currency currency;
+    private final File file;
+
+    //Null until the store is first read
+    private TreeMap<LocalDate, Double> rates;
+    private TreeMap<LocalDate, LocalDate> retrieved;
+
+    private HistoricalRatesCache(ExchangeSource exchangeSource, Currency currency, File file) {
+        this.exchangeSource = exchangeSource;
+        this.currency = currency;
+        this.file = file;
+    }
+
+    public static HistoricalRatesCache get(ExchangeSource exchangeSource, Currency currency) {
+        String name = exchangeSource.name().toLowerCase(Locale.ROOT) + "-" + currency.getCurrencyCode();
+        return caches.computeIfAbsent(name, k -> new HistoricalRatesCache(exchangeSource, currency, new File(new File(Storage.getSparrowDir(), RATES_DIR), k + RATES_EXTENSION)));
+    }
+
+    /**
+     * Get the rates for each day between the start and end dates, keyed by the start of the day in the default time zone
+     *
+     * @param fetchMissing whether days not yet in the store should be requested from the exchange source
+     */
+    public synchronized Map<Date, Double> getRates(Date start, Date end, boolean fetchMissing) {
+        ensureLoaded();
+
+        ZoneId zoneId = ZoneId.systemDefault();
+        LocalDate startDay = start.toInstant().atZone(zoneId).toLocalDate();
+        LocalDate endDay = end.toInstant().atZone(zoneId).toLocalDate();
+
+        if(fetchMissing) {
+            List<LocalDate[]> missing = getMissingRanges(startDay, endDay);
+            if(!missing.isEmpty()) {
+                //Request a single range spanning all the missing days, since the sources return ranges more efficiently than individual days
+                fetch(missing.getFirst()[0], missing.getLast()[1], zoneId);
+            }
+        }
+
+        Map<Date, Double> historicalRates = new TreeMap<>();
+        for(Map.Entry<LocalDate, Double> rate : rates.subMap(startDay, true, endDay, true).entrySet()) {
+            historicalRates.put(Date.from(rate.getKey().atStartOfDay(zoneId).toInstant()), rate.getValue());
+        }
+
+        return historicalRates;
+    }
+
+    private void fetch(LocalDate startDay, LocalDate endDay, ZoneId zoneId) {
+        //Pad the requested range by a day either side, as the sources differ in whether the range bounds are inclusive
+        Date start = Date.from(startDay.minusDays(1).atStartOfDay(zoneId).toInstant());
+        Date end = Date.from(endDay.plusDays(1).atStartOfDay(zoneId).toInstant());
+        Map<Date, Double> fetched = exchangeSource.getHistoricalExchangeRates(currency, start, end);
+
+        //The sources return no rates when a request fails, so only record the range as retrieved when rates were returned
+        if(fetched.isEmpty()) {
+            return;
+        }
+
+        TreeSet<LocalDate> fetchedDays = new TreeSet<>();
+        for(Map.Entry<Date, Double> rate : fetched.entrySet()) {
+            if(rate.getValue() != null) {
+                LocalDate day = rate.getKey().toInstant().atZone(zoneId).toLocalDate();
+                rates.put(day, rate.getValue());
+                fetchedDays.add(day);
+            }
+        }
+
+        LocalDate lastComplete = LocalDate.now(zoneId).minusDays(1);
+        if(!startDay.isAfter(lastComplete)) {
+            addRetrieved(fetchedDays, startDay, endDay.isAfter(lastComplete) ? lastComplete : endDay);
+        }
+
+        log.debug("Stored " + fetched.size() + " historical rates from " + exchangeSource + " for " + currency.getCurrencyCode());
+        write();
+    }
+
+    private List<LocalDate[]> getMissingRanges(LocalDate startDay, LocalDate endDay) {
+        List<LocalDate[]> missing = new ArrayList<>();
+        LocalDate day = startDay;
+        Map.Entry<LocalDate, LocalDate> range = retrieved.floorEntry(day);
+        if(range != null && !range.getValue().isBefore(day)) {
+            day = range.getValue().plusDays(1);
+        }
+
+        for(Map.Entry<LocalDate, LocalDate> next : retrieved.tailMap(day, false).entrySet()) {
+            if(day.isAfter(endDay) || next.getKey().isAfter(endDay)) {
+                break;
+            }
+            missing.add(new LocalDate[] {day, next.getKey().minusDays(1)});
+            day = next.getValue().plusDays(1);
+        }
+
+        if(!day.isAfter(endDay)) {
+            missing.add(new LocalDate[] {day, endDay});
+        }
+
+        return missing;
+    }
+
+    /**
+     * Records the days in the range covered by the returned rates as retrieved.
+     * Sources may return only part of a long range when some of their requests fail, so days are only recorded where rates were returned,
+     * bridging gaps of up to MAX_GAP_DAYS for days the source has no rate for. Larger gaps are requested again when next needed.
+     */
+    private void addRetrieved(NavigableSet<LocalDate> fetchedDays, LocalDate startDay, LocalDate endDay) {
+        LocalDate runStart = null;
+        LocalDate runEnd = startDay.minusDays(1);
+        for(LocalDate day : fetchedDays.subSet(startDay, true, endDay, true)) {
+            if(ChronoUnit.DAYS.between(runEnd, day) > MAX_GAP_DAYS) {
+                if(runStart != null) {
+                    addRetrieved(runStart, runEnd);
+                }
+                runStart = day;
+            } else if(runStart == null) {
+                runStart = startDay;
+            }
+            runEnd = day;
+        }
+
+        if(runStart != null) {
+            addRetrieved(runStart, ChronoUnit.DAYS.between(runEnd, endDay) <= MAX_GAP_DAYS ? endDay : runEnd);
+        }
+    }
+
+    private void addRetrieved(LocalDate startDay, LocalDate endDay) {
+        //Merge with any ranges that overlap or adjoin the new range
+        Map.Entry<LocalDate, LocalDate> previous = retrieved.floorEntry(startDay);
+        if(previous != null && !previous.getValue().isBefore(startDay.minusDays(1))) {
+            startDay = previous.getKey();
+            endDay = previous.getValue().isAfter(endDay) ? previous.getValue() : endDay;
+        }
+
+        Iterator<Map.Entry<LocalDate, LocalDate>> iter = retrieved.tailMap(startDay, true).entrySet().iterator();
+        while(iter.hasNext()) {
+            Map.Entry<LocalDate, LocalDate> next = iter.next();
+            if(next.getKey().isAfter(endDay.plusDays(1))) {
+                break;
+            }
+            endDay = next.getValue().isAfter(endDay) ? next.getValue() : endDay;
+            iter.remove();
+        }
+
+        retrieved.put(startDay, endDay);
+    }
+
+    private void ensureLoaded() {
+        if(rates != null) {
+            return;
+        }
+
+        rates = new TreeMap<>();
+        retrieved = new TreeMap<>();
+        if(!file.exists()) {
+            return;
+        }
+
+        try(BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            if(!HEADER.equals(reader.readLine())) {
+                throw new IOException("Unsupported rates file format");
+            }
+
+            String line;
+            while((line = reader.readLine()) != null) {
+                String[] parts = line.split(" ");
+                if(parts.length == 3 && parts[0].equals("retrieved")) {
+                    retrieved.put(LocalDate.parse(parts[1]), LocalDate.parse(parts[2]));
+                } else if(parts.length == 2) {
+                    rates.put(LocalDate.parse(parts[0]), Double.parseDouble(parts[1]));
+                }
+            }
+        } catch(Exception e) {
+            //The store only holds rates that can be requested again, so start afresh if it cannot be read
+            log.warn("Error reading historical rates from " + file.getName() + ", discarding", e);
+            rates.clear();
+            retrieved.clear();
+        }
+    }
+
+    private void write() {
+        File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        try {
+            Files.createDirectories(file.getParentFile().toPath());
+            Files.deleteIfExists(tempFile.toPath());
+            Storage.createOwnerOnlyFile(tempFile);
+
+            try(Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8))) {
+                writer.write(HEADER + "\n");
+                for(Map.Entry<LocalDate, LocalDate> range : retrieved.entrySet()) {
+                    writer.write("retrieved " + range.getKey() + " " + range.getValue() + "\n");
+                }
+                for(Map.Entry<LocalDate, Double> rate : rates.entrySet()) {
+                    writer.write(rate.getKey() + " " + rate.getValue() + "\n");
+                }
+            }
+
+            try {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch(AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch(IOException e) {
+            log.error("Error writing historical rates to " + file.getName(), e);
+        }
+    }
+}
@@ -1,8 +1,9 @@
 package com.sparrowwallet.sparrow.net.cormorant.bitcoind;
 
 import com.github.arteam.simplejsonrpc.client.JsonRpcClient;
+import com.github.arteam.simplejsonrpc.client.builder.BatchRequestBuilder;
+import com.github.arteam.simplejsonrpc.client.exception.JsonRpcBatchException;
 import com.github.arteam.simplejsonrpc.client.exception.JsonRpcException;
-import com.google.common.collect.Sets;
 import com.sparrowwallet.drongo.KeyPurpose;
 import com.sparrowwallet.drongo.OutputDescriptor;
 import com.sparrowwallet.drongo.Utils;
@@ -24,7 +25,12 @@ import com.sparrowwallet.drongo.address.Address;
 import com.sparrowwallet.drongo.address.InvalidAddressException;
 import com.sparrowwallet.sparrow.net.cormorant.electrum.ElectrumBlockHeader;
 import com.sparrowwallet.sparrow.net.cormorant.electrum.ScriptHashStatus;
+import com.sparrowwallet.sparrow.net.cormorant.index.CompactMempool;
+import com.sparrowwallet.sparrow.net.cormorant.index.FeeHistogram;
+import com.sparrowwallet.sparrow.net.cormorant.index.HeaderCache;
 import com.sparrowwallet.sparrow.net.cormorant.index.Store;
+import com.sparrowwallet.sparrow.net.cormorant.index.StoreSnapshot;
+import com.sparrowwallet.sparrow.net.cormorant.index.TransactionCache;
 import com.sparrowwallet.drongo.protocol.*;
 import javafx.application.Platform;
 import javafx.concurrent.Service;
@@ -32,9 +38,9 @@ import javafx.concurrent.Task;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -48,6 +54,12 @@ public class BitcoindClient {
     private static final int POSTMIX_GAP_LIMIT = 4000;
 
     private static final long PRUNED_RESCAN_TIMEGAP_MILLIS = 7200*1000;
+    private static final long RESCAN_TIMESTAMP_WINDOW_SECS = 7200;
+    private static final int RESCAN_WINDOW_BLOCKS = 10000;
+    private static final long VSIZE_BIN_WIDTH = 50000;
+    private static final long TRANSACTION_CACHE_BYTES = 32 * 1024 * 1024;
+    private static final int MAX_CACHED_HEADERS = 50000;
+    private static final int MEMPOOL_ENTRY_BATCH_SIZE = 500;
 
     //Error codes from https://github.com/bitcoin/bitcoin/blob/master/src/rpc/protocol.h
     public static final int RPC_METHOD_NOT_FOUND = -32601;
@@ -58,6 +70,11 @@ public class BitcoindClient {
     private final JsonRpcClient jsonRpcClient;
     private final Timer timer = new Timer(true);
     private final Store store = new Store();
+    private final StoreSnapshot storeSnapshot = new StoreSnapshot();
+    private final RescanCheckpoint rescanCheckpoint = new RescanCheckpoint();
+    private final TransactionCache transactionCache = new TransactionCache(TRANSACTION_CACHE_BYTES);
+    private final HeaderCache headerCache = new HeaderCache(MAX_CACHED_HEADERS);
+    private final String serverUrl;
 
     private NetworkInfo networkInfo;
     private String lastBlock;
@@ -84,6 +101,7 @@ public class BitcoindClient {
 
     private final Lock scanningLock = new ReentrantLock();
     private final Set<String> scanningDescriptors = Collections.synchronizedSet(new HashSet<>());
+    private volatile RescanWindow scanningWindow;
 
     private final Lock initialImportLock = new ReentrantLock();
     private final Condition initialImportCondition = initialImportLock.newCondition();
@@ -91,7 +109,9 @@ public class BitcoindClient {
 
     private final List<String> pruneWarnedDescriptors = new ArrayList<>();
 
-    private final Map<Sha256Hash, VsizeFeerate> mempoolEntries = new ConcurrentHashMap<>();
+    private final CompactMempool mempoolEntries = new CompactMempool();
+    private long mempoolSequence = -1;
+    private final FeeHistogram feeHistogram = new FeeHistogram(VSIZE_BIN_WIDTH);
     private MempoolEntriesState mempoolEntriesState = MempoolEntriesState.UNINITIALIZED;
     private long timerTaskCount;
 
@@ -108,6 +128,7 @@ public class BitcoindClient {
         }
 
         this.jsonRpcClient = new JsonRpcClient(bitcoindTransport);
+        this.serverUrl = config.getCoreServer() == null ? null : config.getCoreServer().getUrl();
         this.useWallets = useWallets;
     }
 
@@ -120,7 +141,7 @@ public class BitcoindClient {
         BlockchainInfo blockchainInfo = getBitcoindService().getBlockchainInfo();
         pruned = blockchainInfo.pruned();
         VerboseBlockHeader blockHeader = getBitcoindService().getBlockHeader(blockchainInfo.bestblockhash());
-        tip = blockHeader.getBlockHeader();
+        setTip(blockHeader.getBlockHeader());
         timer.schedule(new PollTask(), 5000, 5000);
 
         if(blockchainInfo.initialblockdownload() && networkInfo.networkactive()) {
@@ -143,7 +164,7 @@ public class BitcoindClient {
 
             blockchainInfo = getBitcoindService().getBlockchainInfo();
             blockHeader = getBitcoindService().getBlockHeader(blockchainInfo.bestblockhash());
-            tip = blockHeader.getBlockHeader();
+            setTip(blockHeader.getBlockHeader());
         }
 
         List<String> loadedWallets;
@@ -173,8 +194,45 @@ public class BitcoindClient {
             }
         }
 
-        ListSinceBlock listSinceBlock = getListSinceBlock(null);
+        lastBlock = loadStoreSnapshot();
+        ListSinceBlock listSinceBlock = getListSinceBlock(lastBlock);
         updateStore(listSinceBlock);
+        saveStoreSnapshot();
+    }
+
+    private synchronized String loadStoreSnapshot() {
+        try {
+            String snapshotBlock = storeSnapshot.load(store, serverUrl);
+            if(snapshotBlock != null) {
+                //Only resume from the snapshot if its last block is still in the active chain
+                VerboseBlockHeader blockHeader = getBitcoindService().getBlockHeader(snapshotBlock);
+                if(blockHeader.confirmations() > 0) {
+                    log.debug("Loaded index snapshot at block height " + blockHeader.height());
+                    return snapshotBlock;
+                }
+
+                log.warn("Index snapshot block " + snapshotBlock + " is no longer in the active chain, rebuilding index");
+            }
+        } catch(JsonRpcException e) {
+            log.warn("Index snapshot block not found, rebuilding index");
+        } catch(IOException e) {
+            log.warn("Error loading index snapshot, rebuilding index", e);
+        }
+
+        store.clear();
+        return null;
+    }
+
+    private synchronized void saveStoreSnapshot() {
+        if(lastBlock == null) {
+            return;
+        }
+
+        try {
+            storeSnapshot.save(store, serverUrl, lastBlock);
+        } catch(IOException e) {
+            log.warn("Error saving index snapshot", e);
+        }
     }
 
     private ListSinceBlock getListSinceBlock(String blockHash) {
@@ -359,6 +417,21 @@ public class BitcoindClient {
             }
         }
 
+        //A rescan interrupted by a restart is resumed from its checkpoint for the descriptors Core has already imported
+        Map<String, Date> resumingDescriptors = new LinkedHashMap<>();
+        int resumeHeight = 0;
+        RescanCheckpoint.Checkpoint checkpoint = initialized ? null : loadRescanCheckpoint();
+        if(checkpoint != null) {
+            for(Map.Entry<String, Date> entry : checkpoint.descriptorBirthDates().entrySet()) {
+                ScanDate importedScanDate = importedDescriptors.get(entry.getKey());
+                if(importedScanDate != null) {
+                    importedDescriptors.put(entry.getKey(), new ScanDate(entry.getValue(), importedScanDate.range, false));
+                    resumingDescriptors.put(entry.getKey(), entry.getValue());
+                }
+            }
+            resumeHeight = checkpoint.nextHeight();
+        }
+
         Optional<Date> optPrunedDate = pruned ? getPrunedDate() : Optional.empty();
         Map<String, ScanDate> importingDescriptors = new LinkedHashMap<>(descriptors);
         importingDescriptors.keySet().removeAll(importedDescriptors.keySet());
@@ -390,50 +463,170 @@ public class BitcoindClient {
             }
         }
 
-        if(!importingDescriptors.isEmpty()) {
-            log.debug("Importing descriptors " + importingDescriptors);
+        //Descriptors that are imported again, for example with a larger range, are rescanned from their birth dates
+        resumingDescriptors.keySet().removeAll(importingDescriptors.keySet());
 
-            List<ImportDescriptor> importDescriptors = importingDescriptors.entrySet().stream()
-                    .map(entry -> {
-                        ScanDate scanDate = entry.getValue();
-                        if(entry.getKey().contains("/0/*")) {
-                            return new ImportRangedDescriptor(entry.getKey(), true, scanDate.range(), scanDate.getTimestamp(), false);
-                        } else if(entry.getKey().contains("/1/*")) {
-                            return new ImportRangedDescriptor(entry.getKey(), false, scanDate.range(), scanDate.getTimestamp(), true);
-                        }
-                        return new ImportDescriptor(entry.getKey(), false, entry.getValue().getTimestamp(), true);
-                    }).toList();
+        if(!importingDescriptors.isEmpty() || !resumingDescriptors.isEmpty()) {
+            log.debug("Importing descriptors " + importingDescriptors + (resumingDescriptors.isEmpty() ? "" : ", resuming rescan of " + resumingDescriptors.keySet() + " from block height " + resumeHeight));
 
-            List<ImportDescriptorResult> results;
             scanningLock.lock();
             try {
                 scanningDescriptors.addAll(importingDescriptors.keySet());
+                scanningDescriptors.addAll(resumingDescriptors.keySet());
                 Platform.runLater(() -> EventManager.get().post(new CormorantScanStatusEvent("Scanning (0%)", getScanningWallets(), 0, null)));
-                results = getBitcoindService().importDescriptors(importDescriptors);
+
+                //Until the rescan completes, the next import reloads the descriptors from Core and resumes the rescan from the checkpoint
+                initialized = false;
+
+                long now = System.currentTimeMillis();
+                int tipHeight = getBitcoindService().getBlockchainInfo().blocks();
+                Map<String, Date> rescanDescriptors = new LinkedHashMap<>(resumingDescriptors);
+                Set<Integer> startHeights = new HashSet<>();
+                if(!resumingDescriptors.isEmpty()) {
+                    startHeights.add(Math.min(resumeHeight, tipHeight));
+                }
+                for(Map.Entry<String, ScanDate> entry : importingDescriptors.entrySet()) {
+                    Date rescanSince = entry.getValue().rescanSince();
+                    if(rescanSince != null && rescanSince.getTime() < now) {
+                        rescanDescriptors.put(entry.getKey(), rescanSince);
+                        startHeights.add(getBlockHeight(rescanSince, tipHeight));
+                    }
+                }
+
+                List<RescanWindow> rescanWindows = getRescanWindows(startHeights, tipHeight);
+                if(!rescanWindows.isEmpty()) {
+                    saveRescanCheckpoint(new RescanCheckpoint.Checkpoint(rescanWindows.getFirst().startHeight(), rescanDescriptors));
+                }
+
+                //Descriptors are imported without rescanning, as the blocks since their birth dates are rescanned afterwards in windows
+                List<ImportDescriptor> importDescriptors = getImportDescriptors(importingDescriptors);
+                List<ImportDescriptorResult> results = importDescriptors.isEmpty() ? Collections.emptyList() : getBitcoindService().importDescriptors(importDescriptors);
+                for(int i = 0; i < importDescriptors.size(); i++) {
+                    ImportDescriptor importDescriptor = importDescriptors.get(i);
+                    ImportDescriptorResult importDescriptorResult = results.get(i);
+                    ScanDate scanDate = importingDescriptors.get(importDescriptor.getDesc());
+                    if(!importDescriptorResult.success()) {
+                        log.error("Error importing descriptor " + importDescriptor.getDesc() + ": " + importDescriptorResult);
+                        rescanDescriptors.remove(importDescriptor.getDesc());
+                    } else if(!rescanDescriptors.containsKey(importDescriptor.getDesc())) {
+                        importedDescriptors.put(importDescriptor.getDesc(), new ScanDate(scanDate.rescanSince(), scanDate.range(), false));
+                    }
+                }
+
+                if(!rescanDescriptors.isEmpty()) {
+                    for(RescanWindow rescanWindow : rescanWindows) {
+                        scanningWindow = rescanWindow;
+                        getBitcoindService().rescanBlockchain(rescanWindow.startHeight(), rescanWindow.stopHeight());
+                        saveRescanCheckpoint(new RescanCheckpoint.Checkpoint(rescanWindow.stopHeight() + 1, rescanDescriptors));
+
+                        int percent = rescanWindow.getPercent(1.0);
+                        if(percent > 0 && percent < 100) {
+                            Set<Wallet> scanningWallets = getScanningWallets();
+                            Platform.runLater(() -> EventManager.get().post(new CormorantScanStatusEvent("Scanning (" + percent + "%)", scanningWallets, percent, null)));
+                        }
+                    }
+                }
+
+                //Each descriptor is recorded with its own birth date, rather than the earliest date of the rescan it was part of
+                for(Map.Entry<String, Date> entry : rescanDescriptors.entrySet()) {
+                    ScanDate scanDate = importingDescriptors.containsKey(entry.getKey()) ? importingDescriptors.get(entry.getKey()) : importedDescriptors.get(entry.getKey());
+                    importedDescriptors.put(entry.getKey(), new ScanDate(entry.getValue(), scanDate.range(), false));
+                }
+                rescanCheckpoint.delete();
             } finally {
+                scanningWindow = null;
                 scanningLock.unlock();
                 Set<Wallet> scanningWallets = getScanningWallets();
                 Platform.runLater(() -> EventManager.get().post(new CormorantScanStatusEvent("Scanning completed", scanningWallets, 100, Duration.ZERO)));
                 scanningDescriptors.clear();
             }
+        }
 
-            for(int i = 0; i < importDescriptors.size(); i++) {
-                ImportDescriptor importDescriptor = importDescriptors.get(i);
-                ImportDescriptorResult importDescriptorResult = results.get(i);
-                if(importDescriptorResult.success()) {
-                    importedDescriptors.put(importDescriptor.getDesc(), importingDescriptors.get(importDescriptor.getDesc()));
-                } else {
-                    log.error("Error importing descriptor " + importDescriptor.getDesc() + ": " + importDescriptorResult);
-                }
+        initialized = true;
+        Set<String> addedDescriptors = new LinkedHashSet<>(importingDescriptors.keySet());
+        addedDescriptors.addAll(resumingDescriptors.keySet());
+        return addedDescriptors;
+    }
+
+    private List<ImportDescriptor> getImportDescriptors(Map<String, ScanDate> importingDescriptors) {
+        return importingDescriptors.entrySet().stream().map(entry -> {
+            ScanDate scanDate = entry.getValue();
+            if(entry.getKey().contains("/0/*")) {
+                return new ImportRangedDescriptor(entry.getKey(), true, scanDate.range(), "now", false);
+            } else if(entry.getKey().contains("/1/*")) {
+                return new ImportRangedDescriptor(entry.getKey(), false, scanDate.range(), "now", true);
             }
+            return new ImportDescriptor(entry.getKey(), false, "now", true);
+        }).toList();
+    }
+
+    /**
+     * Splits a rescan into windows in ascending block height order. A window starts at each block height from which a descriptor must be scanned,
+     * and windows are split further so that none exceeds RESCAN_WINDOW_BLOCKS. Core scans all wallet descriptors in each window, so the blocks
+     * from the earliest start height to the tip are only scanned once, while each completed window is a checkpoint an interrupted rescan can resume from.
+     */
+    private List<RescanWindow> getRescanWindows(Set<Integer> startHeights, int tipHeight) {
+        List<Integer> windowStarts = new ArrayList<>(new TreeSet<>(startHeights));
+        List<RescanWindow> rescanWindows = new ArrayList<>();
+        if(windowStarts.isEmpty()) {
+            return rescanWindows;
         }
 
-        initialized = true;
-        return importingDescriptors.keySet();
+        int firstHeight = windowStarts.getFirst();
+        double totalBlocks = tipHeight - firstHeight + 1;
+        for(int i = 0; i < windowStarts.size(); i++) {
+            int endHeight = i < windowStarts.size() - 1 ? windowStarts.get(i + 1) - 1 : tipHeight;
+            for(int startHeight = windowStarts.get(i); startHeight <= endHeight; startHeight += RESCAN_WINDOW_BLOCKS) {
+                int stopHeight = Math.min(startHeight + RESCAN_WINDOW_BLOCKS - 1, endHeight);
+                rescanWindows.add(new RescanWindow(startHeight, stopHeight, (startHeight - firstHeight) / totalBlocks, (stopHeight - startHeight + 1) / totalBlocks));
+            }
+        }
+
+        return rescanWindows;
+    }
+
+    /**
+     * Finds the height of the first block that may contain transactions from the given date, by binary search over block timestamps.
+     * As Core does when rescanning from a timestamp, blocks up to RESCAN_TIMESTAMP_WINDOW_SECS before the date are included to allow for inaccurate block timestamps.
+     */
+    private int getBlockHeight(Date date, int tipHeight) {
+        long time = date.getTime() / 1000 - RESCAN_TIMESTAMP_WINDOW_SECS;
+        int low = 0;
+        int high = tipHeight;
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            VerboseBlockHeader blockHeader = getBitcoindService().getBlockHeader(getBitcoindService().getBlockHash(mid));
+            if(blockHeader.time() < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    private RescanCheckpoint.Checkpoint loadRescanCheckpoint() {
+        try {
+            return rescanCheckpoint.load(serverUrl);
+        } catch(IOException e) {
+            log.warn("Error loading rescan checkpoint", e);
+            return null;
+        }
+    }
+
+    private void saveRescanCheckpoint(RescanCheckpoint.Checkpoint checkpoint) {
+        try {
+            rescanCheckpoint.save(serverUrl, checkpoint);
+        } catch(IOException e) {
+            log.warn("Error saving rescan checkpoint", e);
+        }
     }
 
     public void stop() {
         timer.cancel();
+        saveStoreSnapshot();
+        log.debug("Stopped with " + transactionCache);
         pruneWarnedDescriptors.clear();
         stopped = true;
     }
@@ -448,6 +641,7 @@ public class BitcoindClient {
         Set<String> updatedScriptHashes = new HashSet<>();
 
         for(ListTransaction removedTransaction : listSinceBlock.removed()) {
+            transactionCache.invalidate(removedTransaction.txid());
             if(removedTransaction.confirmations() < 0) {
                 updatedScriptHashes.addAll(store.purgeTransaction(removedTransaction.txid()));
             }
@@ -515,11 +709,19 @@ public class BitcoindClient {
     }
 
     private String getTransaction(String txid) {
+        String txhex = transactionCache.getRawTransaction(txid);
+        if(txhex != null) {
+            return txhex;
+        }
+
         try {
-            return getBitcoindService().getTransaction(txid, true, false).get("hex").toString();
+            txhex = getBitcoindService().getTransaction(txid, true, false).get("hex").toString();
         } catch(JsonRpcException e) {
-            return getBitcoindService().getRawTransaction(txid, false).toString();
+            txhex = getBitcoindService().getRawTransaction(txid, false).toString();
         }
+
+        transactionCache.putRawTransaction(txid, txhex);
+        return txhex;
     }
 
     private void syncMempool(boolean forceRefresh) {
@@ -589,48 +791,93 @@ public class BitcoindClient {
         mempoolEntriesState = MempoolEntriesState.INITIALIZING;
 
         long start = System.currentTimeMillis();
-        Set<Sha256Hash> txids = getBitcoindService().getRawMempool();
+        RawMempool rawMempool = getBitcoindService().getRawMempool(false, true);
         long end = System.currentTimeMillis();
 
         if(end - start < 1000) {
-            //Fast system, fetch all mempool data at once
-            Map<Sha256Hash, VsizeFeerate> entries = getBitcoindService().getRawMempool(true).entrySet().stream()
-                    .collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().getVsizeFeerate(), (u, v) -> u, HashMap::new));
-            mempoolEntries.putAll(entries);
-        } else {
-            //Slow system, fetch mempool entries one-by-one to avoid risking a node crash
-            for(Sha256Hash txid : txids) {
-                try {
-                    MempoolEntry mempoolEntry = getBitcoindService().getMempoolEntry(txid.toString());
-                    mempoolEntries.put(txid, mempoolEntry.getVsizeFeerate());
-                } catch(JsonRpcException e) {
-                    //ignore, probably tx has been removed from mempool
+            //Fast system, fetch all mempool data at once. Core cannot return the sequence with verbose results, so only the txids
+            //in the sequenced snapshot are kept. Any removed since are absent, and any added since will be fetched on the next update.
+            Set<Sha256Hash> txids = rawMempool.txids();
+            for(Map.Entry<Sha256Hash, MempoolEntry> entry : getBitcoindService().getRawMempool(true).entrySet()) {
+                if(txids.contains(entry.getKey())) {
+                    putMempoolEntry(entry.getKey(), entry.getValue().getVsizeFeerate());
                 }
             }
+        } else {
+            //Slow system, fetch mempool entries in small batches to avoid risking a node crash
+            fetchMempoolEntries(rawMempool.txids());
         }
 
+        mempoolSequence = rawMempool.mempool_sequence();
         mempoolEntriesState = MempoolEntriesState.INITIALIZED;
     }
 
     public void updateMempoolEntries() {
-        Set<Sha256Hash> txids = getBitcoindService().getRawMempool();
+        RawMempool rawMempool = getBitcoindService().getRawMempool(false, true);
+        if(rawMempool.mempool_sequence() == mempoolSequence) {
+            //Mempool has not changed since the last update
+            return;
+        }
 
-        Set<Sha256Hash> removed = new HashSet<>(Sets.difference(mempoolEntries.keySet(), txids));
-        mempoolEntries.keySet().removeAll(removed);
+        Set<Sha256Hash> txids = rawMempool.txids();
+        for(Sha256Hash txid : mempoolEntries.getTxids()) {
+            if(!txids.contains(txid)) {
+                removeMempoolEntry(txid);
+            }
+        }
 
-        Set<Sha256Hash> added = Sets.difference(txids, mempoolEntries.keySet());
-        for(Sha256Hash txid : added) {
-            try {
-                MempoolEntry mempoolEntry = getBitcoindService().getMempoolEntry(txid.toString());
-                mempoolEntries.put(txid, mempoolEntry.getVsizeFeerate());
-            } catch(JsonRpcException e) {
-                //ignore, probably tx has been removed from mempool
+        List<Sha256Hash> added = txids.stream().filter(txid -> !mempoolEntries.contains(txid)).toList();
+        fetchMempoolEntries(added);
+        mempoolSequence = rawMempool.mempool_sequence();
+    }
+
+    private void fetchMempoolEntries(Collection<Sha256Hash> txids) {
+        List<Sha256Hash> txidList = new ArrayList<>(txids);
+        for(int i = 0; i < txidList.size(); i += MEMPOOL_ENTRY_BATCH_SIZE) {
+            List<Sha256Hash> batch = txidList.subList(i, Math.min(i + MEMPOOL_ENTRY_BATCH_SIZE, txidList.size()));
+            BatchRequestBuilder<String, MempoolEntry> batchRequest = jsonRpcClient.createBatchRequest().keysType(String.class).returnType(MempoolEntry.class);
+            for(Sha256Hash txid : batch) {
+                batchRequest.add(txid.toString(), "getmempoolentry", txid.toString());
+            }
+
+            Map<String, MempoolEntry> entries = executeMempoolBatch(batchRequest);
+            for(Map.Entry<String, MempoolEntry> entry : entries.entrySet()) {
+                putMempoolEntry(Sha256Hash.wrap(entry.getKey()), entry.getValue().getVsizeFeerate());
             }
         }
     }
 
-    public Map<Sha256Hash, VsizeFeerate> getMempoolEntries() {
-        return mempoolEntries;
+    @SuppressWarnings("unchecked")
+    private Map<String, MempoolEntry> executeMempoolBatch(BatchRequestBuilder<String, MempoolEntry> batchRequest) {
+        try {
+            return batchRequest.execute();
+        } catch(JsonRpcBatchException e) {
+            //ignore errors, probably txes have been removed from mempool
+            return (Map<String, MempoolEntry>)e.getSuccesses();
+        }
+    }
+
+    private void putMempoolEntry(Sha256Hash txid, VsizeFeerate vsizeFeerate) {
+        VsizeFeerate previous = mempoolEntries.put(txid, vsizeFeerate);
+        if(previous != null) {
+            feeHistogram.remove(previous);
+        }
+        feeHistogram.add(vsizeFeerate);
+    }
+
+    private void removeMempoolEntry(Sha256Hash txid) {
+        VsizeFeerate removed = mempoolEntries.remove(txid);
+        if(removed != null) {
+            feeHistogram.remove(removed);
+        }
+    }
+
+    public int getMempoolSize() {
+        return mempoolEntries.size();
+    }
+
+    public List<List<Number>> getFeeHistogram() {
+        return feeHistogram.getHistogram();
     }
 
     public MempoolEntriesState getMempoolEntriesState() {
@@ -649,6 +896,10 @@ public class BitcoindClient {
         return store;
     }
 
+    public TransactionCache getTransactionCache() {
+        return transactionCache;
+    }
+
     public BitcoindClientService getBitcoindService() {
         return jsonRpcClient.onDemand(BitcoindClientService.class);
     }
@@ -661,6 +912,87 @@ public class BitcoindClient {
         return tip;
     }
 
+    private void setTip(ElectrumBlockHeader tip) {
+        this.tip = tip;
+        headerCache.put(tip.height(), tip.hex());
+    }
+
+    public String getBlockHeader(int height) {
+        String header = headerCache.get(height);
+        if(header == null) {
+            String blockHash = store.getBlockHash(height);
+            if(blockHash == null) {
+                blockHash = getBitcoindService().getBlockHash(height);
+            }
+
+            header = getBitcoindService().getBlockHeader(blockHash, false);
+            headerCache.put(height, header);
+        }
+
+        return header;
+    }
+
+    /**
+     * Returns the serialized headers for a contiguous range of heights, fetching any headers not already cached from Bitcoin Core in two batch requests.
+     * The returned list ends early at the chain tip, or at the first header that could not be retrieved.
+     */
+    public List<String> getBlockHeaders(int startHeight, int count) {
+        int endHeight = Math.min(startHeight + count, tip.height() + 1);
+        Map<Integer, String> headers = new HashMap<>();
+        Map<Integer, String> blockHashes = new HashMap<>();
+        List<Integer> unknownHashes = new ArrayList<>();
+
+        for(int height = startHeight; height < endHeight; height++) {
+            String header = headerCache.get(height);
+            if(header != null) {
+                headers.put(height, header);
+            } else {
+                String blockHash = store.getBlockHash(height);
+                if(blockHash != null) {
+                    blockHashes.put(height, blockHash);
+                } else {
+                    unknownHashes.add(height);
+                }
+            }
+        }
+
+        if(!unknownHashes.isEmpty()) {
+            BatchRequestBuilder<Integer, String> batchRequest = jsonRpcClient.createBatchRequest().keysType(Integer.class).returnType(String.class);
+            for(Integer height : unknownHashes) {
+                batchRequest.add(height, "getblockhash", height);
+            }
+            blockHashes.putAll(executeBatch(batchRequest));
+        }
+
+        if(!blockHashes.isEmpty()) {
+            BatchRequestBuilder<Integer, String> batchRequest = jsonRpcClient.createBatchRequest().keysType(Integer.class).returnType(String.class);
+            for(Map.Entry<Integer, String> entry : blockHashes.entrySet()) {
+                batchRequest.add(entry.getKey(), "getblockheader", entry.getValue(), false);
+            }
+            Map<Integer, String> fetchedHeaders = executeBatch(batchRequest);
+            for(Map.Entry<Integer, String> entry : fetchedHeaders.entrySet()) {
+                headerCache.put(entry.getKey(), entry.getValue());
+            }
+            headers.putAll(fetchedHeaders);
+        }
+
+        List<String> rangeHeaders = new ArrayList<>();
+        for(int height = startHeight; height < endHeight && headers.containsKey(height); height++) {
+            rangeHeaders.add(headers.get(height));
+        }
+
+        return rangeHeaders;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<Integer, String> executeBatch(BatchRequestBuilder<Integer, String> batchRequest) {
+        try {
+            return batchRequest.execute();
+        } catch(JsonRpcBatchException e) {
+            return (Map<Integer, String>)e.getSuccesses();
+        }
+    }
+
     private class PollTask extends TimerTask {
         @Override
         public void run() {
@@ -692,6 +1024,8 @@ public class BitcoindClient {
                     if(!lastBlock.equals(blockhash)) {
                         log.warn("Reorg detected, block height " + tip.height() + " was " + lastBlock + " and now is " + blockhash);
                         lastBlock = null;
+                        transactionCache.invalidateVerbose();
+                        headerCache.clear();
                     }
                 }
 
@@ -705,8 +1039,9 @@ public class BitcoindClient {
 
                 if(currentBlock == null || !currentBlock.equals(listSinceBlock.lastblock())) {
                     VerboseBlockHeader blockHeader = getBitcoindService().getBlockHeader(listSinceBlock.lastblock());
-                    tip = blockHeader.getBlockHeader();
+                    setTip(blockHeader.getBlockHeader());
                     Cormorant.getEventBus().post(tip);
+                    saveStoreSnapshot();
                 }
 
                 if(scanningLock.tryLock()) {
@@ -715,8 +1050,10 @@ public class BitcoindClient {
                     WalletInfo walletInfo = getBitcoindService().getWalletInfo();
                     if(walletInfo.scanning().isScanning()) {
                         Set<Wallet> scanningWallets = getScanningWallets();
-                        int percent = walletInfo.scanning().getPercent();
-                        Duration remainingDuration = walletInfo.scanning().getRemaining();
+                        RescanWindow rescanWindow = scanningWindow;
+                        int percent = rescanWindow == null ? walletInfo.scanning().getPercent() : rescanWindow.getPercent(walletInfo.scanning().getProgress());
+                        //Core only reports the time remaining for the window currently being scanned
+                        Duration remainingDuration = rescanWindow == null || rescanWindow.isLast() ? walletInfo.scanning().getRemaining() : null;
                         if(percent > 0) {
                             Platform.runLater(() -> EventManager.get().post(new CormorantScanStatusEvent("Scanning" + (percent < 100 ? " (" + percent + "%)" : ""), scanningWallets, percent, remainingDuration)));
                         }
@@ -756,8 +1093,16 @@ public class BitcoindClient {
     }
 
     private record ScanDate(Date rescanSince, Integer range, boolean forceRescan) {
-        public Object getTimestamp() {
-            return rescanSince == null ? "now" : rescanSince.getTime() / 1000;
+
+    }
+
+    private record RescanWindow(int startHeight, int stopHeight, double progressStart, double progressWeight) {
+        public int getPercent(double windowProgress) {
+            return (int)((progressStart + progressWeight * windowProgress) * 100.0);
+        }
+
+        public boolean isLast() {
+            return progressStart + progressWeight >= 0.999;
         }
     }
 
@@ -31,6 +31,9 @@ public interface BitcoindClientService {
     @JsonRpcMethod("getrawmempool")
     Map<Sha256Hash, MempoolEntry> getRawMempool(@JsonRpcParam("verbose") boolean verbose);
 
+    @JsonRpcMethod("getrawmempool")
+    RawMempool getRawMempool(@JsonRpcParam("verbose") boolean verbose, @JsonRpcParam("mempool_sequence") boolean mempoolSequence);
+
     @JsonRpcMethod("getmempoolinfo")
     MempoolInfo getMempoolInfo();
 
@@ -92,6 +95,9 @@ public interface BitcoindClientService {
     @JsonRpcMethod("importdescriptors")
     List<ImportDescriptorResult> importDescriptors(@JsonRpcParam("requests") List<ImportDescriptor> importDescriptors);
 
+    @JsonRpcMethod("rescanblockchain")
+    Map<String, Object> rescanBlockchain(@JsonRpcParam("start_height") int startHeight, @JsonRpcParam("stop_height") int stopHeight);
+
     @JsonRpcMethod("sendrawtransaction")
     String sendRawTransaction(@JsonRpcParam("hexstring") String rawTx, @JsonRpcParam("maxfeerate") Double maxFeeRate);
 }
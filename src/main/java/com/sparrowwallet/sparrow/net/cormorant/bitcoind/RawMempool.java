@@ -0,0 +1,11 @@
+package com.sparrowwallet.sparrow.net.cormorant.bitcoind;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.sparrowwallet.drongo.protocol.Sha256Hash;
+
+import java.util.Set;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record RawMempool(Set<Sha256Hash> txids, long mempool_sequence) {
+
+}
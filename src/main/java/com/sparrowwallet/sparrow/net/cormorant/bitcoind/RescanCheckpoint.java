@@ -0,0 +1,84 @@
+package com.sparrowwallet.sparrow.net.cormorant.bitcoind;
+
+import com.sparrowwallet.sparrow.io.Storage;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Persists the progress of a descriptor rescan, being the descriptors being rescanned with their birth dates and the next block height to scan.
+ * The checkpoint is updated as each rescan window completes, so that a rescan interrupted by a restart resumes from the last completed window.
+ */
+public class RescanCheckpoint {
+    private static final String CHECKPOINT_FILENAME = "cormorant.rescan";
+    private static final int MAGIC = 0x52534341;
+    private static final int VERSION = 1;
+
+    private final File file;
+
+    public RescanCheckpoint() {
+        this(new File(Storage.getSparrowDir(), CHECKPOINT_FILENAME));
+    }
+
+    public RescanCheckpoint(File file) {
+        this.file = file;
+    }
+
+    public void save(String serverUrl, Checkpoint checkpoint) throws IOException {
+        File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        Files.deleteIfExists(tempFile.toPath());
+        Storage.createOwnerOnlyFile(tempFile);
+
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(serverUrl == null ? "" : serverUrl);
+            out.writeInt(checkpoint.nextHeight());
+            out.writeInt(checkpoint.descriptorBirthDates().size());
+            for(Map.Entry<String, Date> entry : checkpoint.descriptorBirthDates().entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue().getTime());
+            }
+        }
+
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the checkpoint of an incomplete rescan on this server, or null if there is none
+     */
+    public Checkpoint load(String serverUrl) throws IOException {
+        if(!file.exists()) {
+            return null;
+        }
+
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+
+            if(!in.readUTF().equals(serverUrl == null ? "" : serverUrl)) {
+                return null;
+            }
+
+            int nextHeight = in.readInt();
+            int count = in.readInt();
+            Map<String, Date> descriptorBirthDates = new LinkedHashMap<>();
+            for(int i = 0; i < count; i++) {
+                descriptorBirthDates.put(in.readUTF(), new Date(in.readLong()));
+            }
+
+            return new Checkpoint(nextHeight, descriptorBirthDates);
+        }
+    }
+
+    public void delete() {
+        file.delete();
+    }
+
+    public record Checkpoint(int nextHeight, Map<String, Date> descriptorBirthDates) {}
+}
@@ -13,6 +13,15 @@ public class VsizeFeerate implements Comparable<VsizeFeerate> {
         this.feerate = (float) (Math.floor(10 * feeRate) / 10);
     }
 
+    private VsizeFeerate(float feerate, int vsize) {
+        this.vsize = vsize;
+        this.feerate = feerate;
+    }
+
+    public static VsizeFeerate fromFeerate(int vsize, float feerate) {
+        return new VsizeFeerate(feerate, vsize);
+    }
+
     public int getVsize() {
         return vsize;
     }
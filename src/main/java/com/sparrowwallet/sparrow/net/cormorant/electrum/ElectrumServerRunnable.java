@@ -1,5 +1,6 @@
 package com.sparrowwallet.sparrow.net.cormorant.electrum;
 
+import com.sparrowwallet.sparrow.net.cormorant.Cormorant;
 import com.sparrowwallet.sparrow.net.cormorant.bitcoind.BitcoindClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -13,13 +14,20 @@ import java.util.concurrent.Executors;
 public class ElectrumServerRunnable implements Runnable {
     private static final Logger log = LoggerFactory.getLogger(ElectrumServerRunnable.class);
 
+    private static final int MAX_BATCH_PARALLELISM = 8;
+
     private final BitcoindClient bitcoindClient;
+    private final SubscriptionIndex subscriptionIndex = new SubscriptionIndex();
 
     protected ServerSocket serverSocket = null;
     protected boolean stopped = false;
     protected Thread runningThread = null;
-    protected ExecutorService threadPool = Executors.newFixedThreadPool(10, r -> {
+    //Each client connection is handled on its own virtual thread, so the number of connections is not limited by a fixed pool
+    protected ExecutorService threadPool = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("Cormorant Electrum Client-", 0).factory());
+    //Batch request elements share a bounded pool to limit concurrent requests made to Bitcoin Core
+    protected ExecutorService batchPool = Executors.newFixedThreadPool(MAX_BATCH_PARALLELISM, r -> {
         Thread t = Executors.defaultThreadFactory().newThread(r);
+        t.setName("Cormorant Batch Request-" + t.threadId());
         t.setDaemon(true);
         return t;
     });
@@ -37,6 +45,8 @@ public class ElectrumServerRunnable implements Runnable {
         synchronized(this) {
             this.runningThread = Thread.currentThread();
         }
+        Cormorant.getEventBus().register(subscriptionIndex);
+
         while(!isStopped()) {
             Socket clientSocket;
             try {
@@ -47,11 +57,13 @@ public class ElectrumServerRunnable implements Runnable {
                 }
                 throw new RuntimeException("Error accepting client connection", e);
             }
-            RequestHandler requestHandler = new RequestHandler(clientSocket, bitcoindClient);
+            RequestHandler requestHandler = new RequestHandler(clientSocket, bitcoindClient, batchPool, subscriptionIndex);
             this.threadPool.execute(requestHandler);
         }
 
+        Cormorant.getEventBus().unregister(subscriptionIndex);
         this.threadPool.shutdown();
+        this.batchPool.shutdown();
     }
 
     private synchronized boolean isStopped() {
@@ -5,7 +5,6 @@ import com.github.arteam.simplejsonrpc.core.annotation.JsonRpcMethod;
 import com.github.arteam.simplejsonrpc.core.annotation.JsonRpcOptional;
 import com.github.arteam.simplejsonrpc.core.annotation.JsonRpcParam;
 import com.github.arteam.simplejsonrpc.core.annotation.JsonRpcService;
-import com.sparrowwallet.drongo.protocol.Sha256Hash;
 import com.sparrowwallet.sparrow.EventManager;
 import com.sparrowwallet.sparrow.SparrowWallet;
 import com.sparrowwallet.sparrow.event.MempoolEntriesInitializedEvent;
@@ -13,6 +12,7 @@ import com.sparrowwallet.drongo.Version;
 import com.sparrowwallet.sparrow.net.BlockStats;
 import com.sparrowwallet.sparrow.net.cormorant.Cormorant;
 import com.sparrowwallet.sparrow.net.cormorant.bitcoind.*;
+import com.sparrowwallet.sparrow.net.cormorant.index.TransactionCache;
 import com.sparrowwallet.sparrow.net.cormorant.index.TxEntry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,8 +23,8 @@ import java.util.*;
 public class ElectrumServerService {
     private static final Logger log = LoggerFactory.getLogger(ElectrumServerService.class);
     private static final Version VERSION = new Version("1.4");
-    private static final long VSIZE_BIN_WIDTH = 50000;
     private static final double DEFAULT_FEE_RATE = 0.00001d;
+    private static final int MAX_BLOCK_HEADERS = 2016;
 
     private final BitcoindClient bitcoindClient;
     private final RequestHandler requestHandler;
@@ -81,29 +81,7 @@ public class ElectrumServerService {
 
             return Collections.emptyList();
         } else {
-            Map<Sha256Hash, VsizeFeerate> mempoolEntries = bitcoindClient.getMempoolEntries();
-            List<VsizeFeerate> vsizeFeerates = new ArrayList<>(mempoolEntries.values());
-            Collections.sort(vsizeFeerates);
-
-            List<List<Number>> histogram = new ArrayList<>();
-            long binSize = 0;
-            double lastFeerate = 0.0;
-
-            for(VsizeFeerate vsizeFeerate : vsizeFeerates) {
-                if(binSize > VSIZE_BIN_WIDTH && Math.abs(lastFeerate - vsizeFeerate.getFeerate()) > 0.0d) {
-                    // vsize of transactions paying >= last_feerate
-                    histogram.add(List.of(lastFeerate, binSize));
-                    binSize = 0;
-                }
-                binSize += vsizeFeerate.getVsize();
-                lastFeerate = vsizeFeerate.getFeerate();
-            }
-
-            if(binSize > 0) {
-                histogram.add(List.of(lastFeerate, binSize));
-            }
-
-            return histogram;
+            return bitcoindClient.getFeeHistogram();
         }
     }
 
@@ -146,12 +124,7 @@ public class ElectrumServerService {
     @JsonRpcMethod("blockchain.block.header")
     public String getBlockHeader(@JsonRpcParam("height") int height) throws BitcoindIOException, BlockNotFoundException {
         try {
-            String blockHash = bitcoindClient.getStore().getBlockHash(height);
-            if(blockHash == null) {
-                blockHash = bitcoindClient.getBitcoindService().getBlockHash(height);
-            }
-
-            return bitcoindClient.getBitcoindService().getBlockHeader(blockHash, false);
+            return bitcoindClient.getBlockHeader(height);
         } catch(JsonRpcException e) {
             throw new BlockNotFoundException(e.getErrorMessage());
         } catch(IllegalStateException e) {
@@ -159,6 +132,17 @@ public class ElectrumServerService {
         }
     }
 
+    @JsonRpcMethod("blockchain.block.headers")
+    public ElectrumBlockHeaders getBlockHeaders(@JsonRpcParam("start_height") int startHeight, @JsonRpcParam("count") int count, @JsonRpcParam("cp_height") @JsonRpcOptional int cpHeight) throws BitcoindIOException {
+        //Checkpoint merkle proofs are not supported, so cp_height is ignored
+        try {
+            List<String> headers = bitcoindClient.getBlockHeaders(startHeight, Math.max(0, Math.min(count, MAX_BLOCK_HEADERS)));
+            return new ElectrumBlockHeaders(headers.size(), String.join("", headers), MAX_BLOCK_HEADERS);
+        } catch(IllegalStateException e) {
+            throw new BitcoindIOException(e);
+        }
+    }
+
     @JsonRpcMethod("blockchain.block.stats")
     public BlockStats getBlockStats(@JsonRpcParam("height") int height) throws BitcoindIOException, BlockNotFoundException {
         try {
@@ -173,9 +157,21 @@ public class ElectrumServerService {
     @JsonRpcMethod("blockchain.transaction.get")
     @SuppressWarnings("unchecked")
     public Object getTransaction(@JsonRpcParam("tx_hash") String tx_hash, @JsonRpcParam("verbose") @JsonRpcOptional boolean verbose) throws BitcoindIOException, TransactionNotFoundException {
+        TransactionCache transactionCache = bitcoindClient.getTransactionCache();
+        int tipHeight = bitcoindClient.getTip().height();
+
         if(verbose) {
+            Map<String, Object> cached = transactionCache.getVerboseTransaction(tx_hash, tipHeight);
+            if(cached != null) {
+                return cached;
+            }
+
             try {
-                return bitcoindClient.getBitcoindService().getRawTransaction(tx_hash, true);
+                Object rawTransaction = bitcoindClient.getBitcoindService().getRawTransaction(tx_hash, true);
+                if(rawTransaction instanceof Map<?, ?>) {
+                    transactionCache.putVerboseTransaction(tx_hash, (Map<String, Object>)rawTransaction, tipHeight);
+                }
+                return rawTransaction;
             } catch(JsonRpcException e) {
                 try {
                     Map<String, Object> txInfo = bitcoindClient.getBitcoindService().getTransaction(tx_hash, true, true);
@@ -187,6 +183,7 @@ public class ElectrumServerService {
                         decodedMap.put("blockhash", txInfo.get("blockhash"));
                         decodedMap.put("time", txInfo.get("time"));
                         decodedMap.put("blocktime", txInfo.get("blocktime"));
+                        transactionCache.putVerboseTransaction(tx_hash, decodedMap, tipHeight);
                         return decoded;
                     }
                     throw new TransactionNotFoundException(e.getErrorMessage());
@@ -199,11 +196,20 @@ public class ElectrumServerService {
                 throw new BitcoindIOException(e);
             }
         } else {
+            String cached = transactionCache.getRawTransaction(tx_hash);
+            if(cached != null) {
+                return cached;
+            }
+
             try {
-                return bitcoindClient.getBitcoindService().getTransaction(tx_hash, true, false).get("hex");
+                Object hex = bitcoindClient.getBitcoindService().getTransaction(tx_hash, true, false).get("hex");
+                transactionCache.putRawTransaction(tx_hash, hex == null ? null : hex.toString());
+                return hex;
             } catch(JsonRpcException e) {
                 try {
-                    return bitcoindClient.getBitcoindService().getRawTransaction(tx_hash, false);
+                    Object hex = bitcoindClient.getBitcoindService().getRawTransaction(tx_hash, false);
+                    transactionCache.putRawTransaction(tx_hash, hex == null ? null : hex.toString());
+                    return hex;
                 } catch(JsonRpcException ex) {
                     throw new TransactionNotFoundException(ex.getErrorMessage());
                 } catch(IllegalStateException ex) {
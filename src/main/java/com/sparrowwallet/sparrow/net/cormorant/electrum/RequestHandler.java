@@ -1,9 +1,9 @@
 package com.sparrowwallet.sparrow.net.cormorant.electrum;
 
-import com.github.arteam.simplejsonrpc.client.JsonRpcClient;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.github.arteam.simplejsonrpc.server.JsonRpcServer;
-import com.google.common.eventbus.Subscribe;
-import com.sparrowwallet.sparrow.net.cormorant.Cormorant;
 import com.sparrowwallet.sparrow.net.cormorant.bitcoind.BitcoindClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,25 +11,41 @@ import org.slf4j.LoggerFactory;
 import java.io.*;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.*;
 
 public class RequestHandler implements Runnable {
     private static final Logger log = LoggerFactory.getLogger(RequestHandler.class);
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    //Maximum number of messages waiting to be written before a client is considered too slow and disconnected
+    private static final int MAX_PENDING_MESSAGES = 10000;
+    //Queued after the last message to stop the writer thread
+    private static final Object CLOSE = new Object();
+
     private final Socket clientSocket;
     private final ElectrumServerService electrumServerService;
     private final JsonRpcServer rpcServer = new JsonRpcServer();
+    private final ExecutorService batchExecutor;
+    private final SubscriptionIndex subscriptionIndex;
 
-    private boolean headersSubscribed;
-    private final Set<String> scriptHashesSubscribed = new HashSet<>();
+    private final BlockingQueue<Object> pendingMessages = new LinkedBlockingQueue<>(MAX_PENDING_MESSAGES);
+    private volatile boolean closed;
 
-    public RequestHandler(Socket clientSocket, BitcoindClient bitcoindClient) {
+    private final Set<String> scriptHashesSubscribed = ConcurrentHashMap.newKeySet();
+
+    public RequestHandler(Socket clientSocket, BitcoindClient bitcoindClient, ExecutorService batchExecutor, SubscriptionIndex subscriptionIndex) {
         this.clientSocket = clientSocket;
         this.electrumServerService = new ElectrumServerService(bitcoindClient, this);
+        this.batchExecutor = batchExecutor;
+        this.subscriptionIndex = subscriptionIndex;
     }
 
     public void run() {
-        Cormorant.getEventBus().register(this);
+        Thread writerThread = null;
 
         try {
             InputStream input  = clientSocket.getInputStream();
@@ -37,6 +53,7 @@ public class RequestHandler implements Runnable {
 
             OutputStream output = clientSocket.getOutputStream();
             PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8)));
+            writerThread = Thread.ofVirtual().name("Cormorant Electrum Writer").start(() -> write(out));
 
             while(true) {
                 String request = reader.readLine();
@@ -44,44 +61,146 @@ public class RequestHandler implements Runnable {
                     break;
                 }
 
-                String response = rpcServer.handle(request, electrumServerService);
-                out.println(response);
-                out.flush();
+                String response = isBatch(request) ? handleBatch(request) : rpcServer.handle(request, electrumServerService);
+                if(response != null) {
+                    send(response);
+                }
             }
         } catch(IOException e) {
-            log.error("Could not communicate with client socket", e);
+            if(!closed) {
+                log.error("Could not communicate with client socket", e);
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            subscriptionIndex.unsubscribe(this, scriptHashesSubscribed);
+            close();
+            if(writerThread != null) {
+                pendingMessages.clear();
+                pendingMessages.offer(CLOSE);
+            }
         }
+    }
 
-        Cormorant.getEventBus().unregister(this);
+    private void write(PrintWriter out) {
+        try {
+            while(true) {
+                Object message = pendingMessages.take();
+                if(message == CLOSE) {
+                    break;
+                }
+
+                out.println(message);
+                //Coalesce flushes when several messages are waiting
+                if(pendingMessages.isEmpty()) {
+                    out.flush();
+                    if(out.checkError()) {
+                        close();
+                        break;
+                    }
+                }
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
-    public void setHeadersSubscribed(boolean headersSubscribed) {
-        this.headersSubscribed = headersSubscribed;
+    private boolean isBatch(String request) {
+        return request.stripLeading().startsWith("[");
     }
 
-    public void subscribeScriptHash(String scriptHash) {
-        scriptHashesSubscribed.add(scriptHash);
+    private String handleBatch(String request) {
+        List<JsonNode> elements = new ArrayList<>();
+        try {
+            JsonNode batch = OBJECT_MAPPER.readTree(request);
+            batch.forEach(elements::add);
+        } catch(IOException e) {
+            //Let the JSON-RPC server return the appropriate parse error
+            return rpcServer.handle(request, electrumServerService);
+        }
+
+        if(elements.isEmpty()) {
+            return rpcServer.handle(request, electrumServerService);
+        }
+
+        //Execute batch elements concurrently, but return the responses in request order
+        List<Future<String>> futures = new ArrayList<>(elements.size());
+        for(JsonNode element : elements) {
+            futures.add(batchExecutor.submit(() -> rpcServer.handle(OBJECT_MAPPER.writeValueAsString(element), electrumServerService)));
+        }
+
+        StringJoiner joiner = new StringJoiner(",", "[", "]");
+        joiner.setEmptyValue("");
+        for(int i = 0; i < futures.size(); i++) {
+            try {
+                String response = futures.get(i).get();
+                if(response != null && !response.isEmpty()) {
+                    joiner.add(response);
+                }
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch(ExecutionException e) {
+                log.error("Error handling batch request element", e.getCause());
+                //Requests (but not notifications) must always receive a response, otherwise the client waits for it indefinitely
+                JsonNode id = elements.get(i).get("id");
+                if(id != null) {
+                    joiner.add(getInternalErrorResponse(id));
+                }
+            }
+        }
+
+        String response = joiner.toString();
+        return response.isEmpty() ? null : response;
     }
 
-    public boolean isScriptHashSubscribed(String scriptHash) {
-        return scriptHashesSubscribed.contains(scriptHash);
+    private String getInternalErrorResponse(JsonNode id) {
+        ObjectNode response = OBJECT_MAPPER.createObjectNode();
+        response.put("jsonrpc", "2.0");
+        ObjectNode error = response.putObject("error");
+        error.put("code", -32603);
+        error.put("message", "Internal error");
+        response.set("id", id);
+        return response.toString();
+    }
+
+    private void send(String response) throws InterruptedException {
+        //Responses wait for queue space, which stops reading further requests from a client that is not reading its responses
+        while(!closed && !pendingMessages.offer(response, 1, TimeUnit.SECONDS)) {
+            //wait for the writer to drain the queue
+        }
+    }
+
+    public void sendNotification(String notification) {
+        //Notifications must never block the poll thread, so a client that cannot keep up is disconnected instead
+        if(!closed && !pendingMessages.offer(notification)) {
+            log.warn("Disconnecting slow Electrum client with " + pendingMessages.size() + " pending messages");
+            close();
+        }
+    }
+
+    private void close() {
+        closed = true;
+        try {
+            clientSocket.close();
+        } catch(IOException e) {
+            //ignore
+        }
     }
 
-    @Subscribe
-    public void newBlock(ElectrumBlockHeader electrumBlockHeader) {
+    public void setHeadersSubscribed(boolean headersSubscribed) {
         if(headersSubscribed) {
-            ElectrumNotificationTransport electrumNotificationTransport = new ElectrumNotificationTransport(clientSocket);
-            JsonRpcClient jsonRpcClient = new JsonRpcClient(electrumNotificationTransport);
-            jsonRpcClient.onDemand(ElectrumNotificationService.class).notifyHeaders(electrumBlockHeader);
+            subscriptionIndex.subscribeHeaders(this);
         }
     }
 
-    @Subscribe
-    public void scriptHashStatus(ScriptHashStatus scriptHashStatus) {
-        if(isScriptHashSubscribed(scriptHashStatus.scriptHash())) {
-            ElectrumNotificationTransport electrumNotificationTransport = new ElectrumNotificationTransport(clientSocket);
-            JsonRpcClient jsonRpcClient = new JsonRpcClient(electrumNotificationTransport);
-            jsonRpcClient.onDemand(ElectrumNotificationService.class).notifyScriptHash(scriptHashStatus.scriptHash(), scriptHashStatus.status());
+    public void subscribeScriptHash(String scriptHash) {
+        if(scriptHashesSubscribed.add(scriptHash)) {
+            subscriptionIndex.subscribeScriptHash(scriptHash, this);
         }
     }
+
+    public boolean isScriptHashSubscribed(String scriptHash) {
+        return scriptHashesSubscribed.contains(scriptHash);
+    }
 }
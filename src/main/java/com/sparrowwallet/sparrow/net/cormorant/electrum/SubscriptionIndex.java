@@ -0,0 +1,74 @@
+package com.sparrowwallet.sparrow.net.cormorant.electrum;
+
+import com.github.arteam.simplejsonrpc.client.JsonRpcClient;
+import com.google.common.eventbus.Subscribe;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Indexes client subscriptions so that each notification posted on the Cormorant event bus is serialized once
+ * and only delivered to the connections that have subscribed to it.
+ */
+public class SubscriptionIndex {
+    private final Set<RequestHandler> headerSubscribers = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<String, Set<RequestHandler>> scriptHashSubscribers = new ConcurrentHashMap<>();
+
+    public void subscribeHeaders(RequestHandler requestHandler) {
+        headerSubscribers.add(requestHandler);
+    }
+
+    public void subscribeScriptHash(String scriptHash, RequestHandler requestHandler) {
+        scriptHashSubscribers.compute(scriptHash, (hash, subscribers) -> {
+            Set<RequestHandler> handlers = subscribers == null ? ConcurrentHashMap.newKeySet() : subscribers;
+            handlers.add(requestHandler);
+            return handlers;
+        });
+    }
+
+    public void unsubscribe(RequestHandler requestHandler, Collection<String> scriptHashes) {
+        headerSubscribers.remove(requestHandler);
+        for(String scriptHash : scriptHashes) {
+            scriptHashSubscribers.computeIfPresent(scriptHash, (hash, subscribers) -> {
+                subscribers.remove(requestHandler);
+                return subscribers.isEmpty() ? null : subscribers;
+            });
+        }
+    }
+
+    @Subscribe
+    public void newBlock(ElectrumBlockHeader electrumBlockHeader) {
+        if(headerSubscribers.isEmpty()) {
+            return;
+        }
+
+        ElectrumNotificationTransport electrumNotificationTransport = new ElectrumNotificationTransport();
+        JsonRpcClient jsonRpcClient = new JsonRpcClient(electrumNotificationTransport);
+        jsonRpcClient.onDemand(ElectrumNotificationService.class).notifyHeaders(electrumBlockHeader);
+        deliver(headerSubscribers, electrumNotificationTransport.getNotification());
+    }
+
+    @Subscribe
+    public void scriptHashStatus(ScriptHashStatus scriptHashStatus) {
+        Set<RequestHandler> subscribers = scriptHashSubscribers.get(scriptHashStatus.scriptHash());
+        if(subscribers == null || subscribers.isEmpty()) {
+            return;
+        }
+
+        ElectrumNotificationTransport electrumNotificationTransport = new ElectrumNotificationTransport();
+        JsonRpcClient jsonRpcClient = new JsonRpcClient(electrumNotificationTransport);
+        jsonRpcClient.onDemand(ElectrumNotificationService.class).notifyScriptHash(scriptHashStatus.scriptHash(), scriptHashStatus.status());
+        deliver(subscribers, electrumNotificationTransport.getNotification());
+    }
+
+    private void deliver(Set<RequestHandler> subscribers, String notification) {
+        if(notification == null) {
+            return;
+        }
+
+        for(RequestHandler requestHandler : subscribers) {
+            requestHandler.sendNotification(notification);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.sparrowwallet.sparrow.net.cormorant.index;
+
+import com.sparrowwallet.drongo.protocol.Sha256Hash;
+import com.sparrowwallet.sparrow.net.cormorant.bitcoind.VsizeFeerate;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A memory-compact mirror of the mempool, storing the txid, vsize and fee rate of each transaction in primitive arrays.
+ * Uses an open addressing hash table with linear probing, requiring well under 150 bytes per transaction so a full mainnet mempool fits in a few tens of MB.
+ */
+public class CompactMempool {
+    private static final int INITIAL_CAPACITY = 1 << 14;
+    private static final double MAX_LOAD = 0.6;
+    private static final int TXID_LONGS = Sha256Hash.LENGTH / Long.BYTES;
+
+    private static final byte EMPTY = 0;
+    private static final byte FULL = 1;
+    private static final byte DELETED = 2;
+
+    private long[] txids;
+    private int[] vsizes;
+    private float[] feerates;
+    private byte[] states;
+    private int size;
+    private int used;
+
+    public CompactMempool() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        txids = new long[capacity * TXID_LONGS];
+        vsizes = new int[capacity];
+        feerates = new float[capacity];
+        states = new byte[capacity];
+        size = 0;
+        used = 0;
+    }
+
+    public synchronized VsizeFeerate put(Sha256Hash txid, VsizeFeerate vsizeFeerate) {
+        if(used + 1 > states.length * MAX_LOAD) {
+            resize(size + 1 > states.length * MAX_LOAD / 2 ? states.length * 2 : states.length);
+        }
+
+        long[] key = toLongs(txid);
+        int slot = findSlot(key);
+        if(slot >= 0) {
+            VsizeFeerate previous = VsizeFeerate.fromFeerate(vsizes[slot], feerates[slot]);
+            vsizes[slot] = vsizeFeerate.getVsize();
+            feerates[slot] = (float)vsizeFeerate.getFeerate();
+            return previous;
+        }
+
+        int mask = states.length - 1;
+        for(int i = (int)key[0] & mask; ; i = (i + 1) & mask) {
+            if(states[i] != FULL) {
+                if(states[i] == EMPTY) {
+                    used++;
+                }
+                states[i] = FULL;
+                System.arraycopy(key, 0, txids, i * TXID_LONGS, TXID_LONGS);
+                vsizes[i] = vsizeFeerate.getVsize();
+                feerates[i] = (float)vsizeFeerate.getFeerate();
+                size++;
+                return null;
+            }
+        }
+    }
+
+    public synchronized VsizeFeerate remove(Sha256Hash txid) {
+        int slot = findSlot(toLongs(txid));
+        if(slot < 0) {
+            return null;
+        }
+
+        states[slot] = DELETED;
+        size--;
+        return VsizeFeerate.fromFeerate(vsizes[slot], feerates[slot]);
+    }
+
+    public synchronized boolean contains(Sha256Hash txid) {
+        return findSlot(toLongs(txid)) >= 0;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized List<Sha256Hash> getTxids() {
+        List<Sha256Hash> allTxids = new ArrayList<>(size);
+        ByteBuffer buffer = ByteBuffer.allocate(Sha256Hash.LENGTH);
+        for(int i = 0; i < states.length; i++) {
+            if(states[i] == FULL) {
+                buffer.clear();
+                for(int j = 0; j < TXID_LONGS; j++) {
+                    buffer.putLong(txids[i * TXID_LONGS + j]);
+                }
+                allTxids.add(Sha256Hash.wrap(buffer.array().clone()));
+            }
+        }
+
+        return allTxids;
+    }
+
+    public synchronized void clear() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private int findSlot(long[] key) {
+        int mask = states.length - 1;
+        for(int i = (int)key[0] & mask; states[i] != EMPTY; i = (i + 1) & mask) {
+            if(states[i] == FULL && matches(i, key)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private boolean matches(int slot, long[] key) {
+        int offset = slot * TXID_LONGS;
+        for(int j = 0; j < TXID_LONGS; j++) {
+            if(txids[offset + j] != key[j]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void resize(int capacity) {
+        long[] oldTxids = txids;
+        int[] oldVsizes = vsizes;
+        float[] oldFeerates = feerates;
+        byte[] oldStates = states;
+
+        allocate(capacity);
+        int mask = capacity - 1;
+        for(int slot = 0; slot < oldStates.length; slot++) {
+            if(oldStates[slot] == FULL) {
+                int i = (int)oldTxids[slot * TXID_LONGS] & mask;
+                while(states[i] == FULL) {
+                    i = (i + 1) & mask;
+                }
+                states[i] = FULL;
+                System.arraycopy(oldTxids, slot * TXID_LONGS, txids, i * TXID_LONGS, TXID_LONGS);
+                vsizes[i] = oldVsizes[slot];
+                feerates[i] = oldFeerates[slot];
+                size++;
+                used++;
+            }
+        }
+    }
+
+    private static long[] toLongs(Sha256Hash txid) {
+        ByteBuffer buffer = ByteBuffer.wrap(txid.getBytes());
+        long[] key = new long[TXID_LONGS];
+        for(int j = 0; j < TXID_LONGS; j++) {
+            key[j] = buffer.getLong();
+        }
+
+        return key;
+    }
+}
@@ -0,0 +1,99 @@
+package com.sparrowwallet.sparrow.net.cormorant.index;
+
+import com.sparrowwallet.sparrow.net.cormorant.bitcoind.VsizeFeerate;
+
+import java.util.*;
+
+/**
+ * Maintains the total vsize of mempool transactions in a fixed set of fee rate buckets, updated incrementally as entries are added and removed.
+ * The buckets are spaced geometrically, so each add or remove only adjusts the vsize of the single bucket containing its fee rate.
+ * The Electrum fee histogram is derived from these buckets and cached until the next change, so building it depends only on the number of buckets.
+ */
+public class FeeHistogram {
+    //Lowest non-zero bucket bound in sats/vB, with each following bucket starting at RATIO times the previous bound
+    private static final double MIN_FEERATE = 0.1;
+    private static final double RATIO = 1.1;
+    private static final double MAX_FEERATE = 100000;
+
+    private static final double[] LOWER_BOUNDS = createLowerBounds();
+
+    private final long binWidth;
+    private final long[] bucketVsizes = new long[LOWER_BOUNDS.length];
+    private List<List<Number>> histogram = Collections.emptyList();
+    private boolean dirty;
+
+    public FeeHistogram(long binWidth) {
+        this.binWidth = binWidth;
+    }
+
+    public synchronized void add(VsizeFeerate vsizeFeerate) {
+        bucketVsizes[getBucket(vsizeFeerate.getFeerate())] += vsizeFeerate.getVsize();
+        dirty = true;
+    }
+
+    public synchronized void remove(VsizeFeerate vsizeFeerate) {
+        int bucket = getBucket(vsizeFeerate.getFeerate());
+        bucketVsizes[bucket] = Math.max(0, bucketVsizes[bucket] - vsizeFeerate.getVsize());
+        dirty = true;
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(bucketVsizes, 0);
+        dirty = true;
+    }
+
+    public synchronized List<List<Number>> getHistogram() {
+        if(dirty) {
+            histogram = Collections.unmodifiableList(createHistogram());
+            dirty = false;
+        }
+
+        return histogram;
+    }
+
+    private List<List<Number>> createHistogram() {
+        List<List<Number>> bins = new ArrayList<>();
+        long binSize = 0;
+        double lastFeerate = 0.0;
+
+        for(int i = bucketVsizes.length - 1; i >= 0; i--) {
+            if(bucketVsizes[i] == 0) {
+                continue;
+            }
+
+            if(binSize > binWidth) {
+                // vsize of transactions paying >= last_feerate
+                bins.add(List.of(lastFeerate, binSize));
+                binSize = 0;
+            }
+            binSize += bucketVsizes[i];
+            lastFeerate = LOWER_BOUNDS[i];
+        }
+
+        if(binSize > 0) {
+            bins.add(List.of(lastFeerate, binSize));
+        }
+
+        return bins;
+    }
+
+    private static int getBucket(double feerate) {
+        //Fee rates are held as floats, so allow for those that are fractionally below a bound they are equal to
+        int index = Arrays.binarySearch(LOWER_BOUNDS, feerate + 1e-6);
+        return index >= 0 ? index : Math.max(0, -index - 2);
+    }
+
+    private static double[] createLowerBounds() {
+        List<Double> bounds = new ArrayList<>();
+        bounds.add(0.0);
+        for(double bound = MIN_FEERATE; bound < MAX_FEERATE; bound *= RATIO) {
+            //Round to the 0.01 sats/vB precision reported to clients
+            double rounded = Math.round(bound * 100) / 100.0;
+            if(rounded > bounds.getLast()) {
+                bounds.add(rounded);
+            }
+        }
+
+        return bounds.stream().mapToDouble(Double::doubleValue).toArray();
+    }
+}
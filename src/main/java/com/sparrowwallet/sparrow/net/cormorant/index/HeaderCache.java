@@ -0,0 +1,35 @@
+package com.sparrowwallet.sparrow.net.cormorant.index;
+
+import com.sparrowwallet.drongo.Utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least recently used cache of serialized block headers by height, kept current with the chain tip by the poll loop.
+ */
+public class HeaderCache {
+    private final LinkedHashMap<Integer, byte[]> headers;
+
+    public HeaderCache(int maxHeaders) {
+        this.headers = new LinkedHashMap<>(1024, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+                return size() > maxHeaders;
+            }
+        };
+    }
+
+    public synchronized String get(int height) {
+        byte[] header = headers.get(height);
+        return header == null ? null : Utils.bytesToHex(header);
+    }
+
+    public synchronized void put(int height, String hex) {
+        headers.put(height, Utils.hexToBytes(hex));
+    }
+
+    public synchronized void clear() {
+        headers.clear();
+    }
+}
@@ -1,6 +1,7 @@
 package com.sparrowwallet.sparrow.net.cormorant.index;
 
 import com.sparrowwallet.drongo.address.Address;
+import com.sparrowwallet.drongo.address.InvalidAddressException;
 import com.sparrowwallet.sparrow.net.cormorant.bitcoind.Category;
 import com.sparrowwallet.sparrow.net.cormorant.bitcoind.ListTransaction;
 import com.sparrowwallet.sparrow.net.cormorant.bitcoind.MempoolEntry;
@@ -8,6 +9,9 @@ import com.sparrowwallet.drongo.protocol.HashIndex;
 import com.sparrowwallet.drongo.protocol.Sha256Hash;
 import com.sparrowwallet.drongo.Utils;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 
@@ -137,6 +141,119 @@ public class Store {
         return blockHeightHashes.get(height);
     }
 
+    void writeTo(DataOutput out) throws IOException {
+        out.writeInt(scriptHashEntries.size());
+        for(Map.Entry<String, Set<TxEntry>> scriptHashEntry : scriptHashEntries.entrySet()) {
+            out.write(Utils.hexToBytes(scriptHashEntry.getKey()));
+            out.writeInt(scriptHashEntry.getValue().size());
+            for(TxEntry txEntry : scriptHashEntry.getValue()) {
+                out.write(Utils.hexToBytes(txEntry.tx_hash));
+                out.writeInt(txEntry.height);
+                out.writeInt(txEntry.getIndex());
+                out.writeLong(txEntry.fee == null ? -1L : txEntry.fee);
+            }
+        }
+
+        out.writeInt(fundingAddresses.size());
+        for(Map.Entry<HashIndex, Address> fundingAddress : fundingAddresses.entrySet()) {
+            writeHashIndex(out, fundingAddress.getKey());
+            out.writeUTF(fundingAddress.getValue().toString());
+        }
+
+        out.writeInt(spentOutputs.size());
+        for(Map.Entry<String, Set<HashIndex>> spentOutput : spentOutputs.entrySet()) {
+            out.write(Utils.hexToBytes(spentOutput.getKey()));
+            out.writeInt(spentOutput.getValue().size());
+            for(HashIndex hashIndex : spentOutput.getValue()) {
+                writeHashIndex(out, hashIndex);
+            }
+        }
+
+        Map<Integer, String> blockHashes = new HashMap<>(blockHeightHashes);
+        blockHashes.values().removeIf(Objects::isNull);
+        out.writeInt(blockHashes.size());
+        for(Map.Entry<Integer, String> blockHeightHash : blockHashes.entrySet()) {
+            out.writeInt(blockHeightHash.getKey());
+            out.write(Utils.hexToBytes(blockHeightHash.getValue()));
+        }
+    }
+
+    void readFrom(DataInput in) throws IOException {
+        clear();
+
+        try {
+            int scriptHashCount = in.readInt();
+            for(int i = 0; i < scriptHashCount; i++) {
+                String scriptHash = readHex(in);
+                Set<TxEntry> entries = scriptHashEntries.computeIfAbsent(scriptHash, k -> new TreeSet<>());
+                int entryCount = in.readInt();
+                for(int j = 0; j < entryCount; j++) {
+                    String txid = readHex(in);
+                    int height = in.readInt();
+                    int index = in.readInt();
+                    long fee = in.readLong();
+                    entries.add(new TxEntry(height, index, txid, fee < 0 ? null : fee));
+                    if(height <= 0) {
+                        //Unconfirmed transactions are refreshed from the mempool on the next update
+                        mempoolEntries.put(txid, null);
+                    }
+                }
+            }
+
+            int fundingAddressCount = in.readInt();
+            for(int i = 0; i < fundingAddressCount; i++) {
+                fundingAddresses.put(readHashIndex(in), Address.fromString(in.readUTF()));
+            }
+
+            int spentOutputCount = in.readInt();
+            for(int i = 0; i < spentOutputCount; i++) {
+                String txid = readHex(in);
+                int outputCount = in.readInt();
+                Set<HashIndex> outputs = new HashSet<>(outputCount);
+                for(int j = 0; j < outputCount; j++) {
+                    outputs.add(readHashIndex(in));
+                }
+                spentOutputs.put(txid, outputs);
+            }
+
+            int blockHashCount = in.readInt();
+            for(int i = 0; i < blockHashCount; i++) {
+                blockHeightHashes.put(in.readInt(), readHex(in));
+            }
+        } catch(InvalidAddressException e) {
+            clear();
+            throw new IOException("Invalid funding address in index snapshot", e);
+        } catch(IOException e) {
+            clear();
+            throw e;
+        }
+    }
+
+    public void clear() {
+        scriptHashEntries.clear();
+        fundingAddresses.clear();
+        spentOutputs.clear();
+        blockHeightHashes.clear();
+        mempoolEntries.clear();
+    }
+
+    private static void writeHashIndex(DataOutput out, HashIndex hashIndex) throws IOException {
+        out.write(hashIndex.getHash().getBytes());
+        out.writeInt((int)hashIndex.getIndex());
+    }
+
+    private static HashIndex readHashIndex(DataInput in) throws IOException {
+        byte[] hash = new byte[Sha256Hash.LENGTH];
+        in.readFully(hash);
+        return new HashIndex(Sha256Hash.wrap(hash), in.readInt() & 0xFFFFFFFFL);
+    }
+
+    private static String readHex(DataInput in) throws IOException {
+        byte[] bytes = new byte[Sha256Hash.LENGTH];
+        in.readFully(bytes);
+        return Utils.bytesToHex(bytes);
+    }
+
     public static String getScriptHash(Address address) {
         byte[] hash = Sha256Hash.hash(address.getOutputScript().getProgram());
         byte[] reversed = Utils.reverseBytes(hash);
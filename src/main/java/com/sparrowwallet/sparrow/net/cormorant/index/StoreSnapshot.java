@@ -0,0 +1,75 @@
+package com.sparrowwallet.sparrow.net.cormorant.index;
+
+import com.sparrowwallet.drongo.Utils;
+import com.sparrowwallet.drongo.protocol.Sha256Hash;
+import com.sparrowwallet.sparrow.io.Storage;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Persists the Cormorant index to disk in a compact binary format, together with the last block it was synced to.
+ * On restart the index is loaded from the snapshot and only the transactions since that block need to be retrieved from Bitcoin Core.
+ */
+public class StoreSnapshot {
+    private static final String SNAPSHOT_FILENAME = "cormorant.idx";
+    private static final int MAGIC = 0x434f524d;
+    private static final int VERSION = 1;
+
+    private final File file;
+
+    public StoreSnapshot() {
+        this(new File(Storage.getSparrowDir(), SNAPSHOT_FILENAME));
+    }
+
+    public StoreSnapshot(File file) {
+        this.file = file;
+    }
+
+    public void save(Store store, String serverUrl, String lastBlock) throws IOException {
+        File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        Files.deleteIfExists(tempFile.toPath());
+        Storage.createOwnerOnlyFile(tempFile);
+
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(serverUrl == null ? "" : serverUrl);
+            out.write(Utils.hexToBytes(lastBlock));
+            store.writeTo(out);
+        }
+
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads the snapshot into the provided store
+     *
+     * @return the last block the snapshot was synced to, or null if there is no usable snapshot for this server
+     */
+    public String load(Store store, String serverUrl) throws IOException {
+        if(!file.exists()) {
+            return null;
+        }
+
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+
+            if(!in.readUTF().equals(serverUrl == null ? "" : serverUrl)) {
+                return null;
+            }
+
+            byte[] lastBlock = new byte[Sha256Hash.LENGTH];
+            in.readFully(lastBlock);
+            store.readFrom(in);
+            return Utils.bytesToHex(lastBlock);
+        }
+    }
+
+    public void delete() {
+        file.delete();
+    }
+}
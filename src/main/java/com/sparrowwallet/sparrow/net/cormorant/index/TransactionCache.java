@@ -0,0 +1,155 @@
+package com.sparrowwallet.sparrow.net.cormorant.index;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least recently used cache of raw and verbose transactions keyed by txid, bounded by an estimate of the memory used.
+ * Raw transactions never change and are cached regardless of confirmation status.
+ * Verbose results are only cached once confirmed, and their confirmation count is adjusted to the current tip when returned.
+ */
+public class TransactionCache {
+    private static final long ENTRY_OVERHEAD_BYTES = 128;
+    //Decoded transactions are considerably larger in memory than their hex
+    private static final int VERBOSE_SIZE_MULTIPLIER = 4;
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, CachedTransaction> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long totalBytes;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public TransactionCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public synchronized String getRawTransaction(String txid) {
+        CachedTransaction cachedTransaction = entries.get(txid);
+        if(cachedTransaction != null && cachedTransaction.hex != null) {
+            hits++;
+            return cachedTransaction.hex;
+        }
+
+        misses++;
+        return null;
+    }
+
+    public synchronized void putRawTransaction(String txid, String hex) {
+        if(hex == null) {
+            return;
+        }
+
+        CachedTransaction cachedTransaction = entries.computeIfAbsent(txid, k -> new CachedTransaction());
+        totalBytes -= cachedTransaction.size();
+        cachedTransaction.hex = hex;
+        totalBytes += cachedTransaction.size();
+        evict();
+    }
+
+    public synchronized Map<String, Object> getVerboseTransaction(String txid, int tipHeight) {
+        CachedTransaction cachedTransaction = entries.get(txid);
+        if(cachedTransaction != null && cachedTransaction.verbose != null) {
+            hits++;
+            Map<String, Object> verbose = new LinkedHashMap<>(cachedTransaction.verbose);
+            if(verbose.get("confirmations") instanceof Number confirmations) {
+                verbose.put("confirmations", confirmations.intValue() + (tipHeight - cachedTransaction.tipHeight));
+            }
+            return verbose;
+        }
+
+        misses++;
+        return null;
+    }
+
+    public synchronized void putVerboseTransaction(String txid, Map<String, Object> verbose, int tipHeight) {
+        if(verbose == null || !(verbose.get("confirmations") instanceof Number confirmations) || confirmations.intValue() <= 0) {
+            return;
+        }
+
+        CachedTransaction cachedTransaction = entries.computeIfAbsent(txid, k -> new CachedTransaction());
+        totalBytes -= cachedTransaction.size();
+        cachedTransaction.verbose = new LinkedHashMap<>(verbose);
+        cachedTransaction.tipHeight = tipHeight;
+        if(cachedTransaction.hex == null && verbose.get("hex") instanceof String hex) {
+            cachedTransaction.hex = hex;
+        }
+        totalBytes += cachedTransaction.size();
+        evict();
+    }
+
+    public synchronized void invalidate(String txid) {
+        CachedTransaction cachedTransaction = entries.remove(txid);
+        if(cachedTransaction != null) {
+            totalBytes -= cachedTransaction.size();
+        }
+    }
+
+    /**
+     * Removes all verbose results, which include block information that is no longer valid after a reorg
+     */
+    public synchronized void invalidateVerbose() {
+        for(Iterator<CachedTransaction> iter = entries.values().iterator(); iter.hasNext(); ) {
+            CachedTransaction cachedTransaction = iter.next();
+            totalBytes -= cachedTransaction.size();
+            cachedTransaction.verbose = null;
+            if(cachedTransaction.hex == null) {
+                iter.remove();
+            } else {
+                totalBytes += cachedTransaction.size();
+            }
+        }
+    }
+
+    private void evict() {
+        for(Iterator<CachedTransaction> iter = entries.values().iterator(); totalBytes > maxBytes && iter.hasNext(); ) {
+            CachedTransaction cachedTransaction = iter.next();
+            totalBytes -= cachedTransaction.size();
+            iter.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getSize() {
+        return totalBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        long requests = hits + misses;
+        return "TransactionCache{" +
+                "entries=" + entries.size() +
+                ", bytes=" + totalBytes +
+                ", hits=" + hits +
+                ", misses=" + misses +
+                ", hitRate=" + (requests == 0 ? 0 : (hits * 100 / requests)) + "%" +
+                ", evictions=" + evictions +
+                '}';
+    }
+
+    private static class CachedTransaction {
+        private String hex;
+        private Map<String, Object> verbose;
+        private int tipHeight;
+
+        private long size() {
+            long hexLength = hex != null ? hex.length() : 0;
+            long verboseLength = verbose != null && verbose.get("hex") instanceof String verboseHex ? (long)verboseHex.length() * VERBOSE_SIZE_MULTIPLIER : 0;
+            return ENTRY_OVERHEAD_BYTES + hexLength + verboseLength;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.sparrowwallet.sparrow.p2p.chat;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.sparrowwallet.sparrow.io.Storage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Append-only log of the messages in a single conversation, stored as one JSON object per line.
+ * Messages are read lazily on first access, and are then held in timestamp order with an index of Nostr event ids to reject duplicates.
+ * The log is compacted into timestamp order once enough messages have arrived out of order, or when it is found to contain duplicate or unreadable lines.
+ */
+class ChatMessageLog {
+    private static final Logger log = LoggerFactory.getLogger(ChatMessageLog.class);
+    private static final Gson gson = new Gson();
+
+    // Number of out of order appends after which the log is rewritten in timestamp order
+    private static final int COMPACT_THRESHOLD = 100;
+
+    private final File file;
+
+    // Null until the log is first read
+    private List<ChatMessage> messages;
+    private Set<String> eventIds;
+    private int unorderedAppends;
+
+    ChatMessageLog(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Get the messages in timestamp order, reading the log if not already loaded
+     */
+    synchronized List<ChatMessage> getMessages() {
+        ensureLoaded();
+        return new ArrayList<>(messages);
+    }
+
+    /**
+     * Add a message in timestamp order and append it to the log.
+     *
+     * @return false if a message with the same Nostr event id is already present
+     */
+    synchronized boolean add(ChatMessage message) {
+        ensureLoaded();
+
+        if (message.getNostrEventId() != null && !eventIds.add(message.getNostrEventId())) {
+            return false;
+        }
+
+        int insertIndex = getInsertIndex(message.getTimestamp());
+        messages.add(insertIndex, message);
+
+        try {
+            append(message);
+        } catch (IOException e) {
+            log.error("Failed to append message to {}", file.getName(), e);
+        }
+
+        if (insertIndex < messages.size() - 1 && ++unorderedAppends >= COMPACT_THRESHOLD) {
+            compact();
+        }
+
+        return true;
+    }
+
+    /**
+     * Remove all messages and delete the log
+     */
+    synchronized void delete() {
+        messages = new ArrayList<>();
+        eventIds = new HashSet<>();
+        unorderedAppends = 0;
+
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException e) {
+            log.error("Failed to delete {}", file.getName(), e);
+        }
+    }
+
+    /**
+     * Write all messages to a new log in timestamp order, replacing the existing log
+     */
+    synchronized void compact() {
+        ensureLoaded();
+
+        File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        try {
+            Files.deleteIfExists(tempFile.toPath());
+            Storage.createOwnerOnlyFile(tempFile);
+
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8))) {
+                for (ChatMessage message : messages) {
+                    writer.write(gson.toJson(toJson(message)));
+                    writer.write('\n');
+                }
+            }
+
+            try {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            unorderedAppends = 0;
+            log.debug("Compacted {} with {} messages", file.getName(), messages.size());
+        } catch (IOException e) {
+            log.error("Failed to compact {}", file.getName(), e);
+        }
+    }
+
+    private void ensureLoaded() {
+        if (messages != null) {
+            return;
+        }
+
+        messages = new ArrayList<>();
+        eventIds = new HashSet<>();
+        if (!file.exists()) {
+            return;
+        }
+
+        boolean needsCompaction = false;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+
+                ChatMessage message;
+                try {
+                    message = fromJson(gson.fromJson(line, JsonObject.class));
+                } catch (Exception e) {
+                    // A partially written last line is expected if the application stopped during an append
+                    log.warn("Skipping unreadable message in {}", file.getName(), e);
+                    needsCompaction = true;
+                    continue;
+                }
+
+                if (message.getNostrEventId() != null && !eventIds.add(message.getNostrEventId())) {
+                    needsCompaction = true;
+                    continue;
+                }
+
+                if (!messages.isEmpty() && message.getTimestamp().isBefore(messages.get(messages.size() - 1).getTimestamp())) {
+                    unorderedAppends++;
+                }
+
+                messages.add(message);
+            }
+        } catch (IOException e) {
+            log.error("Failed to read {}", file.getName(), e);
+            return;
+        }
+
+        // The sort is stable, so messages with equal timestamps keep the order they were received in
+        messages.sort(Comparator.comparing(ChatMessage::getTimestamp));
+
+        if (needsCompaction || unorderedAppends >= COMPACT_THRESHOLD) {
+            compact();
+        }
+    }
+
+    /**
+     * Find the position after any messages with the same or an earlier timestamp
+     */
+    private int getInsertIndex(LocalDateTime timestamp) {
+        int low = 0;
+        int high = messages.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestamp.isBefore(messages.get(mid).getTimestamp())) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+
+        return low;
+    }
+
+    private void append(ChatMessage message) throws IOException {
+        if (!file.exists()) {
+            Storage.createOwnerOnlyFile(file);
+        }
+
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8)) {
+            writer.write(gson.toJson(toJson(message)) + "\n");
+        }
+    }
+
+    static JsonObject toJson(ChatMessage msg) {
+        JsonObject msgJson = new JsonObject();
+        msgJson.addProperty("senderHex", msg.getSenderHex());
+        msgJson.addProperty("senderName", msg.getSenderName());
+        msgJson.addProperty("recipientHex", msg.getRecipientHex());
+        msgJson.addProperty("content", msg.getContent());
+        msgJson.addProperty("timestamp", msg.getTimestamp().toString());
+        msgJson.addProperty("nostrEventId", msg.getNostrEventId());
+        msgJson.addProperty("isRead", msg.isRead());
+        msgJson.addProperty("outgoing", msg.isOutgoing());
+        return msgJson;
+    }
+
+    static ChatMessage fromJson(JsonObject msgJson) {
+        String senderHex = msgJson.get("senderHex").getAsString();
+        String senderName = msgJson.get("senderName").getAsString();
+        String recipientHex = msgJson.get("recipientHex").getAsString();
+        String content = msgJson.get("content").getAsString();
+        LocalDateTime timestamp = LocalDateTime.parse(msgJson.get("timestamp").getAsString());
+        String nostrEventId = msgJson.has("nostrEventId") && !msgJson.get("nostrEventId").isJsonNull() ? msgJson.get("nostrEventId").getAsString() : null;
+        boolean outgoing = msgJson.has("outgoing") ? msgJson.get("outgoing").getAsBoolean() : false;
+
+        return new ChatMessage(senderHex, senderName, recipientHex, content, timestamp, nostrEventId, outgoing);
+    }
+}
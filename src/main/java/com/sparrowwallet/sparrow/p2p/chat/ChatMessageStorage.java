@@ -1,7 +1,6 @@
 package com.sparrowwallet.sparrow.p2p.chat;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
@@ -10,26 +9,32 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
-import java.time.LocalDateTime;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
 
 /**
  * Storage manager for chat messages.
- * Persists encrypted chat messages to disk organized by conversation.
+ * Persists chat messages to disk in an append-only log per conversation, so that each new message only appends a single line.
+ * Conversation logs are read lazily when first accessed.
  */
 public class ChatMessageStorage {
     private static final Logger log = LoggerFactory.getLogger(ChatMessageStorage.class);
     private static final String MESSAGES_FILENAME = "chat-messages.json";
+    private static final String CHAT_DIR = "chat";
+    private static final String LOG_EXTENSION = ".log";
+    // Conversations are keyed by peer hex pubkeys or by trade offer UUIDs, and the id is used as the log filename
+    private static final Pattern CONVERSATION_ID_PATTERN = Pattern.compile("[0-9a-fA-F-]+");
 
     private static ChatMessageStorage instance;
 
-    // Messages organized by peer hex pubkey -> list of messages
-    private final Map<String, List<ChatMessage>> conversations;
+    // Message logs organized by peer hex pubkey, each loaded on first access
+    private final Map<String, ChatMessageLog> conversations;
 
     private ChatMessageStorage() {
         this.conversations = new ConcurrentHashMap<>();
-        loadMessagesFromDisk();
+        findConversationLogs();
+        migrateMessagesFile();
     }
 
     public static synchronized ChatMessageStorage getInstance() {
@@ -40,37 +45,14 @@ public class ChatMessageStorage {
     }
 
     /**
-     * Add a message to a conversation and save to disk.
+     * Add a message to a conversation and append it to the conversation log.
      * Messages are inserted in chronological order by timestamp.
      */
     public void addMessage(String peerHex, ChatMessage message) {
-        List<ChatMessage> messages = conversations.computeIfAbsent(peerHex, k -> new ArrayList<>());
-
-        // Check if message already exists (prevent duplicates)
-        boolean exists = messages.stream()
-            .anyMatch(m -> m.getNostrEventId() != null &&
-                          m.getNostrEventId().equals(message.getNostrEventId()));
-
-        if (exists) {
+        if (!getConversationLog(peerHex).add(message)) {
             log.debug("Message {} already exists in conversation, skipping",
                      message.getNostrEventId().substring(0, 8));
-            return;
-        }
-
-        // Find correct insertion position based on timestamp
-        int insertIndex = 0;
-        for (int i = 0; i < messages.size(); i++) {
-            if (message.getTimestamp().isBefore(messages.get(i).getTimestamp())) {
-                insertIndex = i;
-                break;
-            }
-            insertIndex = i + 1;
         }
-
-        messages.add(insertIndex, message);
-        saveMessagesToDisk();
-
-        log.debug("Inserted message at index {} of {} total messages", insertIndex, messages.size());
     }
 
     /**
@@ -90,7 +72,8 @@ public class ChatMessageStorage {
         String activeIdentityHex = activeIdentity.getHex();
 
         // Filter messages to only include those involving the active identity
-        List<ChatMessage> allMessages = conversations.getOrDefault(conversationId, new ArrayList<>());
+        ChatMessageLog conversationLog = conversations.get(conversationId);
+        List<ChatMessage> allMessages = conversationLog == null ? new ArrayList<>() : conversationLog.getMessages();
         List<ChatMessage> filteredMessages = new ArrayList<>();
 
         for (ChatMessage msg : allMessages) {
@@ -101,8 +84,7 @@ public class ChatMessageStorage {
             }
         }
 
-        // Sort by timestamp chronologically
-        filteredMessages.sort((m1, m2) -> m1.getTimestamp().compareTo(m2.getTimestamp()));
+        // Conversation logs hold messages in chronological order
         return filteredMessages;
     }
 
@@ -110,7 +92,11 @@ public class ChatMessageStorage {
      * Get all conversations
      */
     public Map<String, List<ChatMessage>> getAllConversations() {
-        return new HashMap<>(conversations);
+        Map<String, List<ChatMessage>> allConversations = new HashMap<>();
+        for (Map.Entry<String, ChatMessageLog> entry : conversations.entrySet()) {
+            allConversations.put(entry.getKey(), entry.getValue().getMessages());
+        }
+        return allConversations;
     }
 
     /**
@@ -118,7 +104,8 @@ public class ChatMessageStorage {
      * Extracts from messages - returns the OTHER party (not our identity).
      */
     public String getPeerHexForConversation(String conversationId, String myHex) {
-        List<ChatMessage> messages = conversations.get(conversationId);
+        ChatMessageLog conversationLog = conversations.get(conversationId);
+        List<ChatMessage> messages = conversationLog == null ? null : conversationLog.getMessages();
         if (messages == null || messages.isEmpty()) {
             return null;
         }
@@ -138,8 +125,10 @@ public class ChatMessageStorage {
      * Clear conversation with a specific peer
      */
     public void clearConversation(String peerHex) {
-        conversations.remove(peerHex);
-        saveMessagesToDisk();
+        ChatMessageLog conversationLog = conversations.remove(peerHex);
+        if (conversationLog != null) {
+            conversationLog.delete();
+        }
         log.info("Cleared conversation with {}", peerHex.substring(0, 8));
     }
 
@@ -147,139 +136,93 @@ public class ChatMessageStorage {
      * Clear all messages (for testing)
      */
     public void clearAll() {
-        conversations.clear();
-        saveMessagesToDisk();
+        for (String peerHex : new ArrayList<>(conversations.keySet())) {
+            ChatMessageLog conversationLog = conversations.remove(peerHex);
+            if (conversationLog != null) {
+                conversationLog.delete();
+            }
+        }
         log.info("Cleared all chat messages");
     }
 
-    /**
-     * Save messages to disk
-     */
-    private void saveMessagesToDisk() {
-        try {
-            File sparrowDir = Storage.getSparrowDir();
-            File messagesFile = new File(sparrowDir, MESSAGES_FILENAME);
-
-            if (!messagesFile.exists()) {
-                Storage.createOwnerOnlyFile(messagesFile);
-            }
+    private ChatMessageLog getConversationLog(String peerHex) {
+        if (!CONVERSATION_ID_PATTERN.matcher(peerHex).matches()) {
+            throw new IllegalArgumentException("Invalid conversation id " + peerHex);
+        }
 
-            // Create JSON structure: { "conversations": { "peerHex": [messages...] } }
-            JsonObject root = new JsonObject();
-            JsonObject conversationsJson = new JsonObject();
-
-            for (Map.Entry<String, List<ChatMessage>> entry : conversations.entrySet()) {
-                String peerHex = entry.getKey();
-                List<ChatMessage> messages = entry.getValue();
-
-                JsonArray messagesArray = new JsonArray();
-                for (ChatMessage msg : messages) {
-                    JsonObject msgJson = new JsonObject();
-                    msgJson.addProperty("senderHex", msg.getSenderHex());
-                    msgJson.addProperty("senderName", msg.getSenderName());
-                    msgJson.addProperty("recipientHex", msg.getRecipientHex());
-                    msgJson.addProperty("content", msg.getContent());
-                    msgJson.addProperty("timestamp", msg.getTimestamp().toString());
-                    msgJson.addProperty("nostrEventId", msg.getNostrEventId());
-                    msgJson.addProperty("isRead", msg.isRead());
-                    msgJson.addProperty("outgoing", msg.isOutgoing());
-
-                    messagesArray.add(msgJson);
-                }
+        return conversations.computeIfAbsent(peerHex, k -> new ChatMessageLog(new File(getChatDir(), k + LOG_EXTENSION)));
+    }
 
-                conversationsJson.add(peerHex, messagesArray);
-            }
+    private File getChatDir() {
+        File chatDir = new File(Storage.getSparrowDir(), CHAT_DIR);
+        if (!chatDir.exists()) {
+            Storage.createOwnerOnlyDirectory(chatDir);
+        }
+        return chatDir;
+    }
 
-            root.add("conversations", conversationsJson);
+    /**
+     * Register the existing conversation logs without reading them
+     */
+    private void findConversationLogs() {
+        File[] logFiles = getChatDir().listFiles((dir, name) -> name.endsWith(LOG_EXTENSION));
+        if (logFiles == null) {
+            return;
+        }
 
-            // Write to file
-            Gson gson = new GsonBuilder().setPrettyPrinting().create();
-            try (Writer writer = new FileWriter(messagesFile)) {
-                gson.toJson(root, writer);
-                writer.flush();
+        for (File logFile : logFiles) {
+            String peerHex = logFile.getName().substring(0, logFile.getName().length() - LOG_EXTENSION.length());
+            if (CONVERSATION_ID_PATTERN.matcher(peerHex).matches()) {
+                conversations.put(peerHex, new ChatMessageLog(logFile));
             }
-
-            log.debug("Saved {} conversations to disk", conversations.size());
-
-        } catch (IOException e) {
-            log.error("Failed to save messages to disk", e);
         }
+
+        log.debug("Found {} conversation logs", conversations.size());
     }
 
     /**
-     * Load messages from disk
+     * Move messages from the single messages file used by earlier versions into conversation logs
      */
-    private void loadMessagesFromDisk() {
-        try {
-            File sparrowDir = Storage.getSparrowDir();
-            File messagesFile = new File(sparrowDir, MESSAGES_FILENAME);
-
-            if (!messagesFile.exists()) {
-                log.debug("No messages file found, starting fresh");
-                return;
-            }
-
-            // Read file
-            try (Reader reader = new FileReader(messagesFile)) {
-                Gson gson = new Gson();
-                JsonObject root = gson.fromJson(reader, JsonObject.class);
+    private void migrateMessagesFile() {
+        File messagesFile = new File(Storage.getSparrowDir(), MESSAGES_FILENAME);
+        if (!messagesFile.exists()) {
+            return;
+        }
 
-                if (root == null || !root.has("conversations")) {
-                    log.warn("Empty or invalid messages file");
-                    return;
-                }
+        try (Reader reader = new FileReader(messagesFile)) {
+            JsonObject root = new Gson().fromJson(reader, JsonObject.class);
 
+            if (root != null && root.has("conversations")) {
                 JsonObject conversationsJson = root.getAsJsonObject("conversations");
 
-                // Load each conversation
                 for (Map.Entry<String, JsonElement> entry : conversationsJson.entrySet()) {
                     String peerHex = entry.getKey();
+                    if (!CONVERSATION_ID_PATTERN.matcher(peerHex).matches()) {
+                        // Skip rather than abort, so that the migration completes and is not repeated on the next start
+                        log.error("Skipping migration of conversation with invalid id {}", peerHex);
+                        continue;
+                    }
+
                     JsonArray messagesArray = entry.getValue().getAsJsonArray();
 
-                    List<ChatMessage> messages = new ArrayList<>();
                     for (JsonElement element : messagesArray) {
-                        JsonObject msgJson = element.getAsJsonObject();
-
                         try {
-                            String senderHex = msgJson.get("senderHex").getAsString();
-                            String senderName = msgJson.get("senderName").getAsString();
-                            String recipientHex = msgJson.get("recipientHex").getAsString();
-                            String content = msgJson.get("content").getAsString();
-                            LocalDateTime timestamp = LocalDateTime.parse(msgJson.get("timestamp").getAsString());
-                            String nostrEventId = msgJson.has("nostrEventId") ? msgJson.get("nostrEventId").getAsString() : null;
-                            boolean outgoing = msgJson.has("outgoing") ? msgJson.get("outgoing").getAsBoolean() : false;
-
-                            ChatMessage message = new ChatMessage(
-                                senderHex,
-                                senderName,
-                                recipientHex,
-                                content,
-                                timestamp,
-                                nostrEventId,
-                                outgoing
-                            );
-
-                            messages.add(message);
-
+                            getConversationLog(peerHex).add(ChatMessageLog.fromJson(element.getAsJsonObject()));
                         } catch (Exception e) {
-                            log.error("Failed to parse message in conversation {}", peerHex, e);
+                            log.error("Failed to migrate message in conversation {}", peerHex, e);
                         }
                     }
 
-                    // Sort messages chronologically after loading
-                    messages.sort((m1, m2) -> m1.getTimestamp().compareTo(m2.getTimestamp()));
-
-                    conversations.put(peerHex, messages);
+                    getConversationLog(peerHex).compact();
                 }
-
-                log.info("Loaded {} conversations from disk", conversations.size());
-
-            } catch (Exception e) {
-                log.error("Failed to read messages file", e);
             }
-
         } catch (Exception e) {
-            log.error("Failed to load messages from disk", e);
+            log.error("Failed to migrate messages file", e);
+            return;
+        }
+
+        if (messagesFile.delete()) {
+            log.info("Migrated {} conversations to conversation logs", conversations.size());
         }
     }
 }
@@ -0,0 +1,249 @@
+package com.sparrowwallet.sparrow.p2p.trade;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * In-memory book of trade offers with secondary indexes.
+ * Offers are indexed by Nostr event id, type, currency and payment method, and sorted by amount, so that filtered queries
+ * start from the smallest matching index rather than scanning every offer. Offers with an expiry time are held in a heap
+ * so that stale offers can be removed without a scan. Listeners are notified of the offers added and removed by each change.
+ */
+public class OfferBook {
+    private static final Logger log = LoggerFactory.getLogger(OfferBook.class);
+
+    private final Map<String, TradeOffer> offers = new LinkedHashMap<>();
+    private final Map<String, TradeOffer> byNostrEventId = new HashMap<>();
+    private final Map<TradeOfferType, Set<TradeOffer>> byType = new EnumMap<>(TradeOfferType.class);
+    private final Map<String, Set<TradeOffer>> byCurrency = new HashMap<>();
+    private final Map<PaymentMethod, Set<TradeOffer>> byPaymentMethod = new EnumMap<>(PaymentMethod.class);
+    private final NavigableMap<Long, Set<TradeOffer>> byAmount = new TreeMap<>();
+    private final PriorityQueue<TradeOffer> expiryQueue = new PriorityQueue<>(Comparator.comparing(TradeOffer::getExpiresAt));
+    private final List<Consumer<Change>> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Add an offer, notifying listeners
+     *
+     * @return false if an offer with the same id is already present
+     */
+    public boolean add(TradeOffer offer) {
+        synchronized (this) {
+            if (offers.containsKey(offer.getId())) {
+                return false;
+            }
+
+            offers.put(offer.getId(), offer);
+            index(offer);
+        }
+
+        notifyListeners(new Change(List.of(offer), List.of()));
+        return true;
+    }
+
+    /**
+     * Remove an offer by id, notifying listeners
+     */
+    public TradeOffer remove(String offerId) {
+        TradeOffer removed;
+        synchronized (this) {
+            removed = offers.remove(offerId);
+            if (removed != null) {
+                unindex(removed);
+            }
+        }
+
+        if (removed != null) {
+            notifyListeners(new Change(List.of(), List.of(removed)));
+        }
+        return removed;
+    }
+
+    /**
+     * Remove an offer by Nostr event id, notifying listeners
+     */
+    public TradeOffer removeByNostrEventId(String nostrEventId) {
+        TradeOffer offer = getByNostrEventId(nostrEventId);
+        return offer == null ? null : remove(offer.getId());
+    }
+
+    /**
+     * Remove offers whose expiry time has passed, notifying listeners
+     */
+    public List<TradeOffer> removeExpired(LocalDateTime now) {
+        List<TradeOffer> expired = new ArrayList<>();
+        synchronized (this) {
+            while (!expiryQueue.isEmpty() && now.isAfter(expiryQueue.peek().getExpiresAt())) {
+                TradeOffer offer = expiryQueue.poll();
+                // The queue may still hold offers that have already been removed
+                if (offers.get(offer.getId()) == offer) {
+                    offers.remove(offer.getId());
+                    unindex(offer);
+                    expired.add(offer);
+                }
+            }
+        }
+
+        if (!expired.isEmpty()) {
+            log.debug("Removed {} expired offers", expired.size());
+            notifyListeners(new Change(List.of(), expired));
+        }
+        return expired;
+    }
+
+    public synchronized TradeOffer get(String offerId) {
+        return offers.get(offerId);
+    }
+
+    public synchronized TradeOffer getByNostrEventId(String nostrEventId) {
+        return byNostrEventId.get(nostrEventId);
+    }
+
+    public synchronized List<TradeOffer> getAll() {
+        return new ArrayList<>(offers.values());
+    }
+
+    public synchronized int size() {
+        return offers.size();
+    }
+
+    /**
+     * Find offers matching all of the given criteria, where null criteria match any offer.
+     * The smallest applicable index is used to select candidates, which are then checked against the remaining criteria.
+     */
+    public synchronized List<TradeOffer> query(TradeOfferType type, String currency, PaymentMethod paymentMethod, long minSats, long maxSats) {
+        boolean amountBounded = minSats > 0 || maxSats < Long.MAX_VALUE;
+
+        Collection<TradeOffer> candidates = null;
+        if (type != null) {
+            candidates = smallest(candidates, byType.getOrDefault(type, Set.of()));
+        }
+        if (currency != null) {
+            candidates = smallest(candidates, byCurrency.getOrDefault(currency, Set.of()));
+        }
+        if (paymentMethod != null) {
+            candidates = smallest(candidates, byPaymentMethod.getOrDefault(paymentMethod, Set.of()));
+        }
+        if (candidates == null) {
+            if (amountBounded) {
+                candidates = new ArrayList<>();
+                for (Set<TradeOffer> amountOffers : byAmount.subMap(minSats, true, maxSats, true).values()) {
+                    candidates.addAll(amountOffers);
+                }
+            } else {
+                candidates = offers.values();
+            }
+        }
+
+        List<TradeOffer> matches = new ArrayList<>();
+        for (TradeOffer offer : candidates) {
+            if ((type == null || offer.getType() == type) &&
+                (currency == null || currency.equals(offer.getCurrency())) &&
+                (paymentMethod == null || offer.getPaymentMethod() == paymentMethod) &&
+                (!amountBounded || (offer.getAmountSats() >= minSats && offer.getAmountSats() <= maxSats))) {
+                matches.add(offer);
+            }
+        }
+
+        return matches;
+    }
+
+    /**
+     * Remove all offers, notifying listeners
+     */
+    public void clear() {
+        List<TradeOffer> removed;
+        synchronized (this) {
+            removed = new ArrayList<>(offers.values());
+            offers.clear();
+            byNostrEventId.clear();
+            byType.clear();
+            byCurrency.clear();
+            byPaymentMethod.clear();
+            byAmount.clear();
+            expiryQueue.clear();
+        }
+
+        if (!removed.isEmpty()) {
+            notifyListeners(new Change(List.of(), removed));
+        }
+    }
+
+    public void addListener(Consumer<Change> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Consumer<Change> listener) {
+        listeners.remove(listener);
+    }
+
+    private void index(TradeOffer offer) {
+        if (offer.getNostrEventId() != null) {
+            byNostrEventId.put(offer.getNostrEventId(), offer);
+        }
+        if (offer.getType() != null) {
+            byType.computeIfAbsent(offer.getType(), k -> new LinkedHashSet<>()).add(offer);
+        }
+        if (offer.getCurrency() != null) {
+            byCurrency.computeIfAbsent(offer.getCurrency(), k -> new LinkedHashSet<>()).add(offer);
+        }
+        if (offer.getPaymentMethod() != null) {
+            byPaymentMethod.computeIfAbsent(offer.getPaymentMethod(), k -> new LinkedHashSet<>()).add(offer);
+        }
+        byAmount.computeIfAbsent(offer.getAmountSats(), k -> new LinkedHashSet<>()).add(offer);
+        if (offer.getExpiresAt() != null) {
+            expiryQueue.add(offer);
+        }
+    }
+
+    private void unindex(TradeOffer offer) {
+        if (offer.getNostrEventId() != null) {
+            byNostrEventId.remove(offer.getNostrEventId(), offer);
+        }
+        removeFromIndex(byType, offer.getType(), offer);
+        removeFromIndex(byCurrency, offer.getCurrency(), offer);
+        removeFromIndex(byPaymentMethod, offer.getPaymentMethod(), offer);
+        removeFromIndex(byAmount, offer.getAmountSats(), offer);
+        // Removed offers are left in the expiry queue and skipped when polled, unless they come to dominate it
+        if (expiryQueue.size() > 2 * offers.size() + 16) {
+            expiryQueue.removeIf(queued -> offers.get(queued.getId()) != queued);
+        }
+    }
+
+    private static <K> void removeFromIndex(Map<K, Set<TradeOffer>> index, K key, TradeOffer offer) {
+        if (key == null) {
+            return;
+        }
+
+        Set<TradeOffer> indexed = index.get(key);
+        if (indexed != null) {
+            indexed.remove(offer);
+            if (indexed.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    private static Collection<TradeOffer> smallest(Collection<TradeOffer> current, Collection<TradeOffer> candidate) {
+        return current == null || candidate.size() < current.size() ? candidate : current;
+    }
+
+    private void notifyListeners(Change change) {
+        for (Consumer<Change> listener : listeners) {
+            try {
+                listener.accept(change);
+            } catch (Exception e) {
+                log.error("Error notifying offer book listener", e);
+            }
+        }
+    }
+
+    /**
+     * The offers added to and removed from the book by a single change
+     */
+    public record Change(List<TradeOffer> added, List<TradeOffer> removed) {}
+}
@@ -2,6 +2,7 @@ package com.sparrowwallet.sparrow.p2p.trade;
 
 import com.google.gson.*;
 import com.sparrowwallet.sparrow.io.Storage;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -9,6 +10,10 @@ import java.io.*;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
@@ -20,20 +25,33 @@ public class TradeOfferManager {
 
     private static TradeOfferManager instance;
     private static final String MY_OFFERS_FILENAME = "my-trade-offers.json";
+    private static final long EXPIRY_CHECK_SECS = 60;
+
+    // Marketplace offers are shown most recently published first
+    public static final Comparator<TradeOffer> MARKETPLACE_ORDER = Comparator.comparing(TradeOffer::getPublishedAt).reversed();
 
     // Thread-safe storage
     private final Map<String, TradeOffer> myOffers;           // Offers I created (persistent)
-    private final Map<String, TradeOffer> marketplaceOffers;  // Offers from others (not persisted)
+    private final Map<String, TradeOffer> myOffersByNostrEventId;
+    private final OfferBook marketplaceOffers;                // Offers from others (not persisted)
     private final List<Runnable> offerUpdateListeners;        // Listeners for UI updates
+    private final ScheduledExecutorService expiryExecutor;
 
     /**
      * Private constructor for singleton
      */
     private TradeOfferManager() {
         this.myOffers = new ConcurrentHashMap<>();
-        this.marketplaceOffers = new ConcurrentHashMap<>();
+        this.myOffersByNostrEventId = new ConcurrentHashMap<>();
+        this.marketplaceOffers = new OfferBook();
         this.offerUpdateListeners = new ArrayList<>();
         loadMyOffersFromDisk();
+
+        // Remove stale marketplace offers periodically, rather than filtering them on every query
+        BasicThreadFactory factory = BasicThreadFactory.builder().namingPattern("TradeOfferExpiry").daemon(true).build();
+        this.expiryExecutor = Executors.newSingleThreadScheduledExecutor(factory);
+        this.expiryExecutor.scheduleWithFixedDelay(this::removeExpiredOffers, EXPIRY_CHECK_SECS, EXPIRY_CHECK_SECS, TimeUnit.SECONDS);
+
         log.info("TradeOfferManager initialized");
     }
 
@@ -56,6 +74,7 @@ public class TradeOfferManager {
         }
 
         myOffers.put(offer.getId(), offer);
+        indexMyOffer(offer);
         saveMyOffersToDisk();
         log.info("Added my offer: {} - {}", offer.getId(), offer.getShortDescription());
     }
@@ -98,12 +117,11 @@ public class TradeOfferManager {
         }
 
         // Check if offer already exists (avoid duplicates from multiple relays)
-        if (marketplaceOffers.containsKey(offer.getId())) {
+        if (!marketplaceOffers.add(offer)) {
             log.debug("Offer already exists, ignoring duplicate: {}", offer.getId());
             return; // Don't notify listeners for duplicates
         }
 
-        marketplaceOffers.put(offer.getId(), offer);
         log.debug("Added marketplace offer: {} from {}", offer.getId(), offer.getCreatorDisplayName());
 
         // Notify listeners only for new offers
@@ -117,6 +135,20 @@ public class TradeOfferManager {
         offerUpdateListeners.add(listener);
     }
 
+    /**
+     * Register a listener for the marketplace offers added and removed by each change
+     */
+    public void addOfferChangeListener(Consumer<OfferBook.Change> listener) {
+        marketplaceOffers.addListener(listener);
+    }
+
+    /**
+     * Remove a listener registered with addOfferChangeListener
+     */
+    public void removeOfferChangeListener(Consumer<OfferBook.Change> listener) {
+        marketplaceOffers.removeListener(listener);
+    }
+
     /**
      * Notify all listeners that offers were updated
      */
@@ -154,18 +186,40 @@ public class TradeOfferManager {
      * Get all active marketplace offers (excluding my own)
      */
     public List<TradeOffer> getMarketplaceOffers() {
+        return getMarketplaceOffers(marketplaceOffers.getAll());
+    }
+
+    /**
+     * Get the active marketplace offers from the given offers (excluding my own), most recently published first
+     */
+    private List<TradeOffer> getMarketplaceOffers(List<TradeOffer> offers) {
+        String activeIdentityHex = getActiveIdentityHex();
+
+        return offers.stream()
+            .filter(offer -> isMarketplaceOffer(offer, activeIdentityHex))
+            .sorted(MARKETPLACE_ORDER)
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Whether an offer should be shown in the marketplace, being active, unexpired and not created by the active identity
+     */
+    public boolean isMarketplaceOffer(TradeOffer offer) {
+        return isMarketplaceOffer(offer, getActiveIdentityHex());
+    }
+
+    private boolean isMarketplaceOffer(TradeOffer offer, String activeIdentityHex) {
+        return offer.isActive()
+            && !offer.isExpired()
+            && (activeIdentityHex == null || !activeIdentityHex.equals(offer.getCreatorHex())); // Exclude my offers
+    }
+
+    private String getActiveIdentityHex() {
         com.sparrowwallet.sparrow.p2p.identity.NostrIdentityManager identityManager =
             com.sparrowwallet.sparrow.p2p.identity.NostrIdentityManager.getInstance();
         com.sparrowwallet.sparrow.p2p.identity.NostrIdentity activeIdentity = identityManager.getActiveIdentity();
 
-        String activeIdentityHex = activeIdentity != null ? activeIdentity.getHex() : null;
-
-        return marketplaceOffers.values().stream()
-            .filter(TradeOffer::isActive)
-            .filter(offer -> !offer.isExpired())
-            .filter(offer -> activeIdentityHex == null || !activeIdentityHex.equals(offer.getCreatorHex())) // Exclude my offers
-            .sorted(Comparator.comparing(TradeOffer::getPublishedAt).reversed())
-            .collect(Collectors.toList());
+        return activeIdentity != null ? activeIdentity.getHex() : null;
     }
 
     /**
@@ -193,21 +247,11 @@ public class TradeOfferManager {
      * Get offer by Nostr event ID
      */
     public TradeOffer getOfferByNostrEventId(String nostrEventId) {
-        // Search in my offers
-        for (TradeOffer offer : myOffers.values()) {
-            if (nostrEventId.equals(offer.getNostrEventId())) {
-                return offer;
-            }
-        }
-
-        // Search in marketplace offers
-        for (TradeOffer offer : marketplaceOffers.values()) {
-            if (nostrEventId.equals(offer.getNostrEventId())) {
-                return offer;
-            }
+        TradeOffer offer = myOffersByNostrEventId.get(nostrEventId);
+        if (offer == null) {
+            offer = marketplaceOffers.getByNostrEventId(nostrEventId);
         }
-
-        return null;
+        return offer;
     }
 
     /**
@@ -216,6 +260,7 @@ public class TradeOfferManager {
     public void removeMyOffer(String offerId) {
         TradeOffer removed = myOffers.remove(offerId);
         if (removed != null) {
+            unindexMyOffer(removed);
             log.info("Removed local offer: {}", offerId);
             saveMyOffersToDisk();
             notifyOfferUpdate();
@@ -227,10 +272,13 @@ public class TradeOfferManager {
      */
     public void removeOfferByNostrEventId(String nostrEventId) {
         // Remove from my offers
-        myOffers.values().removeIf(offer -> nostrEventId.equals(offer.getNostrEventId()));
+        TradeOffer myOffer = myOffersByNostrEventId.remove(nostrEventId);
+        if (myOffer != null) {
+            myOffers.remove(myOffer.getId());
+        }
 
         // Remove from marketplace offers
-        marketplaceOffers.values().removeIf(offer -> nostrEventId.equals(offer.getNostrEventId()));
+        marketplaceOffers.removeByNostrEventId(nostrEventId);
 
         // Notify listeners
         notifyOfferUpdate();
@@ -303,51 +351,41 @@ public class TradeOfferManager {
     public List<TradeOffer> applyFilters(TradeOfferType type, String currency,
                                         PaymentMethod paymentMethod, String location,
                                         String amountRange) {
-        List<TradeOffer> filtered = getMarketplaceOffers();
-
-        // Filter by type
-        if (type != null) {
-            filtered = filterByType(filtered, type);
+        if (currency != null && (currency.isEmpty() || "All".equals(currency))) {
+            currency = null;
         }
 
-        // Filter by currency
-        if (currency != null && !currency.isEmpty() && !"All".equals(currency)) {
-            filtered = filterByCurrency(filtered, currency);
+        long[] amountBounds = new long[] { 0, Long.MAX_VALUE };
+        if (amountRange != null && !amountRange.isEmpty() && !"Any".equals(amountRange)) {
+            amountBounds = getAmountBounds(amountRange);
         }
 
-        // Filter by payment method
-        if (paymentMethod != null) {
-            filtered = filterByPaymentMethod(filtered, paymentMethod);
-        }
+        // Type, currency, payment method and amount are resolved through the offer book indexes
+        List<TradeOffer> filtered = getMarketplaceOffers(marketplaceOffers.query(type, currency, paymentMethod, amountBounds[0], amountBounds[1]));
 
         // Filter by location
         if (location != null && !location.isEmpty() && !"Any".equals(location)) {
             filtered = filterByLocation(filtered, location);
         }
 
-        // Filter by amount range
-        if (amountRange != null && !amountRange.isEmpty() && !"Any".equals(amountRange)) {
-            filtered = filterByAmountRangeString(filtered, amountRange);
-        }
-
         return filtered;
     }
 
     /**
-     * Filter by amount range string (e.g., "< 0.01 BTC", "0.01-0.1 BTC", "> 0.1 BTC")
+     * Get the inclusive bounds in sats for an amount range string (e.g., "< 0.01 BTC", "0.01-0.1 BTC", "> 0.1 BTC")
      */
-    private List<TradeOffer> filterByAmountRangeString(List<TradeOffer> offers, String range) {
+    private long[] getAmountBounds(String range) {
         if (range.startsWith("< ")) {
             // Less than 0.01 BTC
-            return filterByAmountRange(offers, 0, 1_000_000); // 0.01 BTC in sats
+            return new long[] { 0, 1_000_000 }; // 0.01 BTC in sats
         } else if (range.contains("-")) {
             // Between 0.01 and 0.1 BTC
-            return filterByAmountRange(offers, 1_000_000, 10_000_000);
+            return new long[] { 1_000_000, 10_000_000 };
         } else if (range.startsWith("> ")) {
             // Greater than 0.1 BTC
-            return filterByAmountRange(offers, 10_000_000, Long.MAX_VALUE);
+            return new long[] { 10_000_000, Long.MAX_VALUE };
         }
-        return offers;
+        return new long[] { 0, Long.MAX_VALUE };
     }
 
     /**
@@ -370,6 +408,12 @@ public class TradeOfferManager {
                 com.sparrowwallet.sparrow.p2p.NostrP2PService.getInstance();
             p2pService.publishOffer(offer);
             log.info("Published offer to Nostr: {}", offer.getId());
+
+            // The Nostr event ID is only known once published
+            if (offer.getNostrEventId() != null) {
+                indexMyOffer(offer);
+                saveMyOffersToDisk();
+            }
         } catch (Exception e) {
             log.error("Failed to publish offer to Nostr", e);
         }
@@ -447,11 +491,37 @@ public class TradeOfferManager {
      */
     public void clearAll() {
         myOffers.clear();
+        myOffersByNostrEventId.clear();
         marketplaceOffers.clear();
         saveMyOffersToDisk();
         log.info("Cleared all offers");
     }
 
+    private void indexMyOffer(TradeOffer offer) {
+        if (offer.getNostrEventId() != null) {
+            myOffersByNostrEventId.put(offer.getNostrEventId(), offer);
+        }
+    }
+
+    private void unindexMyOffer(TradeOffer offer) {
+        if (offer.getNostrEventId() != null) {
+            myOffersByNostrEventId.remove(offer.getNostrEventId(), offer);
+        }
+    }
+
+    /**
+     * Remove expired marketplace offers, notifying listeners if any were removed
+     */
+    private void removeExpiredOffers() {
+        try {
+            if (!marketplaceOffers.removeExpired(LocalDateTime.now()).isEmpty()) {
+                notifyOfferUpdate();
+            }
+        } catch (Exception e) {
+            log.error("Failed to remove expired offers", e);
+        }
+    }
+
     /**
      * Save my offers to disk
      */
@@ -593,6 +663,7 @@ public class TradeOfferManager {
                         }
 
                         myOffers.put(id, offer);
+                        indexMyOffer(offer);
 
                     } catch (Exception e) {
                         log.error("Failed to load offer from JSON", e);
@@ -16,7 +16,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 public class P2PMarketplacePane extends BorderPane {
@@ -38,7 +41,9 @@ public class P2PMarketplacePane extends BorderPane {
     private final NostrP2PService p2pService;
 
     private final ObservableList<TradeOffer> allOffers;
-    private final List<OfferCard> offerCards;
+    private final Map<String, OfferCard> offerCards;
+    private final Label emptyLabel;
+    private final Consumer<OfferBook.Change> offerChangeListener;
     private OfferCard selectedCard;
 
     public P2PMarketplacePane() {
@@ -46,7 +51,10 @@ public class P2PMarketplacePane extends BorderPane {
         this.offerManager = TradeOfferManager.getInstance();
         this.p2pService = NostrP2PService.getInstance();
         this.allOffers = FXCollections.observableArrayList();
-        this.offerCards = new ArrayList<>();
+        this.offerCards = new LinkedHashMap<>();
+        this.emptyLabel = new Label("No offers available");
+        this.emptyLabel.setStyle("-fx-text-fill: #888; -fx-font-size: 14px;");
+        this.offerChangeListener = change -> Platform.runLater(() -> applyOfferChange(change));
 
         getStyleClass().add("p2p-marketplace");
 
@@ -93,6 +101,15 @@ public class P2PMarketplacePane extends BorderPane {
         initializeFilters();
         loadOffers();
         startStatusUpdates();
+
+        // Only listen for offer changes while shown, so the offer manager does not retain a discarded pane
+        sceneProperty().addListener((obs, oldScene, newScene) -> {
+            if (newScene != null) {
+                offerManager.addOfferChangeListener(offerChangeListener);
+            } else {
+                offerManager.removeOfferChangeListener(offerChangeListener);
+            }
+        });
     }
 
     private VBox createLeftPane() {
@@ -230,40 +247,42 @@ public class P2PMarketplacePane extends BorderPane {
     }
 
     private void applyFilters() {
+        List<TradeOffer> filtered = allOffers.stream()
+            .filter(this::matchesFilters)
+            .collect(Collectors.toList());
+
+        refreshGrid(filtered);
+    }
+
+    private boolean matchesFilters(TradeOffer offer) {
         ComboBox<String> type = (ComboBox<String>) lookup("#typeFilter");
         ComboBox<String> currency = (ComboBox<String>) lookup("#currencyFilter");
         ComboBox<String> payment = (ComboBox<String>) lookup("#paymentFilter");
         TextField search = (TextField) lookup("#searchField");
 
-        List<TradeOffer> filtered = allOffers.stream()
-            .filter(offer -> {
-                if (type != null && !"All".equals(type.getValue())) {
-                    String offerType = offer.getType() == TradeOfferType.BUY ? "Buy" : "Sell";
-                    if (!offerType.equals(type.getValue())) return false;
-                }
-
-                if (currency != null && !"All".equals(currency.getValue())) {
-                    if (!offer.getCurrency().equals(currency.getValue())) return false;
-                }
+        if (type != null && !"All".equals(type.getValue())) {
+            String offerType = offer.getType() == TradeOfferType.BUY ? "Buy" : "Sell";
+            if (!offerType.equals(type.getValue())) return false;
+        }
 
-                if (payment != null && !"All".equals(payment.getValue())) {
-                    if (offer.getPaymentMethod() == null) return false;
-                    if (!offer.getPaymentMethod().getDisplayName().equals(payment.getValue())) return false;
-                }
+        if (currency != null && !"All".equals(currency.getValue())) {
+            if (!offer.getCurrency().equals(currency.getValue())) return false;
+        }
 
-                if (search != null && !search.getText().isEmpty()) {
-                    String query = search.getText().toLowerCase();
-                    String searchable = (offer.getDescription() + " " +
-                        offer.getLocation() + " " +
-                        offer.getCreatorDisplayName()).toLowerCase();
-                    if (!searchable.contains(query)) return false;
-                }
+        if (payment != null && !"All".equals(payment.getValue())) {
+            if (offer.getPaymentMethod() == null) return false;
+            if (!offer.getPaymentMethod().getDisplayName().equals(payment.getValue())) return false;
+        }
 
-                return true;
-            })
-            .collect(Collectors.toList());
+        if (search != null && !search.getText().isEmpty()) {
+            String query = search.getText().toLowerCase();
+            String searchable = (offer.getDescription() + " " +
+                offer.getLocation() + " " +
+                offer.getCreatorDisplayName()).toLowerCase();
+            if (!searchable.contains(query)) return false;
+        }
 
-        refreshGrid(filtered);
+        return true;
     }
 
     private void refreshGrid() {
@@ -277,23 +296,82 @@ public class P2PMarketplacePane extends BorderPane {
             selectedCard = null;
 
             if (offers.isEmpty()) {
-                Label empty = new Label("No offers available");
-                empty.setStyle("-fx-text-fill: #888; -fx-font-size: 14px;");
-                offersGrid.getChildren().add(empty);
+                offersGrid.getChildren().add(emptyLabel);
                 return;
             }
 
             for (TradeOffer offer : offers) {
-                OfferCard card = new OfferCard(offer);
-                card.setOnClick(this::handleOfferClick);
-                offerCards.add(card);
-                offersGrid.getChildren().add(card);
+                addCard(offer);
             }
         });
     }
 
+    /**
+     * Update only the cards for the offers added or removed, rather than rebuilding the grid
+     */
+    private void applyOfferChange(OfferBook.Change change) {
+        for (TradeOffer removed : change.removed()) {
+            allOffers.removeIf(offer -> offer.getId().equals(removed.getId()));
+            OfferCard card = offerCards.remove(removed.getId());
+            if (card != null) {
+                offersGrid.getChildren().remove(card);
+                if (card == selectedCard) {
+                    selectedCard = null;
+                }
+            }
+        }
+
+        for (TradeOffer added : change.added()) {
+            // Apply the same rules as a full load, which only lists active and unexpired offers from others
+            if (!offerManager.isMarketplaceOffer(added)) {
+                continue;
+            }
+
+            if (allOffers.stream().noneMatch(offer -> offer.getId().equals(added.getId()))) {
+                allOffers.add(getInsertIndex(allOffers, added), added);
+            }
+            if (!offerCards.containsKey(added.getId()) && matchesFilters(added)) {
+                offersGrid.getChildren().remove(emptyLabel);
+                List<TradeOffer> shownOffers = offersGrid.getChildren().stream()
+                    .filter(node -> node instanceof OfferCard)
+                    .map(node -> ((OfferCard) node).getOffer())
+                    .collect(Collectors.toList());
+                addCard(added, getInsertIndex(shownOffers, added));
+            }
+        }
+
+        if (offerCards.isEmpty() && !offersGrid.getChildren().contains(emptyLabel)) {
+            offersGrid.getChildren().add(emptyLabel);
+        }
+    }
+
+    /**
+     * Find the position of an offer among the listed offers, placing it before the first marketplace offer published earlier
+     */
+    private int getInsertIndex(List<TradeOffer> offers, TradeOffer offer) {
+        for (int i = 0; i < offers.size(); i++) {
+            TradeOffer listed = offers.get(i);
+            if (offerManager.isMarketplaceOffer(listed) && TradeOfferManager.MARKETPLACE_ORDER.compare(offer, listed) < 0) {
+                return i;
+            }
+        }
+
+        return offers.size();
+    }
+
+    private void addCard(TradeOffer offer) {
+        addCard(offer, offersGrid.getChildren().size());
+    }
+
+    private void addCard(TradeOffer offer, int index) {
+        OfferCard card = new OfferCard(offer);
+        card.setOnClick(this::handleOfferClick);
+        offerCards.put(offer.getId(), card);
+        offersGrid.getChildren().add(index, card);
+    }
+
     private void handleOfferClick(TradeOffer offer) {
-        for (OfferCard card : offerCards) {
+        for (OfferCard card : offerCards.values()) {
             card.setSelected(card.getOffer().getId().equals(offer.getId()));
             if (card.isSelected()) {
                 selectedCard = card;
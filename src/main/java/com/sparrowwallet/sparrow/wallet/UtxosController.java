@@ -190,7 +190,7 @@ public class UtxosController extends WalletFormController implements Initializab
                 writer.writeRecord(new String[] {"Date (UTC)", "Output", "Address", "Label", "Value"});
                 for(Entry entry : getWalletForm().getWalletUtxosEntry().getChildren()) {
                     UtxoEntry utxoEntry = (UtxoEntry)entry;
-                    writer.write(utxoEntry.getBlockTransaction().getDate() == null ? "Unconfirmed" : WalletTransactions.DATE_FORMAT.format(utxoEntry.getBlockTransaction().getDate()));
+                    writer.write(utxoEntry.getBlockTransaction().getDate() == null ? "Unconfirmed" : WalletTransactions.DATE_FORMAT.format(utxoEntry.getBlockTransaction().getDate().toInstant()));
                     writer.write(utxoEntry.getHashIndex().toString());
                     writer.write(utxoEntry.getAddress().getAddress());
                     writer.write(utxoEntry.getLabel());
@@ -0,0 +1,92 @@
+package com.sparrowwallet.sparrow.io;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+
+public class BackupStoreTest {
+    private File storeDir;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        storeDir = Files.createTempDirectory("backupstore").toFile();
+    }
+
+    @Test
+    public void restore() throws IOException {
+        BackupStore backupStore = new BackupStore(storeDir);
+        byte[] data = getData(1024 * 1024);
+        backupStore.backup("wallet-20240101000000.mv.db", outputStream -> outputStream.write(data));
+
+        ByteArrayOutputStream restored = new ByteArrayOutputStream();
+        backupStore.restore("wallet-20240101000000.mv.db", restored);
+        Assertions.assertArrayEquals(data, restored.toByteArray());
+    }
+
+    @Test
+    public void deduplicate() throws IOException {
+        BackupStore backupStore = new BackupStore(storeDir);
+        byte[] data = getData(2 * 1024 * 1024);
+        BackupStore.Manifest first = backupStore.backup("wallet-20240101000000.mv.db", outputStream -> outputStream.write(data));
+
+        //Inserting bytes shifts the remainder of the file, but only the chunks around the insertion should change
+        byte[] changed = new byte[data.length + 10];
+        System.arraycopy(data, 0, changed, 0, data.length / 2);
+        System.arraycopy(data, data.length / 2, changed, data.length / 2 + 10, data.length - data.length / 2);
+        BackupStore.Manifest second = backupStore.backup("wallet-20240101000001.mv.db", outputStream -> outputStream.write(changed));
+
+        Set<BackupStore.ChunkRef> shared = new HashSet<>(first.chunks());
+        shared.retainAll(second.chunks());
+        Assertions.assertTrue(shared.size() >= first.chunks().size() / 2);
+
+        ByteArrayOutputStream restored = new ByteArrayOutputStream();
+        backupStore.restore("wallet-20240101000001.mv.db", restored);
+        Assertions.assertArrayEquals(changed, restored.toByteArray());
+    }
+
+    @Test
+    public void verify() throws IOException {
+        BackupStore backupStore = new BackupStore(storeDir);
+        BackupStore.Manifest manifest = backupStore.backup("wallet-20240101000000.mv.db", outputStream -> outputStream.write(getData(512 * 1024)));
+        Assertions.assertTrue(backupStore.verify().isEmpty());
+        Assertions.assertTrue(backupStore.verify("wallet-20240101000000.mv.db"));
+
+        String hash = manifest.chunks().get(0).hash();
+        File chunkFile = new File(new File(new File(storeDir, "chunks"), hash.substring(0, 2)), hash);
+        byte[] chunk = Files.readAllBytes(chunkFile.toPath());
+        chunk[0] ^= 1;
+        Files.write(chunkFile.toPath(), chunk);
+
+        Assertions.assertEquals(Set.of("wallet-20240101000000.mv.db"), backupStore.verify());
+        Assertions.assertFalse(backupStore.verify("wallet-20240101000000.mv.db"));
+        Assertions.assertThrows(IOException.class, () -> backupStore.restore("wallet-20240101000000.mv.db", new ByteArrayOutputStream()));
+    }
+
+    @Test
+    public void prune() throws IOException {
+        BackupStore backupStore = new BackupStore(storeDir);
+        for(int i = 0; i < 5; i++) {
+            byte[] data = getData(100 * 1024 + i);
+            backupStore.backup("wallet-2024010100000" + i + ".mv.db", outputStream -> outputStream.write(data));
+        }
+
+        backupStore.prune(name -> name.startsWith("wallet-"), new BackupStore.RetentionPolicy(2, 0));
+        Assertions.assertEquals(2, backupStore.getBackups(name -> true).size());
+        Assertions.assertTrue(backupStore.verify().isEmpty());
+
+        backupStore.delete(name -> true);
+        Assertions.assertTrue(backupStore.getBackups(name -> true).isEmpty());
+        File[] chunkDirs = new File(storeDir, "chunks").listFiles();
+        Assertions.assertTrue(Arrays.stream(chunkDirs).allMatch(dir -> Objects.requireNonNull(dir.list()).length == 0));
+    }
+
+    private byte[] getData(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,75 @@
+package com.sparrowwallet.sparrow.io;
+
+import com.sparrowwallet.drongo.crypto.ECKey;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Random;
+
+public class ECIESStreamTest {
+    @Test
+    public void chunkedRoundTrip() throws IOException {
+        ECKey key = new ECKey();
+        byte[] data = getData(ChunkedECIES.DEFAULT_CHUNK_SIZE * 3 + 123);
+
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        try(OutputStream outputStream = new ChunkedECIESOutputStream(encrypted, ECKey.fromPublicOnly(key))) {
+            outputStream.write(data);
+        }
+
+        try(InputStream inputStream = new ECIESInputStream(new ByteArrayInputStream(encrypted.toByteArray()), key)) {
+            Assertions.assertArrayEquals(data, inputStream.readAllBytes());
+        }
+    }
+
+    @Test
+    public void chunkedEmpty() throws IOException {
+        ECKey key = new ECKey();
+
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        new ChunkedECIESOutputStream(encrypted, ECKey.fromPublicOnly(key)).close();
+
+        try(InputStream inputStream = new ECIESInputStream(new ByteArrayInputStream(encrypted.toByteArray()), key)) {
+            Assertions.assertEquals(0, inputStream.readAllBytes().length);
+        }
+    }
+
+    @Test
+    public void chunkedTruncated() throws IOException {
+        ECKey key = new ECKey();
+        byte[] data = getData(ChunkedECIES.DEFAULT_CHUNK_SIZE * 2);
+
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        try(OutputStream outputStream = new ChunkedECIESOutputStream(encrypted, ECKey.fromPublicOnly(key))) {
+            outputStream.write(data);
+        }
+
+        byte[] truncated = Arrays.copyOf(encrypted.toByteArray(), ChunkedECIES.HEADER_LENGTH + Integer.BYTES + ChunkedECIES.DEFAULT_CHUNK_SIZE + ChunkedECIES.TAG_LENGTH_BYTES);
+        try(InputStream inputStream = new ECIESInputStream(new ByteArrayInputStream(truncated), key)) {
+            Assertions.assertThrows(IOException.class, inputStream::readAllBytes);
+        }
+    }
+
+    @Test
+    public void legacyRead() throws IOException {
+        ECKey key = new ECKey();
+        byte[] data = getData(10000);
+
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        try(OutputStream outputStream = new ECIESOutputStream(encrypted, ECKey.fromPublicOnly(key))) {
+            outputStream.write(data);
+        }
+
+        try(InputStream inputStream = new ECIESInputStream(new ByteArrayInputStream(encrypted.toByteArray()), key)) {
+            Assertions.assertArrayEquals(data, inputStream.readAllBytes());
+        }
+    }
+
+    private byte[] getData(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+}
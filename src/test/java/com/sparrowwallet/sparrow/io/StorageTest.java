@@ -7,13 +7,22 @@ import com.sparrowwallet.drongo.protocol.ScriptType;
 import com.sparrowwallet.drongo.wallet.Keystore;
 import com.sparrowwallet.drongo.wallet.MnemonicException;
 import com.sparrowwallet.drongo.wallet.Wallet;
+import com.sparrowwallet.sparrow.SparrowWallet;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.io.*;
+import java.nio.file.Files;
 
 public class StorageTest extends IoTest {
+    @BeforeEach
+    void setUp() throws IOException {
+        System.setProperty(SparrowWallet.APP_HOME_PROPERTY, Files.createTempDirectory("sparrow").toFile().getAbsolutePath());
+        Config.get().setCompactWatchOnlyWallets(false);
+    }
+
     @Test
     public void loadWallet() throws IOException, MnemonicException, StorageException {
         System.setProperty(Wallet.ALLOW_DERIVATIONS_MATCHING_OTHER_NETWORKS_PROPERTY, "true");
@@ -84,8 +93,80 @@ public class StorageTest extends IoTest {
         Assertions.assertTrue(wallet.isValid());
     }
 
+    @Test
+    public void saveBinaryWallet() throws IOException, MnemonicException, StorageException {
+        System.setProperty(Wallet.ALLOW_DERIVATIONS_MATCHING_OTHER_NETWORKS_PROPERTY, "true");
+        Storage storage = new Storage(getFile("sparrow-single-wallet"));
+        Wallet wallet = storage.loadEncryptedWallet("pass").getWallet();
+
+        File tempWallet = File.createTempFile("sparrow", "." + PersistenceType.BINARY.getExtension());
+        tempWallet.deleteOnExit();
+
+        Storage tempStorage = new Storage(tempWallet);
+        Assertions.assertEquals(PersistenceType.BINARY, tempStorage.getType());
+        tempStorage.setKeyDeriver(storage.getKeyDeriver());
+        tempStorage.setEncryptionPubKey(storage.getEncryptionPubKey());
+        tempStorage.saveWallet(wallet);
+        Assertions.assertTrue(Storage.isEncrypted(tempWallet));
+
+        //An update with a changed label is appended to the existing file
+        long length = tempWallet.length();
+        wallet.setLabel("Binary");
+        tempStorage.updateWallet(wallet);
+        Assertions.assertTrue(tempWallet.length() > length);
+
+        Config.get().setCompactWatchOnlyWallets(true);
+        Storage temp2Storage = new Storage(tempWallet);
+        Wallet loaded = temp2Storage.loadEncryptedWallet("pass").getWallet();
+        Assertions.assertTrue(loaded.isValid());
+        Assertions.assertEquals("Binary", loaded.getLabel());
+        Assertions.assertEquals(wallet.getKeystores().get(0).getExtendedPublicKey(), loaded.getKeystores().get(0).getExtendedPublicKey());
+        Assertions.assertEquals(wallet.getTransactions().keySet(), loaded.getTransactions().keySet());
+    }
+
+    @Test
+    public void recoverTornBinaryAppend() throws IOException, MnemonicException, StorageException {
+        System.setProperty(Wallet.ALLOW_DERIVATIONS_MATCHING_OTHER_NETWORKS_PROPERTY, "true");
+        Config.get().setCompactWatchOnlyWallets(true);
+        Storage storage = new Storage(getFile("sparrow-single-wallet"));
+        Wallet wallet = storage.loadEncryptedWallet("pass").getWallet();
+        Assertions.assertEquals(PersistenceType.BINARY, storage.getType());
+        File walletFile = storage.getWalletFile();
+
+        wallet.setLabel("Committed");
+        storage.updateWallet(wallet);
+        long committedLength = walletFile.length();
+
+        //Simulate a crash partway through the next append
+        wallet.setLabel("Torn");
+        storage.updateWallet(wallet);
+        Assertions.assertTrue(walletFile.length() > committedLength + 1);
+        try(RandomAccessFile randomAccessFile = new RandomAccessFile(walletFile, "rw")) {
+            randomAccessFile.setLength(committedLength + (walletFile.length() - committedLength) / 2);
+        }
+
+        Storage tornStorage = new Storage(walletFile);
+        Wallet torn = tornStorage.loadEncryptedWallet("pass").getWallet();
+        Assertions.assertEquals("Committed", torn.getLabel());
+
+        //The next update replaces the incomplete append
+        torn.setLabel("Recovered");
+        tornStorage.updateWallet(torn);
+        Assertions.assertEquals("Recovered", new Storage(walletFile).loadEncryptedWallet("pass").getWallet().getLabel());
+
+        //Wallets are converted back to the default format once the option is turned off
+        Config.get().setCompactWatchOnlyWallets(false);
+        Storage dbStorage = new Storage(walletFile);
+        Assertions.assertEquals("Recovered", dbStorage.loadEncryptedWallet("pass").getWallet().getLabel());
+        Assertions.assertEquals(PersistenceType.DB, dbStorage.getType());
+        Assertions.assertFalse(walletFile.exists());
+    }
+
     @AfterEach
     void tearDown() {
         System.setProperty(Wallet.ALLOW_DERIVATIONS_MATCHING_OTHER_NETWORKS_PROPERTY, "false");
+        Config.get().setCompactWatchOnlyWallets(false);
+        Config.get().flushNow();
+        System.clearProperty(SparrowWallet.APP_HOME_PROPERTY);
     }
 }
@@ -0,0 +1,37 @@
+package com.sparrowwallet.sparrow.io.db;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class DbMaintenanceTest {
+    private static final long LARGE_FILE = 64 * 1024 * 1024;
+
+    private final DbMaintenance maintenance = new DbMaintenance();
+
+    @Test
+    public void smallFile() {
+        Assertions.assertFalse(maintenance.needsCompaction(new DbMaintenance.Stats(DbMaintenance.MIN_FILE_SIZE - 1, 10, LARGE_FILE)));
+        Assertions.assertTrue(maintenance.needsCompaction(new DbMaintenance.Stats(DbMaintenance.MIN_FILE_SIZE, 10, 0)));
+    }
+
+    @Test
+    public void unavailableFillRate() {
+        Assertions.assertFalse(maintenance.needsCompaction(new DbMaintenance.Stats(LARGE_FILE, 0, LARGE_FILE * 2)));
+        Assertions.assertFalse(maintenance.needsCompaction(new DbMaintenance.Stats(LARGE_FILE, -1, LARGE_FILE * 2)));
+    }
+
+    @Test
+    public void lowFillRate() {
+        Assertions.assertTrue(maintenance.needsCompaction(new DbMaintenance.Stats(LARGE_FILE, DbMaintenance.LOW_FILL_RATE - 1, 0)));
+        Assertions.assertFalse(maintenance.needsCompaction(new DbMaintenance.Stats(LARGE_FILE, DbMaintenance.LOW_FILL_RATE, 0)));
+    }
+
+    @Test
+    public void highFillRate() {
+        //Between the two fill rates, compaction depends on how much has been written since the last compaction
+        Assertions.assertFalse(maintenance.needsCompaction(new DbMaintenance.Stats(LARGE_FILE, DbMaintenance.HIGH_FILL_RATE - 1, LARGE_FILE)));
+        Assertions.assertTrue(maintenance.needsCompaction(new DbMaintenance.Stats(LARGE_FILE, DbMaintenance.HIGH_FILL_RATE - 1, LARGE_FILE + 1)));
+        Assertions.assertFalse(maintenance.needsCompaction(new DbMaintenance.Stats(LARGE_FILE, DbMaintenance.HIGH_FILL_RATE, LARGE_FILE * 10)));
+        Assertions.assertFalse(maintenance.needsCompaction(new DbMaintenance.Stats(LARGE_FILE, 100, LARGE_FILE * 10)));
+    }
+}
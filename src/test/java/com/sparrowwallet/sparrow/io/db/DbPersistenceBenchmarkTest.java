@@ -0,0 +1,219 @@
+package com.sparrowwallet.sparrow.io.db;
+
+import com.sparrowwallet.drongo.KeyPurpose;
+import com.sparrowwallet.drongo.protocol.Sha256Hash;
+import com.sparrowwallet.drongo.wallet.BlockTransaction;
+import com.sparrowwallet.drongo.wallet.BlockTransactionHashIndex;
+import com.sparrowwallet.drongo.wallet.Wallet;
+import com.sparrowwallet.drongo.wallet.WalletNode;
+import com.sparrowwallet.sparrow.io.IoTest;
+import com.sparrowwallet.sparrow.io.PersistenceType;
+import com.sparrowwallet.sparrow.io.Storage;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.h2.H2DatabasePlugin;
+import org.jdbi.v3.core.result.LinkedHashMapRowReducer;
+import org.jdbi.v3.core.result.RowView;
+import org.jdbi.v3.sqlobject.SqlObjectPlugin;
+import org.jdbi.v3.sqlobject.statement.SqlQuery;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Compares the per-row and batched wallet history writes, and the previous and current WalletNodeReducer loads, on a synthetic wallet with 100k transaction outputs.
+ * Run with the SPARROW_BENCHMARK environment variable set to true, for example SPARROW_BENCHMARK=true ./gradlew test --tests '*DbPersistenceBenchmarkTest'
+ */
+@EnabledIfEnvironmentVariable(named = "SPARROW_BENCHMARK", matches = "true")
+public class DbPersistenceBenchmarkTest extends IoTest {
+    private static final String SCHEMA = "wallet_master";
+    private static final int ADDRESS_NODES = 10000;
+    private static final int OUTPUTS_PER_NODE = 10;
+    private static final int OUTPUTS_PER_TRANSACTION = 10;
+    private static final int LOAD_ITERATIONS = 5;
+
+    @Test
+    public void storeHistory() throws Exception {
+        SyntheticWallet perRow = createStoredWallet();
+        long perRowStart = System.currentTimeMillis();
+        perRow.jdbi().useHandle(handle -> {
+            handle.attach(WalletDao.class).setSchema(SCHEMA);
+            WalletNodeDao walletNodeDao = handle.attach(WalletNodeDao.class);
+            for(WalletNode addressNode : perRow.addressNodes()) {
+                for(BlockTransactionHashIndex txo : addressNode.getTransactionOutputs()) {
+                    walletNodeDao.addOrUpdate(addressNode, txo);
+                }
+            }
+
+            BlockTransactionDao blockTransactionDao = handle.attach(BlockTransactionDao.class);
+            for(Map.Entry<Sha256Hash, BlockTransaction> entry : perRow.transactions().entrySet()) {
+                blockTransactionDao.addOrUpdate(perRow.wallet(), entry.getKey(), entry.getValue());
+            }
+        });
+        long perRowTime = System.currentTimeMillis() - perRowStart;
+
+        SyntheticWallet batched = createStoredWallet();
+        long batchedStart = System.currentTimeMillis();
+        batched.jdbi().useTransaction(handle -> {
+            handle.attach(WalletDao.class).setSchema(SCHEMA);
+            handle.attach(WalletNodeDao.class).addOrUpdateAll(batched.addressNodes());
+            handle.attach(BlockTransactionDao.class).addOrUpdateAll(batched.wallet(), batched.transactions());
+        });
+        long batchedTime = System.currentTimeMillis() - batchedStart;
+
+        System.out.println("Stored " + batched.getTxoCount() + " TXOs and " + batched.transactions().size() + " transactions: per row " + perRowTime + "ms, batched " + batchedTime + "ms");
+        Assertions.assertEquals(perRow.getTxoCount(), countRows(perRow.jdbi(), "blockTransactionHashIndex"));
+        Assertions.assertEquals(batched.getTxoCount(), countRows(batched.jdbi(), "blockTransactionHashIndex"));
+    }
+
+    @Test
+    public void loadHistory() throws Exception {
+        SyntheticWallet stored = createStoredWallet();
+        stored.jdbi().useTransaction(handle -> {
+            handle.attach(WalletDao.class).setSchema(SCHEMA);
+            handle.attach(WalletNodeDao.class).addOrUpdateAll(stored.addressNodes());
+        });
+
+        String sql = WalletNodeDao.class.getMethod("getForWalletId", int.class, Long.class).getAnnotation(SqlQuery.class).value();
+        int scriptType = stored.wallet().getScriptType().ordinal();
+        long walletId = stored.wallet().getId();
+
+        //Alternate the two reducers so that both benefit equally from warmed up caches
+        long linearTime = 0;
+        long indexedTime = 0;
+        List<WalletNode> linearNodes = null;
+        List<WalletNode> indexedNodes = null;
+        for(int i = 0; i < LOAD_ITERATIONS; i++) {
+            long linearStart = System.currentTimeMillis();
+            linearNodes = stored.jdbi().withHandle(handle -> {
+                handle.attach(WalletDao.class).setSchema(SCHEMA);
+                return handle.createQuery(sql).bind(0, scriptType).bind(1, walletId)
+                        .registerRowMapper(new WalletNodeMapper()).registerRowMapper(new BlockTransactionHashIndexMapper())
+                        .reduceRows(new LinearWalletNodeReducer()).toList();
+            });
+            linearTime += System.currentTimeMillis() - linearStart;
+
+            long indexedStart = System.currentTimeMillis();
+            indexedNodes = stored.jdbi().withHandle(handle -> {
+                handle.attach(WalletDao.class).setSchema(SCHEMA);
+                return handle.attach(WalletNodeDao.class).getForWalletId(scriptType, walletId);
+            });
+            indexedTime += System.currentTimeMillis() - indexedStart;
+        }
+
+        System.out.println("Loaded " + stored.getTxoCount() + " TXOs: linear lookup " + linearTime / LOAD_ITERATIONS + "ms, indexed " + indexedTime / LOAD_ITERATIONS + "ms");
+        Assertions.assertEquals(getTxoCount(linearNodes), getTxoCount(indexedNodes));
+        Assertions.assertEquals(stored.getTxoCount(), getTxoCount(indexedNodes));
+    }
+
+    private static int getTxoCount(List<WalletNode> walletNodes) {
+        return walletNodes.stream().mapToInt(node -> node.getTransactionOutputs().size() + (int)node.getTransactionOutputs().stream().filter(BlockTransactionHashIndex::isSpent).count()).sum();
+    }
+
+    /**
+     * Stores a wallet with its address nodes but no history, then adds the synthetic history to the in-memory wallet without ids
+     */
+    private SyntheticWallet createStoredWallet() throws Exception {
+        System.setProperty(Wallet.ALLOW_DERIVATIONS_MATCHING_OTHER_NETWORKS_PROPERTY, "true");
+        Wallet wallet = new Storage(getFile("sparrow-single-wallet")).loadEncryptedWallet("pass").getWallet();
+        WalletNode receiveNode = wallet.getNode(KeyPurpose.RECEIVE);
+        receiveNode.fillToIndex(wallet, ADDRESS_NODES - 1);
+        for(WalletNode purposeNode : wallet.getPurposeNodes()) {
+            for(WalletNode addressNode : purposeNode.getChildren()) {
+                addressNode.getTransactionOutputs().clear();
+            }
+        }
+
+        File dbFile = new File(Files.createTempDirectory("sparrow").toFile(), "benchmark." + PersistenceType.DB.getExtension());
+        DbPersistence persistence = new DbPersistence();
+        persistence.storeWallet(new Storage(persistence, dbFile), wallet);
+        persistence.close();
+
+        List<WalletNode> addressNodes = new ArrayList<>(receiveNode.getChildren());
+        Map<Sha256Hash, BlockTransaction> transactions = new HashMap<>();
+        Date date = new Date();
+        int output = 0;
+        for(WalletNode addressNode : addressNodes) {
+            for(int i = 0; i < OUTPUTS_PER_NODE; i++, output++) {
+                int height = 100000 + output / OUTPUTS_PER_TRANSACTION;
+                Sha256Hash hash = getHash(0, output / OUTPUTS_PER_TRANSACTION);
+                transactions.computeIfAbsent(hash, txid -> new BlockTransaction(txid, height, date, 1000L, null));
+
+                //Spend every other output, with each spending transaction consuming the outputs of one funding transaction
+                BlockTransactionHashIndex spentBy = null;
+                if(output % 2 == 0) {
+                    Sha256Hash spendingHash = getHash(1, output / OUTPUTS_PER_TRANSACTION);
+                    transactions.computeIfAbsent(spendingHash, txid -> new BlockTransaction(txid, height + 1, date, 1000L, null));
+                    spentBy = new BlockTransactionHashIndex(spendingHash, height + 1, date, 1000L, (output % OUTPUTS_PER_TRANSACTION) / 2, 10000L + output);
+                }
+
+                addressNode.getTransactionOutputs().add(new BlockTransactionHashIndex(hash, height, date, 1000L, output % OUTPUTS_PER_TRANSACTION, 10000L + output, spentBy));
+            }
+        }
+
+        Jdbi jdbi = Jdbi.create("jdbc:h2:" + dbFile.getAbsolutePath().replace("." + PersistenceType.DB.getExtension(), "") + ";DATABASE_TO_UPPER=false", "sa", "");
+        jdbi.installPlugin(new H2DatabasePlugin());
+        jdbi.installPlugin(new SqlObjectPlugin());
+
+        return new SyntheticWallet(wallet, addressNodes, transactions, jdbi);
+    }
+
+    private static Sha256Hash getHash(int type, int index) {
+        return Sha256Hash.wrap(ByteBuffer.allocate(32).putInt(type).putInt(index).array());
+    }
+
+    private static long countRows(Jdbi jdbi, String table) {
+        return jdbi.withHandle(handle -> {
+            handle.attach(WalletDao.class).setSchema(SCHEMA);
+            return handle.createQuery("select count(*) from " + table).mapTo(Long.class).one();
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        System.setProperty(Wallet.ALLOW_DERIVATIONS_MATCHING_OTHER_NETWORKS_PROPERTY, "false");
+    }
+
+    private record SyntheticWallet(Wallet wallet, List<WalletNode> addressNodes, Map<Sha256Hash, BlockTransaction> transactions, Jdbi jdbi) {
+        public int getTxoCount() {
+            return DbPersistenceBenchmarkTest.getTxoCount(addressNodes);
+        }
+    }
+
+    /**
+     * The previous reducer, which finds the output spent by each input by scanning the outputs of its node
+     */
+    private static class LinearWalletNodeReducer implements LinkedHashMapRowReducer<Long, WalletNode> {
+        private static final BlockTransactionHashIndex INPUT_MARKER = new BlockTransactionHashIndex(Sha256Hash.ZERO_HASH, 0, null, null, 0, 0);
+
+        @Override
+        public void accumulate(Map<Long, WalletNode> map, RowView rowView) {
+            WalletNode walletNode = map.computeIfAbsent(rowView.getColumn("walletNode.id", Long.class), id -> rowView.getRow(WalletNode.class));
+
+            if(rowView.getColumn("walletNode.parent", Long.class) != null) {
+                WalletNode parentNode = map.get(rowView.getColumn("walletNode.parent", Long.class));
+                parentNode.getChildren().add(walletNode);
+            }
+
+            if(rowView.getColumn("blockTransactionHashIndex.node", Long.class) != null) {
+                BlockTransactionHashIndex blockTransactionHashIndex = rowView.getRow(BlockTransactionHashIndex.class);
+                if(rowView.getColumn("blockTransactionHashIndex.spentBy", Long.class) != null) {
+                    BlockTransactionHashIndex spentBy = walletNode.getTransactionOutputs().stream().filter(ref -> ref.getId().equals(rowView.getColumn("blockTransactionHashIndex.spentBy", Long.class))).findFirst()
+                            .orElseThrow(() -> new IllegalStateException("Cannot find transaction output for " + rowView.getColumn("blockTransactionHashIndex.spentBy", Long.class)));
+                    blockTransactionHashIndex.setSpentBy(spentBy);
+                    walletNode.getTransactionOutputs().remove(spentBy);
+                    spentBy.setSpentBy(null);
+                }
+                if(!walletNode.getTransactionOutputs().add(blockTransactionHashIndex)) {
+                    blockTransactionHashIndex.setSpentBy(INPUT_MARKER);
+                    walletNode.getTransactionOutputs().add(blockTransactionHashIndex);
+                }
+            }
+        }
+    }
+}
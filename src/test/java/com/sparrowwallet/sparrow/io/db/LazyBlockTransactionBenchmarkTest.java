@@ -0,0 +1,82 @@
+package com.sparrowwallet.sparrow.io.db;
+
+import com.sparrowwallet.drongo.Utils;
+import com.sparrowwallet.drongo.protocol.Sha256Hash;
+import com.sparrowwallet.drongo.protocol.Transaction;
+import com.sparrowwallet.drongo.wallet.BlockTransaction;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Compares the open time and retained heap of eagerly parsed and lazily parsed transactions for a synthetic wallet history of 100k transactions.
+ * Each history is measured once the transactions have been created and sorted, as when a wallet is opened, and again once every transaction has been parsed.
+ * Run with the SPARROW_BENCHMARK environment variable set to true, for example SPARROW_BENCHMARK=true ./gradlew test --tests '*LazyBlockTransactionBenchmarkTest'
+ */
+@EnabledIfEnvironmentVariable(named = "SPARROW_BENCHMARK", matches = "true")
+public class LazyBlockTransactionBenchmarkTest {
+    //A transaction with one input and two outputs, with the spent outpoint replaced for each synthetic transaction
+    private static final String TX_PREFIX = "0100000001";
+    private static final String TX_SUFFIX = "0000000000ffffffff0250c30000000000001600142020202020202020202020202020202020202020409c000000000000160014212121212121212121212121212121212121212100000000";
+    private static final int TRANSACTIONS = 100000;
+    private static final int TRANSACTIONS_PER_BLOCK = 10;
+    private static final Date DATE = new Date(1700000000000L);
+
+    @Test
+    public void openHistory() {
+        List<byte[]> txBytes = new ArrayList<>(TRANSACTIONS);
+        List<Sha256Hash> txids = new ArrayList<>(TRANSACTIONS);
+        for(int i = 0; i < TRANSACTIONS; i++) {
+            byte[] bytes = Utils.hexToBytes(TX_PREFIX + Utils.bytesToHex(ByteBuffer.allocate(32).putInt(i).array()) + TX_SUFFIX);
+            txBytes.add(bytes);
+            txids.add(new Transaction(bytes).getTxId());
+        }
+
+        Result eager = open(index -> new BlockTransaction(txids.get(index), getHeight(index), DATE, 1000L, new Transaction(txBytes.get(index)), null, null));
+        //The bytes are copied as each row read from the database holds its own array
+        Result lazy = open(index -> new LazyBlockTransaction(txids.get(index), getHeight(index), DATE, 1000L, txBytes.get(index).clone(), null, null));
+
+        System.out.println("Opened " + TRANSACTIONS + " transactions: eager " + eager.openMillis() + "ms " + eager.openHeap() / 1024 + "KiB, lazy " + lazy.openMillis() + "ms " + lazy.openHeap() / 1024 + "KiB");
+        System.out.println("Parsed all transactions: eager " + eager.parsedHeap() / 1024 + "KiB, lazy " + lazy.parsedHeap() / 1024 + "KiB");
+        Assertions.assertEquals(eager.sortedHashes(), lazy.sortedHashes());
+    }
+
+    private Result open(Function<Integer, BlockTransaction> factory) {
+        long heapBefore = getUsedHeap();
+        long start = System.currentTimeMillis();
+        List<BlockTransaction> blockTransactions = new ArrayList<>(TRANSACTIONS);
+        for(int i = 0; i < TRANSACTIONS; i++) {
+            blockTransactions.add(factory.apply(i));
+        }
+        blockTransactions.sort(BlockTransaction::compareTo);
+        long openMillis = System.currentTimeMillis() - start;
+        long openHeap = getUsedHeap() - heapBefore;
+
+        for(BlockTransaction blockTransaction : blockTransactions) {
+            Assertions.assertNotNull(blockTransaction.getTransaction());
+        }
+        long parsedHeap = getUsedHeap() - heapBefore;
+
+        List<Sha256Hash> sortedHashes = blockTransactions.stream().map(BlockTransaction::getHash).toList();
+        return new Result(openMillis, openHeap, parsedHeap, sortedHashes);
+    }
+
+    private static int getHeight(int index) {
+        return 800000 + index / TRANSACTIONS_PER_BLOCK;
+    }
+
+    private static long getUsedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for(int i = 0; i < 3; i++) {
+            System.gc();
+        }
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private record Result(long openMillis, long openHeap, long parsedHeap, List<Sha256Hash> sortedHashes) {}
+}
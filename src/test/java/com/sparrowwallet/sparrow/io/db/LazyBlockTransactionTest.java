@@ -0,0 +1,74 @@
+package com.sparrowwallet.sparrow.io.db;
+
+import com.sparrowwallet.drongo.Utils;
+import com.sparrowwallet.drongo.protocol.Sha256Hash;
+import com.sparrowwallet.drongo.protocol.Transaction;
+import com.sparrowwallet.drongo.wallet.BlockTransaction;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class LazyBlockTransactionTest {
+    //Funding transaction, a transaction in the same block spending its first output, and an unrelated transaction
+    private static final String FUNDING_TX = "010000000111111111111111111111111111111111111111111111111111111111111111110000000000ffffffff01a086010000000000160014202020202020202020202020202020202020202000000000";
+    private static final String SPENDING_TX = "0100000001ad02eff161ca238119272f84cf348c8a7098614f687e47298b6ba5b7316eb5a50000000000ffffffff0250c30000000000001600142020202020202020202020202020202020202020409c000000000000160014212121212121212121212121212121212121212100000000";
+    private static final String UNRELATED_TX = "010000000122222222222222222222222222222222222222222222222222222222222222220100000000ffffffff017011010000000000160014202020202020202020202020202020202020202000000000";
+
+    private static final Date DATE = new Date(1700000000000L);
+
+    @Test
+    public void outpoints() {
+        for(String hex : List.of(FUNDING_TX, SPENDING_TX, UNRELATED_TX)) {
+            BlockTransaction eager = getEager(hex, 800000, 1000L);
+            BlockTransaction lazy = getLazy(hex, 800000, 1000L);
+            Assertions.assertEquals(eager.getSpending(), lazy.getSpending());
+            Assertions.assertEquals(eager.getFunding(), lazy.getFunding());
+        }
+    }
+
+    @Test
+    public void sortOrder() {
+        List<BlockTransaction> eager = List.of(getEager(SPENDING_TX, 800000, 500L), getEager(UNRELATED_TX, 800001, 700L), getEager(FUNDING_TX, 800000, 1000L));
+        List<BlockTransaction> lazy = List.of(getLazy(SPENDING_TX, 800000, 500L), getLazy(UNRELATED_TX, 800001, 700L), getLazy(FUNDING_TX, 800000, 1000L));
+
+        List<Sha256Hash> expected = getSortedHashes(eager);
+        Assertions.assertEquals(Sha256Hash.wrap("a5b56e31b7a56b8b29477e684f6198708a8c34cf842f27198123ca61f1ef02ad"), expected.get(0));
+        Assertions.assertEquals(Sha256Hash.wrap("da5bb3904f9609579012c4a8ed3aa81ca75cbd5d10ee7c087c006fbaea19c13e"), expected.get(1));
+        Assertions.assertEquals(expected, getSortedHashes(lazy));
+
+        //Wallets loaded from the database are later updated with transactions fetched from the server, so both kinds are compared together
+        Assertions.assertEquals(expected, getSortedHashes(List.of(lazy.get(0), eager.get(1), eager.get(2))));
+        Assertions.assertEquals(expected, getSortedHashes(List.of(eager.get(0), lazy.get(1), lazy.get(2))));
+
+        Assertions.assertTrue(lazy.get(0).compareBlockOrder(eager.get(2)) > 0);
+        Assertions.assertTrue(lazy.get(2).compareBlockOrder(eager.get(0)) < 0);
+    }
+
+    @Test
+    public void feeRate() {
+        for(String hex : List.of(FUNDING_TX, SPENDING_TX, UNRELATED_TX)) {
+            Assertions.assertEquals(getEager(hex, 800000, 1000L).getFeeRate(), getLazy(hex, 800000, 1000L).getFeeRate());
+            Assertions.assertNull(getLazy(hex, 800000, null).getFeeRate());
+        }
+    }
+
+    private static List<Sha256Hash> getSortedHashes(List<BlockTransaction> blockTransactions) {
+        List<BlockTransaction> sorted = new ArrayList<>(blockTransactions);
+        sorted.sort(BlockTransaction::compareTo);
+        return sorted.stream().map(BlockTransaction::getHash).collect(Collectors.toList());
+    }
+
+    private static BlockTransaction getEager(String hex, int height, Long fee) {
+        Transaction transaction = new Transaction(Utils.hexToBytes(hex));
+        return new BlockTransaction(transaction.getTxId(), height, DATE, fee, transaction, null, null);
+    }
+
+    private static BlockTransaction getLazy(String hex, int height, Long fee) {
+        Transaction transaction = new Transaction(Utils.hexToBytes(hex));
+        return new LazyBlockTransaction(transaction.getTxId(), height, DATE, fee, Utils.hexToBytes(hex), null, null);
+    }
+}
@@ -0,0 +1,54 @@
+package com.sparrowwallet.sparrow.p2p.chat;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.sparrowwallet.sparrow.SparrowWallet;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+public class ChatMessageStorageTest {
+    private static final String SENDER_HEX = "6e468422dfb74a5738702a8823b9b28168abab8655faacb6853cd0ee15deee93";
+    private static final String RECIPIENT_HEX = "32e1827635450ebb3c5a7d12c1f8e7b2b514439ac10a67eef3d9fd9c5c68e245";
+
+    @Test
+    public void offerConversations() throws Exception {
+        File home = Files.createTempDirectory("sparrow").toFile();
+        System.setProperty(SparrowWallet.APP_HOME_PROPERTY, home.getAbsolutePath());
+
+        //Offer chats are keyed by the trade offer UUID, including conversations stored by earlier versions
+        String migratedId = UUID.randomUUID().toString();
+        ChatMessage migrated = new ChatMessage(SENDER_HEX, "Alice", RECIPIENT_HEX, "Is this offer available?", LocalDateTime.now().minusMinutes(5), "a".repeat(64), false);
+        JsonArray messages = new JsonArray();
+        messages.add(ChatMessageLog.toJson(migrated));
+        JsonObject conversations = new JsonObject();
+        conversations.add(migratedId, messages);
+        JsonObject root = new JsonObject();
+        root.add("conversations", conversations);
+        File messagesFile = new File(home, "chat-messages.json");
+        Files.writeString(messagesFile.toPath(), root.toString(), StandardCharsets.UTF_8);
+
+        ChatMessageStorage storage = ChatMessageStorage.getInstance();
+        Assertions.assertFalse(messagesFile.exists());
+        Assertions.assertEquals(1, storage.getAllConversations().get(migratedId).size());
+
+        String offerId = UUID.randomUUID().toString();
+        storage.addMessage(offerId, new ChatMessage(RECIPIENT_HEX, "Bob", SENDER_HEX, "Yes", LocalDateTime.now(), "b".repeat(64), true));
+        Assertions.assertEquals(1, storage.getAllConversations().get(offerId).size());
+        Assertions.assertTrue(new File(new File(home, "chat"), offerId + ".log").exists());
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> storage.addMessage("../" + offerId, migrated));
+    }
+
+    @AfterEach
+    void tearDown() {
+        ChatMessageStorage.getInstance().clearAll();
+        System.clearProperty(SparrowWallet.APP_HOME_PROPERTY);
+    }
+}